@@ -0,0 +1,90 @@
+package projects.bench;
+
+import projects.bench.Microbench.Result;
+import projects.common.JsonReader;
+
+import java.util.*;
+
+/**
+ * Benchmark results as JSON, in the shape JMH writes with -rf json (benchmark, mode,
+ * params.size, primaryMetric.score/scoreError/scoreUnit/rawData), so the usual JMH
+ * visualisers and scripts can read them. Also the regression check against a baseline.
+ */
+final class BenchJson {
+    private BenchJson() {}
+
+    static String write(List<Result> results) {
+        StringBuilder out = new StringBuilder("[\n");
+        for(int i = 0; i < results.size(); i++) {
+            out.append("  ").append(writeOne(results.get(i)));
+            out.append(i + 1 < results.size() ? ",\n" : "\n");
+        }
+        return out.append("]\n").toString();
+    }
+
+    static String writeOne(Result r) {
+        StringBuilder out = new StringBuilder();
+        out.append("{\"benchmark\":\"").append(r.name()).append("\",\"mode\":\"avgt\",")
+           .append("\"params\":{\"size\":\"").append(r.size()).append("\"},")
+           .append("\"primaryMetric\":{\"score\":").append(number(r.score()))
+           .append(",\"scoreError\":").append(number(r.error()))
+           .append(",\"scoreUnit\":\"ns/op\",\"rawData\":[[");
+        for(int i = 0; i < r.iterations().length; i++) {
+            if(i > 0) out.append(',');
+            out.append(number(r.iterations()[i]));
+        }
+        return out.append("]]}}").toString();
+    }
+
+    // JSON has no NaN: an unknown error is written as "NaN", as JMH does
+    private static String number(double d) {
+        return Double.isFinite(d) ? Double.toString(d) : "\"NaN\"";
+    }
+
+    /** Reads results written by write (or by JMH, if its scores are in ns/op). */
+    @SuppressWarnings("unchecked")
+    static List<Result> read(String json) {
+        List<Result> res = new ArrayList<>();
+        for(Object o : (List<Object>) JsonReader.parse(json)) {
+            Map<String, Object> m = (Map<String, Object>) o;
+            Map<String, Object> params = (Map<String, Object>) m.getOrDefault("params", Map.of());
+            Map<String, Object> metric = (Map<String, Object>) m.get("primaryMetric");
+            List<Object> raw = (List<Object>) metric.getOrDefault("rawData", List.of());
+            double[] iterations = raw.stream().flatMap(fork -> ((List<Object>) fork).stream())
+                    .mapToDouble(BenchJson::toDouble).toArray();
+            res.add(new Result((String) m.get("benchmark"), (int) toDouble(params.getOrDefault("size", "0")),
+                    toDouble(metric.get("score")), toDouble(metric.get("scoreError")), iterations));
+        }
+        return res;
+    }
+
+    private static double toDouble(Object o) {
+        return o instanceof Number n ? n.doubleValue() : Double.parseDouble((String) o);
+    }
+
+    /**
+     * Every benchmark of current that is more than maxPercent slower than in baseline,
+     * counting only the part of the slowdown beyond both error bars (so noise alone does
+     * not fail a build). Benchmarks missing from the baseline are not compared.
+     */
+    static List<String> regressions(List<Result> baseline, List<Result> current, double maxPercent) {
+        Map<String, Result> before = new HashMap<>();
+        for(Result r : baseline) before.put(r.name() + "@" + r.size(), r);
+        List<String> res = new ArrayList<>();
+        for(Result now : current) {
+            Result old = before.get(now.name() + "@" + now.size());
+            if(old == null) continue;
+            double noise = errorOrZero(old) + errorOrZero(now);
+            double slowdown = now.score() - old.score() - noise;
+            if(slowdown > old.score() * maxPercent / 100) {
+                res.add(String.format("%s size=%d: %.1f -> %.1f ns/op (+%.0f%%)", now.name(), now.size(),
+                        old.score(), now.score(), 100 * (now.score() / old.score() - 1)));
+            }
+        }
+        return res;
+    }
+
+    private static double errorOrZero(Result r) {
+        return Double.isFinite(r.error()) ? r.error() : 0;
+    }
+}
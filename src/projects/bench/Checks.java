@@ -0,0 +1,83 @@
+package projects.bench;
+
+import projects.contactbook.ContactBookChecks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Correctness checks that go with the benchmarks, without external dependencies (the repo
+ * has no test framework): round trips through the persistence formats and randomized runs
+ * against a simple model. Each check throws IllegalStateException on the first thing that
+ * is wrong; the runner prints PASS / FAIL per check and exits with status 1 if one failed.
+ *
+ *   java -cp out projects.bench.Checks [options]
+ *     --filter regex   only matching check names (e.g. "library\\.wal.*")
+ *     --list           print the check names
+ */
+public final class Checks {
+
+    /** A check; throws on failure. */
+    public interface Body {
+        void run() throws Exception;
+    }
+
+    public record Check(String name, Body body) {}
+
+    private Checks() {}
+
+    public static List<Check> allChecks() {
+        List<Check> checks = new ArrayList<>(LibraryChecks.checks());
+        checks.addAll(CommonChecks.checks());
+        checks.addAll(ContactBookChecks.checks());
+        return checks;
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> opt = new HashMap<>();
+        for(int i = 0; i < args.length; i++) {
+            if(!args[i].startsWith("--")) throw new IllegalArgumentException("unknown argument " + args[i]);
+            String key = args[i].substring(2);
+            opt.put(key, key.equals("list") ? "" : args[++i]);
+        }
+        if(opt.containsKey("list")) {
+            for(Check c : allChecks()) System.out.println(c.name());
+            return;
+        }
+        Pattern filter = Pattern.compile(opt.getOrDefault("filter", ".*"));
+        int failed = 0;
+        for(Check c : allChecks()) {
+            if(!filter.matcher(c.name()).matches()) continue;
+            long start = System.nanoTime();
+            try {
+                c.body().run();
+                System.out.printf("PASS %-40s %6d ms%n", c.name(), (System.nanoTime() - start) / 1_000_000);
+            } catch (Exception | AssertionError e) {
+                failed++;
+                System.out.printf("FAIL %-40s %s%n", c.name(), e);
+                e.printStackTrace(System.out);
+            }
+        }
+        if(failed > 0) {
+            System.out.println(failed + " checks failed");
+            System.exit(1);
+        }
+    }
+
+    public static void expect(boolean ok, String message) {
+        if(!ok) throw new IllegalStateException(message);
+    }
+
+    // the first line where the two differ, or null
+    public static String firstDifference(List<String> expected, List<String> actual) {
+        for(int i = 0; i < Math.max(expected.size(), actual.size()); i++) {
+            String e = i < expected.size() ? expected.get(i) : "<nothing>";
+            String a = i < actual.size() ? actual.get(i) : "<nothing>";
+            if(!e.equals(a)) return "line " + i + ": expected " + e + ", got " + a;
+        }
+        return null;
+    }
+}
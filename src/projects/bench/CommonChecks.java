@@ -0,0 +1,225 @@
+package projects.bench;
+
+import projects.bench.Checks.Check;
+import projects.common.ConcurrentLongKeyMap;
+import projects.common.PhoneTrie;
+import projects.common.TrigramIndex;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static projects.bench.Checks.expect;
+
+/**
+ * Checks of the shared data structures in projects.common, against java.util models.
+ */
+final class CommonChecks {
+
+    private CommonChecks() {}
+
+    static List<Check> checks() {
+        return List.of(
+                new Check("common.concurrentLongKeyMap.model", CommonChecks::longKeyMapModel),
+                new Check("common.concurrentLongKeyMap.concurrent", CommonChecks::longKeyMapConcurrent),
+                new Check("common.phoneTrie.model", CommonChecks::phoneTrieModel),
+                new Check("common.trigramIndex.model", CommonChecks::trigramIndexModel));
+    }
+
+    // ------------------------------ CONCURRENT LONG KEY MAP ------------------------------------------
+
+    // random operations on one thread, compared with a HashMap after each
+    private static void longKeyMapModel() {
+        SplittableRandom rnd = new SplittableRandom(1);
+        ConcurrentLongKeyMap<String> map = new ConcurrentLongKeyMap<>(4);
+        Map<Long, String> model = new HashMap<>();
+        for(int i = 0; i < 300_000; i++) {
+            // small keys collide a lot; a few far apart or negative ones test the hashing
+            long key = rnd.nextInt(10) == 0 ? rnd.nextLong() : rnd.nextInt(5_000) - 100;
+            String value = "v" + i;
+            switch (rnd.nextInt(5)) {
+                case 0 -> expect(Objects.equals(map.put(key, value), model.put(key, value)), "put " + key);
+                case 1 -> expect(Objects.equals(map.putIfAbsent(key, value), model.putIfAbsent(key, value)), "putIfAbsent " + key);
+                case 2 -> expect(map.computeIfAbsent(key, k -> value).equals(model.computeIfAbsent(key, k -> value)), "computeIfAbsent " + key);
+                case 3 -> expect(Objects.equals(map.remove(key), model.remove(key)), "remove " + key);
+                default -> expect(Objects.equals(map.get(key), model.get(key)), "get " + key);
+            }
+            expect(map.containsKey(key) == model.containsKey(key), "containsKey " + key);
+            if(i % 10_000 == 0) sameValues(map, model);
+        }
+        sameValues(map, model);
+    }
+
+    private static void sameValues(ConcurrentLongKeyMap<String> map, Map<Long, String> model) {
+        expect(map.size() == model.size(), "size " + map.size() + ", expected " + model.size());
+        List<String> expected = new ArrayList<>(model.values());
+        List<String> seen = new ArrayList<>();
+        map.forEachValue(seen::add);
+        Collections.sort(expected);
+        Collections.sort(seen);
+        expect(seen.equals(expected), "forEachValue visited other values");
+        List<String> values = map.values();
+        Collections.sort(values);
+        expect(values.equals(expected), "values() differs");
+    }
+
+    // writers on interleaved keys (same segments, different keys) and a reader iterating meanwhile
+    private static void longKeyMapConcurrent() throws Exception {
+        int threads = 4;
+        ConcurrentLongKeyMap<Long> map = new ConcurrentLongKeyMap<>();
+        List<Map<Long, Long>> models = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> writers = new ArrayList<>();
+        for(int t = 0; t < threads; t++) {
+            int id = t;
+            Map<Long, Long> model = new HashMap<>();
+            models.add(model);
+            writers.add(new Thread(() -> {
+                try {
+                    SplittableRandom rnd = new SplittableRandom(id);
+                    for(int i = 0; i < 200_000; i++) {
+                        long key = (long) rnd.nextInt(20_000) * threads + id;
+                        if(rnd.nextInt(3) == 0) {
+                            expect(Objects.equals(map.remove(key), model.remove(key)), "remove " + key);
+                        } else {
+                            expect(Objects.equals(map.put(key, key * 31), model.put(key, key * 31)), "put " + key);
+                        }
+                        expect(Objects.equals(map.get(key), model.get(key)), "get " + key);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            try {
+                while(!done.get()) {
+                    // every value seen is one some writer put (value = key * 31, keys >= 0)
+                    map.forEachValue(v -> expect(v % 31 == 0 && v >= 0, "torn value " + v));
+                    expect(map.size() >= 0, "negative size");
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        for(Thread w : writers) w.start();
+        reader.start();
+        for(Thread w : writers) w.join();
+        done.set(true);
+        reader.join();
+        if(failure.get() != null) throw new IllegalStateException(failure.get());
+        Map<Long, Long> all = new HashMap<>();
+        for(Map<Long, Long> m : models) all.putAll(m);
+        expect(map.size() == all.size(), "size " + map.size() + ", expected " + all.size());
+        for(Map.Entry<Long, Long> e : all.entrySet()) expect(e.getValue().equals(map.get(e.getKey())), "lost key " + e.getKey());
+    }
+
+    // ------------------------------ PHONE TRIE ------------------------------------------
+
+    // random puts and removes, with separators, compared with a TreeMap of the digits; the digit
+    // strings sort the way the trie lists them (a number before the longer ones it is a prefix of)
+    private static void phoneTrieModel() {
+        SplittableRandom rnd = new SplittableRandom(2);
+        PhoneTrie trie = new PhoneTrie();
+        TreeMap<String, Long> model = new TreeMap<>();
+        for(int i = 0; i < 200_000; i++) {
+            String digits = randomDigits(rnd);
+            String phone = formatted(digits, rnd);
+            switch (rnd.nextInt(4)) {
+                case 0, 1 -> {
+                    trie.put(phone, i);
+                    model.put(digits, (long) i);
+                }
+                case 2 -> {
+                    Long removed = model.remove(digits);
+                    expect(trie.remove(phone) == (removed == null ? -1 : removed), "remove " + phone);
+                }
+                default -> {
+                    Long id = model.get(digits);
+                    expect(trie.get(phone) == (id == null ? -1 : id), "get " + phone);
+                }
+            }
+            expect(trie.contains(phone) == model.containsKey(digits), "contains " + phone);
+            expect(trie.size() == model.size(), "size " + trie.size() + ", expected " + model.size());
+            if(i % 100 == 0) {
+                String prefix = digits.substring(0, rnd.nextInt(digits.length() + 1));
+                int limit = 1 + rnd.nextInt(50);
+                expect(Arrays.equals(trie.startingWith("+" + prefix, limit), startingWith(model, prefix, limit)),
+                        "startingWith +" + prefix + " limit " + limit);
+            }
+        }
+        expect(Arrays.equals(trie.startingWith("", Integer.MAX_VALUE), startingWith(model, "", Integer.MAX_VALUE)), "every number");
+        for(String digits : new ArrayList<>(model.keySet())) expect(trie.remove(digits) == model.remove(digits), "remove " + digits);
+        expect(trie.size() == 0 && trie.startingWith("", 10).length == 0, "not empty after removing everything");
+    }
+
+    // few distinct leading digits, so numbers share long prefixes and edges split and merge
+    private static String randomDigits(SplittableRandom rnd) {
+        StringBuilder sb = new StringBuilder();
+        for(int n = 1 + rnd.nextInt(PhoneTrie.MAX_DIGITS); sb.length() < n; ) {
+            sb.append((char) ('0' + (sb.length() < 6 ? rnd.nextInt(3) : rnd.nextInt(10))));
+        }
+        return sb.toString();
+    }
+
+    // the digits with an optional '+' and separators the trie ignores
+    private static String formatted(String digits, SplittableRandom rnd) {
+        StringBuilder sb = new StringBuilder(rnd.nextBoolean() ? "+" : "");
+        for(int i = 0; i < digits.length(); i++) {
+            if(i > 0 && rnd.nextInt(6) == 0) sb.append(" -.()".charAt(rnd.nextInt(5)));
+            sb.append(digits.charAt(i));
+        }
+        return sb.toString();
+    }
+
+    private static long[] startingWith(TreeMap<String, Long> model, String prefix, int limit) {
+        return model.subMap(prefix, prefix + Character.MAX_VALUE).values().stream()
+                .limit(limit).mapToLong(Long::longValue).toArray();
+    }
+
+    // ------------------------------ TRIGRAM INDEX ------------------------------------------
+
+    // puts, replaces and removes (enough to renumber the documents many times), compared with a
+    // HashMap: a search returns only current values, each once, best score first, finds a document
+    // by its own text, and its top results don't depend on the limit
+    private static void trigramIndexModel() {
+        SplittableRandom rnd = new SplittableRandom(4);
+        String[] syllables = {"ka", "lo", "mi", "ne", "ros", "tis", "pou", "an", "vi", "ze"};
+        TrigramIndex<Integer, String> index = new TrigramIndex<>();
+        Map<Integer, String> model = new HashMap<>();
+        for(int i = 0; i < 100_000; i++) {
+            int key = rnd.nextInt(2_000);
+            if(rnd.nextInt(3) == 0) {
+                index.remove(key);
+                model.remove(key);
+            } else {
+                StringBuilder text = new StringBuilder();
+                for(int w = 1 + rnd.nextInt(2); w > 0; w--) {
+                    text.append(' ');
+                    for(int n = 2 + rnd.nextInt(3); n > 0; n--) text.append(syllables[rnd.nextInt(syllables.length)]);
+                }
+                index.put(key, text.toString(), key + ":" + text);
+                model.put(key, text.toString());
+            }
+            expect(index.size() == model.size(), "size " + index.size() + ", expected " + model.size());
+            if(i % 500 == 0 && !model.isEmpty()) {
+                int probe = new ArrayList<>(model.keySet()).get(rnd.nextInt(model.size()));
+                String text = model.get(probe);
+                List<String> found = index.search(text, model.size());
+                expect(found.contains(probe + ":" + text), "\"" + text + "\" not found");
+                expect(new HashSet<>(found).size() == found.size(), "\"" + text + "\" found twice");
+                double last = Double.MAX_VALUE;
+                for(String v : found) {
+                    int k = Integer.parseInt(v.substring(0, v.indexOf(':')));
+                    expect(v.equals(k + ":" + model.get(k)), "stale value " + v);
+                    double score = TrigramIndex.score(text, model.get(k));
+                    expect(score <= last, "\"" + text + "\" ranks " + v + " above a better match");
+                    last = score;
+                }
+                int top = Math.min(5, found.size());
+                expect(index.search(text, top).equals(found.subList(0, top)), "\"" + text + "\" top " + top + " is not the start of the full ranking");
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package projects.bench;
+
+import projects.bench.Microbench.Case;
+import projects.bench.Microbench.Fixture;
+import projects.common.EventRing;
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.service.ChangeEvent;
+import projects.librarymanagement.service.ChangeStream;
+import projects.librarymanagement.service.LibraryService;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LibraryService cases. A fixture of size n has n books, n members and n active loans
+ * (loan i: member i, book i), so the loan indexes are as full as the catalog.
+ */
+final class LibraryBenchmarks {
+    private static final String[] WORDS = {"Silent", "River", "Winter", "Garden", "Empire", "Shadow", "Island", "Memory", "Glass", "Night"};
+    private static final String[] AUTHORS = {"Tolkien", "Atwood", "Murakami", "Kazantzakis", "Rowling",
+            "Dostoevsky", "Austen", "Orwell", "Calvino", "Morrison", "Borges", "Woolf", "Pamuk", "Ishiguro"};
+    private static final String[] PREFIXES = {"Silent R", "Winter", "Gla", "Night Sh", "Emp"};
+    private static final String[] TYPOS = {"shadw island", "memory glas", "murakmi", "winter rivr", "kazantsakis", "orwel"};
+    // a borrow case borrows up to MAX_OPS_PER_ITERATION loans per iteration, spread over the books
+    private static final int COPIES = 1_000;
+
+    private LibraryBenchmarks() {}
+
+    static List<Case> cases() {
+        return List.of(
+                new Case("library.addBook", LibraryBenchmarks::addBook),
+                new Case("library.borrow", LibraryBenchmarks::borrow),
+                new Case("library.returnLoan", LibraryBenchmarks::returnLoan),
+                new Case("library.findBookByIsbn", n -> {
+                    LibraryService s = service(n);
+                    String[] isbns = isbns(n);
+                    return i -> s.findBookByIsbn(isbns[i % n]).getTotalCopies();
+                }),
+                new Case("library.availableCopies", n -> {
+                    LibraryService s = service(n);
+                    String[] isbns = isbns(n);
+                    return i -> s.availableCopies(isbns[i % n]);
+                }),
+                new Case("library.searchBooksByTitlePrefix", n -> {
+                    LibraryService s = service(n);
+                    return i -> s.searchBooksByTitlePrefix(PREFIXES[i % PREFIXES.length], 10).size();
+                }),
+                new Case("library.searchBooks", n -> {
+                    LibraryService s = service(n);
+                    return i -> s.searchBooks(TYPOS[i % TYPOS.length], 10).size();
+                }),
+                new Case("library.listActiveLoansSortedByDueDate", n -> {
+                    LibraryService s = service(n);
+                    return i -> s.listActiveLoansSortedByDueDate().size();
+                }),
+                // a page from the middle of the listing
+                new Case("library.listActiveLoansPage", n -> {
+                    LibraryService s = service(n);
+                    String cursor = s.listActiveLoansPage(null, n / 2).getNextCursor();
+                    return i -> s.listActiveLoansPage(cursor, 50).getItems().size();
+                }),
+                new Case("library.listFirstDue", n -> {
+                    LibraryService s = service(n);
+                    return i -> s.listFirstDue(20).size();
+                }),
+                new Case("library.listLoansByMember", n -> {
+                    LibraryService s = service(n);
+                    return i -> s.listLoansByMember(1 + i % n).size();
+                }),
+                new Case("library.statsFor", n -> {
+                    LibraryService s = service(n);
+                    return i -> s.statsFor(1 + i % n).getActive();
+                }),
+                // a full report: the view plus a pass over every member's counters
+                new Case("library.computeLoanStatsByMember", n -> {
+                    LibraryService s = service(n);
+                    return i -> {
+                        long active = 0;
+                        for(LibraryService.LoanStats st : s.computeLoanStatsByMember().values()) active += st.getActive();
+                        return active;
+                    };
+                }),
+                new Case("library.changeStream", LibraryBenchmarks::changeStream));
+    }
+
+    private static Fixture addBook(int n) {
+        LibraryService s = service(n);
+        long[] next = {n};
+        return i -> {
+            long k = next[0]++;
+            return s.addBook(isbn(k), title(k), author(k), COPIES) == null ? 0 : 1;
+        };
+    }
+
+    // the loans of the previous iteration are returned (untimed) before the next one
+    private static Fixture borrow(int n) {
+        LibraryService s = service(n);
+        String[] isbns = isbns(n);
+        List<Loan> open = new ArrayList<>();
+        return new Fixture() {
+            @Override
+            public void beforeIteration(int maxOps) {
+                for(Loan l : open) s.returnLoan(l.getId());
+                open.clear();
+            }
+
+            @Override
+            public long run(int i) {
+                Loan l = s.borrow(isbns[i % n], 1 + (i / n + i) % n);
+                open.add(l);
+                return l.getId();
+            }
+        };
+    }
+
+    // the loans to return are borrowed (untimed) before every iteration
+    private static Fixture returnLoan(int n) {
+        LibraryService s = service(n);
+        String[] isbns = isbns(n);
+        return new Fixture() {
+            long[] ids = new long[0];
+
+            @Override
+            public void beforeIteration(int maxOps) {
+                for(long id : ids) s.returnLoan(id); // the ones the last iteration did not reach
+                ids = new long[maxOps];
+                for(int i = 0; i < maxOps; i++) ids[i] = s.borrow(isbns[i % n], 1 + (i / n + i) % n).getId();
+            }
+
+            @Override
+            public long run(int i) {
+                long id = ids[i];
+                ids[i] = -1; // returnLoan(-1) finds nothing
+                return s.returnLoan(id) ? 1 : 0;
+            }
+        };
+    }
+
+    // one change event published and handled; the subscriber drains a batch every 1024 events
+    private static Fixture changeStream(int n) {
+        ChangeStream stream = new ChangeStream(ChangeStream.DEFAULT_CAPACITY);
+        EventRing.Subscription<ChangeEvent> sub = stream.subscribe();
+        Loan[] loans = new Loan[Math.min(n, 1 << 16)];
+        for(int i = 0; i < loans.length; i++) loans[i] = new Loan(i, isbn(i), i, LocalDate.now(), LocalDate.now().plusDays(14));
+        long[] seen = new long[1];
+        EventRing.Handler<ChangeEvent> handler = (e, seq, end) -> seen[0] += e.getLoanId();
+        return new Fixture() {
+            @Override
+            public void beforeIteration(int maxOps) {
+                while(sub.poll(handler, Integer.MAX_VALUE) > 0);
+            }
+
+            @Override
+            public long run(int i) {
+                stream.loanCreated(loans[i % loans.length]);
+                if((i & 1023) == 1023) sub.poll(handler, 1024);
+                return seen[0];
+            }
+        };
+    }
+
+    static LibraryService service(int n) {
+        LibraryService s = new LibraryService();
+        List<Book> books = new ArrayList<>(n);
+        for(int i = 0; i < n; i++) books.add(new Book(isbn(i), title(i), author(i), COPIES));
+        s.addBooks(books);
+        List<LibraryService.NewMember> drafts = new ArrayList<>(n);
+        for(int i = 1; i <= n; i++) drafts.add(new LibraryService.NewMember("Member " + i, "member" + i + "@example.com"));
+        s.registerMembers(drafts);
+        for(int i = 0; i < n; i++) s.borrow(isbn(i), i + 1);
+        return s;
+    }
+
+    private static String[] isbns(int n) {
+        String[] res = new String[n];
+        for(int i = 0; i < n; i++) res[i] = isbn(i);
+        return res;
+    }
+
+    // ISBN-13 with a valid check digit
+    private static String isbn(long i) {
+        String body = String.format("978%09d", i);
+        int sum = 0;
+        for(int k = 0; k < 12; k++) sum += (body.charAt(k) - '0') * ((k & 1) == 0 ? 1 : 3);
+        return body + (10 - sum % 10) % 10;
+    }
+
+    private static String title(long i) {
+        return WORDS[(int) (i % 10)] + " " + WORDS[(int) (i / 10 % 10)] + " " + i;
+    }
+
+    private static String author(long i) {
+        return WORDS[(int) (i / 100 % 10)] + " " + AUTHORS[(int) (i % AUTHORS.length)];
+    }
+}
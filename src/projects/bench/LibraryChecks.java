@@ -0,0 +1,402 @@
+package projects.bench;
+
+import projects.bench.Checks.Check;
+import projects.common.Validators;
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.persistence.LibraryStore;
+import projects.librarymanagement.persistence.RecordWriter;
+import projects.librarymanagement.persistence.WriteAheadLog;
+import projects.librarymanagement.service.LibraryMutationListener;
+import projects.librarymanagement.service.LibraryService;
+import projects.librarymanagement.service.LoanArchive;
+import projects.librarymanagement.service.MutationLog;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static projects.bench.Checks.expect;
+import static projects.bench.Checks.firstDifference;
+
+/**
+ * LibraryService checks: the write-ahead log and snapshots give back the state they were
+ * taken from, the loan archive gives back the loans it was given.
+ */
+final class LibraryChecks {
+    private static final int BOOKS = 50;
+    private static final int MEMBERS = 50;
+
+    private LibraryChecks() {}
+
+    static List<Check> checks() {
+        return List.of(
+                new Check("library.wal.roundTrip", LibraryChecks::walRoundTrip),
+                new Check("library.wal.tornTail", LibraryChecks::walTornTail),
+                new Check("library.wal.closedLogRejects", LibraryChecks::closedLogRejects),
+                new Check("library.wal.longText", LibraryChecks::walLongText),
+                new Check("library.wal.failedHandOff", LibraryChecks::walFailedHandOff),
+                new Check("library.archive.roundTrip", LibraryChecks::archiveRoundTrip));
+    }
+
+    // ------------------------------ WRITE-AHEAD LOG ------------------------------------------
+
+    // writers on 4 threads with snapshots in between, then a restart from the directory
+    private static void walRoundTrip() throws Exception {
+        Path dir = Files.createTempDirectory("wal-check");
+        try {
+            LibraryService before = new LibraryService();
+            try (LibraryStore store = LibraryStore.open(dir, before, 1, 0, 0)) {
+                populate(before);
+                runWorkload(before, store, 4, 3_000);
+            }
+            List<String> expected = state(before);
+            LibraryService after = new LibraryService();
+            try (LibraryStore store = LibraryStore.open(dir, after, 1, 0, 0)) {
+                expect(store.getRecoveredRecords() > 0, "nothing recovered");
+                String diff = firstDifference(expected, state(after));
+                expect(diff == null, "restored state differs, " + diff);
+                // ids go on after the restored ones
+                long maxId = before.listMembersSortedByName().stream().mapToLong(m -> m.getId()).max().orElse(0);
+                expect(after.registerMember("New", "new@example.com").getId() > maxId, "member id handed out twice");
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // a record cut short at the end of the log (crash mid-write) is dropped, everything before it stays
+    private static void walTornTail() throws Exception {
+        Path dir = Files.createTempDirectory("wal-check");
+        try {
+            LibraryService first = new LibraryService();
+            List<String> expected;
+            try (LibraryStore store = LibraryStore.open(dir, first, 1, 0, 0)) {
+                populate(first);
+                runWorkload(first, store, 1, 500);
+                expected = state(first);
+                expect(first.borrow(isbn(0), 1) != null || first.borrow(isbn(1), 2) != null, "no copy left to borrow");
+            }
+            Path last;
+            try (Stream<Path> files = Files.list(dir)) {
+                last = files.filter(p -> p.getFileName().toString().startsWith("wal-")).max(Comparator.naturalOrder()).orElseThrow();
+            }
+            try (FileChannel ch = FileChannel.open(last, StandardOpenOption.WRITE)) {
+                ch.truncate(ch.size() - 3);
+            }
+            LibraryService restored = new LibraryService();
+            try (LibraryStore store = LibraryStore.open(dir, restored, 1, 0, 0)) {
+                expect(store.getRecoveredRecords() > 0, "nothing recovered");
+                String diff = firstDifference(expected, state(restored));
+                expect(diff == null, "state after a torn tail differs, " + diff);
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // once the log can't take a change, the change is not applied either
+    private static void closedLogRejects() throws Exception {
+        Path dir = Files.createTempDirectory("wal-check");
+        try {
+            LibraryService s = new LibraryService();
+            LibraryStore store = LibraryStore.open(dir, s, 1, 0, 0);
+            populate(s);
+            Loan open = s.borrow(isbn(0), 1);
+            store.close();
+            List<String> expected = state(s);
+            expectRejected(() -> s.borrow(isbn(1), 2));
+            expectRejected(() -> s.returnLoan(open.getId()));
+            expectRejected(() -> s.borrowAll(3, List.of(isbn(2), isbn(3))));
+            expectRejected(() -> s.updateMemberEmail(4, "changed@example.com"));
+            expectRejected(() -> s.registerMember("Late", "late@example.com"));
+            expectRejected(() -> s.addBook("9799999999999", "Late", "Nobody", 1));
+            String diff = firstDifference(expected, state(s));
+            expect(diff == null, "a change the log refused was applied, " + diff);
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // text too long for a record is refused before it is logged; a change that fails to encode
+    // anyway leaves nothing in the log, and the records after it replay
+    private static void walLongText() throws Exception {
+        String huge = "x".repeat(70_000);
+        Path dir = Files.createTempDirectory("wal-check");
+        try {
+            LibraryService s = new LibraryService();
+            List<String> expected;
+            try (LibraryStore store = LibraryStore.open(dir, s, 1, 0, 0)) {
+                populate(s);
+                expectRefused(() -> s.addBook("9799999999999", huge, "Nobody", 1));
+                expectRefused(() -> s.addBooks(List.of(new Book("9799999999998", "Fine", "Nobody", 1),
+                        new Book("9799999999999", "Long", huge, 1))));
+                expectRefused(() -> s.registerMember(huge, null));
+                expectRefused(() -> s.updateMemberEmail(1, huge + "@example.com"));
+                s.registerMember("After", "after@example.com");
+                store.sync();
+                expected = state(s);
+            }
+            try (WriteAheadLog wal = new WriteAheadLog(dir, 99, 1, 0)) {
+                try {
+                    wal.append(out -> out.booksAdded(List.of(new Book("9799999999998", "Fine", "Nobody", 1),
+                            new Book("9799999999999", huge, "Nobody", 1))));
+                    throw new IllegalStateException("a record over 64 KB was appended");
+                } catch (UncheckedIOException e) {
+                    // expected
+                }
+                wal.append(out -> out.memberRegistered(1_000_001, "Logged", null));
+                wal.sync();
+            }
+            LibraryService restored = new LibraryService();
+            try (LibraryStore store = LibraryStore.open(dir, restored, 1, 0, 0)) {
+                expect(store.getRecoveredRecords() > 0, "nothing recovered");
+                expect(restored.findBookByIsbn("9799999999998") == null, "half of a failed append was replayed");
+                expect(restored.findMemberById(1_000_001) != null, "the append after a failed one was lost");
+                List<String> actual = state(restored);
+                actual.removeIf(line -> line.contains("Logged"));
+                String diff = firstDifference(expected, actual);
+                expect(diff == null, "state after refused long text differs, " + diff);
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // a returned copy whose loan to the first hold the log refuses goes to the next hold, not the shelf
+    private static void walFailedHandOff() {
+        LibraryService s = new LibraryService();
+        AtomicBoolean failNextLoan = new AtomicBoolean();
+        RecordWriter records = new RecordWriter(OutputStream.nullOutputStream()) {
+            @Override
+            public void loanCreated(Loan loan) {
+                if(failNextLoan.getAndSet(false)) throw new UncheckedIOException(new IOException("disk full"));
+                super.loanCreated(loan);
+            }
+        };
+        AtomicLong appended = new AtomicLong();
+        s.setLog(new MutationLog() {
+            @Override
+            public long append(Consumer<LibraryMutationListener> change) {
+                change.accept(records);
+                return appended.incrementAndGet();
+            }
+
+            @Override public void awaitDurable(long ticket) {}
+            @Override public void applied(long ticket) {}
+        });
+        s.addBook(isbn(0), "Held", "Nobody", 1);
+        long lender = s.registerMember("Lender", null).getId();
+        long first = s.registerMember("First", null).getId();
+        long second = s.registerMember("Second", null).getId();
+        Loan lent = s.borrow(isbn(0), lender);
+        CompletableFuture<Loan> firstHold = s.placeHold(isbn(0), first);
+        CompletableFuture<Loan> secondHold = s.placeHold(isbn(0), second);
+        failNextLoan.set(true);
+        expect(s.returnLoan(lent.getId()), "return failed");
+        expect(firstHold.isCompletedExceptionally(), "the hold whose loan the log refused did not fail");
+        expect(secondHold.isDone() && !secondHold.isCompletedExceptionally(), "the next hold did not get the copy");
+        expect(secondHold.join().getMemberId() == second, "the copy went to the wrong member");
+        expect(s.availableCopies(isbn(0)) == 0, "the copy is on the shelf while it is lent");
+        expect(s.returnLoan(secondHold.join().getId()) && s.availableCopies(isbn(0)) == 1, "the copy did not come back");
+    }
+
+    private static void expectRefused(Runnable change) {
+        try {
+            change.run();
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        throw new IllegalStateException("text over " + Validators.MAX_TEXT_LENGTH + " characters was accepted");
+    }
+
+    private static void expectRejected(Runnable change) {
+        try {
+            change.run();
+        } catch (IllegalStateException e) {
+            return;
+        }
+        throw new IllegalStateException("a change went through a closed log");
+    }
+
+    // ------------------------------ LOAN ARCHIVE ------------------------------------------
+
+    // in direct buffers and in files, over several segments; close deletes the files
+    private static void archiveRoundTrip() throws Exception {
+        archiveRoundTrip(new LoanArchive(), 100_000);
+        Path dir = Files.createTempDirectory("archive-check");
+        try {
+            Files.createFile(dir.resolve("loans-000009.seg")); // left over from an earlier run
+            LoanArchive files = new LoanArchive(dir);
+            expect(!Files.exists(dir.resolve("loans-000009.seg")), "old segment file kept");
+            archiveRoundTrip(files, 1_100_000);
+            files.close();
+            try (Stream<Path> left = Files.list(dir)) {
+                expect(left.findAny().isEmpty(), "segment files left after close");
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    private static void archiveRoundTrip(LoanArchive archive, int n) {
+        SplittableRandom rnd = new SplittableRandom(7);
+        List<Loan> loans = new ArrayList<>(n);
+        LocalDate base = LocalDate.of(2020, 1, 1);
+        for(int i = 0; i < n; i++) {
+            LocalDate loaned = base.plusDays(rnd.nextInt(2000));
+            // every other id, so there are ids in between that were never archived
+            loans.add(new Loan(2L * i + 1, isbn(rnd.nextInt(5_000)), 1 + rnd.nextInt(100_000), loaned,
+                    loaned.plusDays(14), loaned.plusDays(rnd.nextInt(60))));
+        }
+        for(Loan l : loans) archive.append(l);
+        expect(archive.size() == n, archive.size() + " archived, " + n + " appended");
+        for(int i = 0; i < n; i += 7) {
+            Loan l = loans.get(i);
+            expect(describe(l).equals(describe(archive.get(l.getId()))), "loan " + l.getId() + " read back as " + describe(archive.get(l.getId())));
+            expect(!archive.contains(l.getId() + 1), "loan " + (l.getId() + 1) + " was never archived");
+        }
+        int[] i = {0};
+        archive.forEach(l -> {
+            expect(describe(loans.get(i[0])).equals(describe(l)), "row " + i[0] + " read back as " + describe(l));
+            i[0]++;
+        });
+        expect(i[0] == n, "forEach visited " + i[0] + " of " + n);
+    }
+
+    private static String describe(Loan l) {
+        return l == null ? "null" : l.getId() + " " + l.getIsbn() + " member " + l.getMemberId() + " " + l.getLoanDate()
+                + ".." + l.getDueDate() + " returned " + l.getReturnDate();
+    }
+
+    // ------------------------------ WORKLOAD ------------------------------------------
+
+    private static void populate(LibraryService s) {
+        for(int i = 0; i < BOOKS; i++) s.addBook(isbn(i), "Title " + i, "Author " + (i % 7), 1 + i % 3);
+        for(int i = 0; i < MEMBERS; i++) s.registerMember("Member " + i, "m" + i + "@example.com");
+    }
+
+    private static String isbn(int i) {
+        return String.format("978%010d", i);
+    }
+
+    // every kind of change, from several threads, with a snapshot now and then
+    private static void runWorkload(LibraryService s, LibraryStore store, int threads, int opsPerThread) throws Exception {
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Queue<Loan> held = new ConcurrentLinkedQueue<>(); // loans handed to holds
+        List<Thread> workers = new ArrayList<>();
+        for(int t = 0; t < threads; t++) {
+            int id = t;
+            Thread w = new Thread(() -> {
+                try {
+                    work(s, store, new SplittableRandom(id), id, opsPerThread, held);
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            w.start();
+            workers.add(w);
+        }
+        for(Thread w : workers) w.join();
+        if(failure.get() != null) throw failure.get();
+        for(Loan l : held) s.returnLoan(l.getId()); // some of them, the rest stays active
+    }
+
+    private static void work(LibraryService s, LibraryStore store, SplittableRandom rnd, int thread, int ops,
+                             Queue<Loan> held) throws IOException {
+        List<Loan> mine = new ArrayList<>();
+        for(int i = 0; i < ops; i++) {
+            int dice = rnd.nextInt(100);
+            if(dice < 30) {
+                Loan l = s.borrow(isbn(rnd.nextInt(BOOKS)), 1 + rnd.nextInt(MEMBERS));
+                if(l != null) mine.add(l);
+            } else if(dice < 55) {
+                if(!mine.isEmpty()) s.returnLoan(mine.remove(rnd.nextInt(mine.size())).getId());
+            } else if(dice < 62) {
+                List<Loan> basket = s.borrowAll(1 + rnd.nextInt(MEMBERS), List.of(isbn(rnd.nextInt(BOOKS)), isbn(rnd.nextInt(BOOKS))));
+                if(basket != null) mine.addAll(basket);
+            } else if(dice < 69) {
+                if(mine.size() >= 2) s.returnAll(new long[]{mine.remove(mine.size() - 1).getId(), mine.remove(mine.size() - 1).getId()});
+            } else if(dice < 79) {
+                s.updateMemberEmail(1 + rnd.nextInt(MEMBERS), "t" + thread + "n" + i + "@example.com");
+            } else if(dice < 84) {
+                s.registerMember("Joiner " + thread + "-" + i, null);
+            } else if(dice < 87) {
+                s.registerMembers(List.of(new LibraryService.NewMember("Batch " + thread + "-" + i, "b@example.com"),
+                        new LibraryService.NewMember("Batch " + thread + "-" + i + "b", null)));
+            } else if(dice < 91) {
+                s.addBook("979" + thread + String.format("%09d", i), "New " + i, "Writer", 1);
+            } else if(dice < 94) {
+                // the second one is a duplicate of a catalog book
+                s.addBooks(List.of(new Book("979" + thread + String.format("%09d", i), "Bulk " + i, "Writer", 2),
+                        new Book(isbn(rnd.nextInt(BOOKS)), "Dup", "Writer", 9)));
+            } else if(dice < 97) {
+                var hold = s.placeHold(isbn(rnd.nextInt(BOOKS)), 1 + rnd.nextInt(MEMBERS));
+                if(hold != null) hold.thenAccept(held::add);
+            } else if(!mine.isEmpty() && rnd.nextBoolean()) {
+                long id = mine.remove(0).getId();
+                s.returnLoan(id);
+                expect(!s.returnLoan(id), "loan " + id + " returned twice");
+            } else {
+                store.snapshot();
+            }
+        }
+    }
+
+    // ------------------------------ STATE ------------------------------------------
+
+    // the whole state as sorted lines, copy counts and member counters included (equal lines = equal state)
+    static List<String> state(LibraryService s) {
+        List<String> lines = new ArrayList<>();
+        s.exportState(new LibraryMutationListener() {
+            @Override
+            public void bookAdded(Book b) {
+                lines.add("book " + b.getIsbn() + " " + b.getTitle() + " / " + b.getAuthor() + " x" + b.getTotalCopies()
+                        + ", available " + s.availableCopies(b.getIsbn()));
+            }
+
+            @Override
+            public void memberRegistered(long memberId, String name, String email) {
+                LibraryService.LoanStats st = s.statsFor(memberId);
+                lines.add("member " + memberId + " " + name + " <" + email + ">, loans " + st.getTotal() + "/" + st.getActive());
+            }
+
+            @Override
+            public void loanCreated(Loan l) {
+                lines.add("loan " + l.getId() + " " + l.getIsbn() + " member " + l.getMemberId() + " " + l.getLoanDate() + ".." + l.getDueDate());
+            }
+
+            @Override
+            public void loanReturned(long loanId, LocalDate returnDate) {
+                lines.add("return " + loanId + " " + returnDate);
+            }
+
+            @Override
+            public void memberEmailUpdated(long memberId, String email) {
+                lines.add("email " + memberId + " " + email);
+            }
+        });
+        Collections.sort(lines);
+        return lines;
+    }
+
+    static void deleteTree(Path dir) throws IOException {
+        if(!Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for(Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package projects.bench;
+
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.service.LibraryService;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent stress run of LibraryService's lock-free borrow/return path, with invariant
+ * checks. Worker threads borrow, return, borrow and return baskets, and place and cancel
+ * holds on a small catalog with few copies per book. They share a pool of recent loan ids,
+ * so several threads race to return the same loan. A checker thread reads every book's
+ * available copies in a loop. Checked:
+ *   - available copies of a book never go below 0 or above its total;
+ *   - a loan is never returned twice (returnLoan / returnAll report it returned once at most);
+ *   - at the end: total - available == the book's active loans, every loan handed out is
+ *     either active or archived, the archive holds exactly the loans the callers returned,
+ *     and the per-member counters add up to the same totals.
+ * Prints throughput; exits with status 1 on a violation.
+ *
+ *   java -cp out projects.bench.LibraryStress [options]
+ *     --threads N    worker threads (default 8)
+ *     --seconds N    run time (default 10)
+ *     --books N / --copies N / --members N   catalog (default 200 books of 2 copies, 1000 members)
+ *     --max-loans N  loan ids tracked (default 50000000); the run stops early when they run out
+ */
+public final class LibraryStress {
+    private static final int POOL = 1024; // recent loan ids shared by the workers
+    private static final int MAX_HOLDS = 8; // pending holds per worker
+
+    private final LibraryService service = new LibraryService();
+    private final String[] isbns;
+    private final int copies;
+    private final int members;
+    private final long maxLoans;
+
+    private final AtomicLongArray pool = new AtomicLongArray(POOL); // 0 = empty slot
+    private final AtomicLongArray returnedBits; // bit per loan id, set by the caller whose return succeeded
+    private final LongAdder ops = new LongAdder();
+    private final LongAdder lent = new LongAdder();      // loans handed out (borrows, baskets, holds)
+    private final LongAdder returned = new LongAdder();  // loans a caller returned
+    private final LongAdder refused = new LongAdder();   // borrows that found no copy
+    private final LongAdder lostRaces = new LongAdder(); // returns of a loan another thread returned first
+    private final AtomicInteger violationCount = new AtomicInteger();
+    private final Queue<String> violations = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    private LibraryStress(int books, int copies, int members, long maxLoans) {
+        this.isbns = new String[books];
+        this.copies = copies;
+        this.members = members;
+        this.maxLoans = maxLoans;
+        this.returnedBits = new AtomicLongArray((int) (maxLoans >>> 6) + 1);
+        for(int i = 0; i < books; i++) {
+            isbns[i] = String.format("978%010d", i);
+            service.addBook(isbns[i], "Stress " + i, "Author " + (i % 17), copies);
+        }
+        for(int i = 0; i < members; i++) service.registerMember("Member " + i, "m" + i + "@example.com");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Long> opt = new HashMap<>(Map.of("threads", 8L, "seconds", 10L, "books", 200L,
+                "copies", 2L, "members", 1000L, "max-loans", 50_000_000L));
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            if(!args[i].startsWith("--")) throw new IllegalArgumentException("unknown argument " + args[i]);
+            opt.put(args[i].substring(2), Long.parseLong(args[i + 1]));
+        }
+        LibraryStress run = new LibraryStress(opt.get("books").intValue(), opt.get("copies").intValue(),
+                opt.get("members").intValue(), opt.get("max-loans"));
+        boolean ok = run.run(opt.get("threads").intValue(), opt.get("seconds"));
+        System.exit(ok ? 0 : 1);
+    }
+
+    private boolean run(int threads, long seconds) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        for(int t = 0; t < threads; t++) {
+            int id = t;
+            workers.add(start("stress-worker-" + t, () -> work(id)));
+        }
+        Thread checker = start("stress-checker", this::checkCopies);
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        while(running && System.nanoTime() < deadline) Thread.sleep(10);
+        running = false;
+        for(Thread t : workers) t.join();
+        checker.join();
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        checkEnd();
+        System.out.printf("%d threads, %.1f s: %,.0f ops/s (%,d ops), %,.0f loans/s handed out, %,.0f returns/s%n",
+                threads, secs, ops.sum() / secs, ops.sum(), lent.sum() / secs, returned.sum() / secs);
+        System.out.printf("%,d loans, %,d returned, %,d borrows found no copy, %,d returns lost a race%n",
+                lent.sum(), returned.sum(), refused.sum(), lostRaces.sum());
+        if(violationCount.get() == 0) {
+            System.out.println("OK: no invariant violated");
+            return true;
+        }
+        System.out.println(violationCount.get() + " violations, the first ones:");
+        for(String v : violations) System.out.println("  " + v);
+        return false;
+    }
+
+    private static Thread start(String name, Runnable task) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    // ------------------------------ WORKERS ------------------------------------------
+
+    // 35% borrow, 35% return a pooled loan, 10% basket borrow, 10% basket return, 10% holds
+    private void work(int id) {
+        SplittableRandom rnd = new SplittableRandom(id);
+        ArrayDeque<CompletableFuture<Loan>> holds = new ArrayDeque<>();
+        while(running) {
+            int dice = rnd.nextInt(100);
+            if(dice < 35) {
+                Loan loan = service.borrow(isbn(rnd), member(rnd));
+                if(loan == null) refused.increment();
+                else lent(loan);
+            } else if(dice < 70) {
+                int slot = rnd.nextInt(POOL);
+                long loanId = pool.get(slot);
+                if(loanId != 0 && giveBack(loanId)) pool.compareAndSet(slot, loanId, 0);
+            } else if(dice < 80) {
+                List<String> basket = new ArrayList<>();
+                for(int i = 1 + rnd.nextInt(3); i > 0; i--) basket.add(isbn(rnd));
+                List<Loan> loans = service.borrowAll(member(rnd), basket);
+                if(loans == null) refused.increment();
+                else loans.forEach(this::lent);
+            } else if(dice < 90) {
+                returnBasket(rnd);
+            } else {
+                hold(rnd, holds);
+            }
+            ops.increment();
+        }
+        for(CompletableFuture<Loan> h : holds) h.cancel(false);
+    }
+
+    // two pooled loans in one returnAll
+    private void returnBasket(SplittableRandom rnd) {
+        int a = rnd.nextInt(POOL);
+        int b = rnd.nextInt(POOL);
+        long idA = pool.get(a);
+        long idB = pool.get(b);
+        if(idA == 0 || idB == 0 || idA == idB) return;
+        if(service.returnAll(new long[]{idA, idB})) {
+            returnedBy(idA);
+            returnedBy(idB);
+            pool.compareAndSet(a, idA, 0);
+            pool.compareAndSet(b, idB, 0);
+        }
+    }
+
+    // places a hold, or cancels the oldest pending one; a served hold's loan joins the pool
+    private void hold(SplittableRandom rnd, ArrayDeque<CompletableFuture<Loan>> holds) {
+        holds.removeIf(CompletableFuture::isDone);
+        if(holds.size() >= MAX_HOLDS || (!holds.isEmpty() && rnd.nextBoolean())) {
+            holds.poll().cancel(false);
+            return;
+        }
+        CompletableFuture<Loan> h = service.placeHold(isbn(rnd), member(rnd));
+        if(h == null) return;
+        h.thenAccept(this::lent);
+        holds.add(h);
+    }
+
+    private void lent(Loan loan) {
+        lent.increment();
+        if(loan.getId() >= maxLoans) {
+            violation("ran out of tracked loan ids, raise --max-loans");
+            running = false;
+            return;
+        }
+        // the loan that was in the slot is returned here, racing whoever else read it
+        long displaced = pool.getAndSet((int) (loan.getId() % POOL), loan.getId());
+        if(displaced != 0) giveBack(displaced);
+    }
+
+    // true if this call returned the loan
+    private boolean giveBack(long loanId) {
+        if(service.returnLoan(loanId)) {
+            returnedBy(loanId);
+            return true;
+        }
+        lostRaces.increment();
+        return false;
+    }
+
+    private void returnedBy(long loanId) {
+        returned.increment();
+        int word = (int) (loanId >>> 6);
+        long bit = 1L << loanId;
+        long old = returnedBits.getAndUpdate(word, w -> w | bit);
+        if((old & bit) != 0) violation("loan " + loanId + " returned twice");
+    }
+
+    private boolean isReturned(long loanId) {
+        return (returnedBits.get((int) (loanId >>> 6)) & (1L << loanId)) != 0;
+    }
+
+    private String isbn(SplittableRandom rnd) {
+        return isbns[rnd.nextInt(isbns.length)];
+    }
+
+    private long member(SplittableRandom rnd) {
+        return 1 + rnd.nextInt(members);
+    }
+
+    // ------------------------------ CHECKS ------------------------------------------
+
+    private void checkCopies() {
+        while(running) {
+            for(String isbn : isbns) {
+                int available = service.availableCopies(isbn);
+                if(available < 0 || available > copies) violation(isbn + ": " + available + " copies available of " + copies);
+            }
+            Thread.yield();
+        }
+    }
+
+    // after the workers stopped: copy counters, active loans, archive and member counters agree
+    private void checkEnd() {
+        Map<String, Integer> activeByIsbn = new HashMap<>();
+        List<Loan> active = service.listActiveLoansSortedByDueDate();
+        for(Loan l : active) {
+            activeByIsbn.merge(l.getIsbn(), 1, Integer::sum);
+            if(isReturned(l.getId())) violation("loan " + l.getId() + " was returned but is still active");
+        }
+        for(String isbn : isbns) {
+            int expected = copies - activeByIsbn.getOrDefault(isbn, 0);
+            int available = service.availableCopies(isbn);
+            if(available != expected) violation(isbn + ": " + available + " copies available, " + expected + " expected");
+        }
+        Map<String, Long> gauges = service.metrics().gauges();
+        long archived = gauges.get("archivedLoans");
+        if(gauges.get("activeLoans") != active.size()) {
+            violation(gauges.get("activeLoans") + " active loans in the map, " + active.size() + " in the view");
+        }
+        if(archived != returned.sum()) violation(archived + " loans archived, callers returned " + returned.sum());
+        if(active.size() + archived != lent.sum()) {
+            violation(active.size() + " active + " + archived + " archived loans, " + lent.sum() + " handed out");
+        }
+        long total = 0;
+        long open = 0;
+        for(LibraryService.LoanStats s : service.computeLoanStatsByMember().values()) {
+            total += s.getTotal();
+            open += s.getActive();
+        }
+        if(open != active.size()) violation("member counters: " + open + " active loans, " + active.size() + " listed");
+        if(total != lent.sum()) violation("member counters: " + total + " loans, " + lent.sum() + " handed out");
+    }
+
+    private void violation(String message) {
+        if(violationCount.incrementAndGet() <= 20) violations.add(message);
+    }
+}
@@ -0,0 +1,176 @@
+package projects.bench;
+
+import projects.contactbook.ContactBookBenchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Micro-benchmark runner for the services, without external dependencies (the repo has no
+ * build tool). Works like a small JMH in average-time mode: for every case and size it
+ * builds a fixture (untimed), runs warm-up iterations, then timed iterations, and reports
+ * the mean ns/op with a 99.9% confidence half-width. By default each case/size runs in a
+ * fresh JVM (like a JMH fork), so one fixture's garbage and JIT profile don't leak into the next.
+ *
+ *   java -cp out projects.bench.Microbench [options]
+ *     --sizes 1000,10000,100000,1000000   entities in each fixture (10^7 needs a big -Xmx)
+ *     --filter regex                      only matching case names (e.g. "library\\.borrow")
+ *     --warmup 3 --iterations 5 --time-ms 1000
+ *     --fork 1 | 0                        0 = everything in this JVM
+ *     --out results.json                  JMH-style JSON (default: bench-results.json)
+ *     --baseline old.json --max-regression 10
+ *                                         exit code 2 if a score got more than 10% slower
+ *                                         (beyond the error bars) than in old.json
+ *     --list                              print the case names
+ */
+public final class Microbench {
+
+    /** A prepared fixture; run(i) is one timed operation (i counts up within an iteration). */
+    public interface Fixture {
+        long run(int i);
+
+        // untimed, before every warm-up and timed iteration (like JMH's Level.Iteration setup);
+        // at most maxOps calls of run follow
+        default void beforeIteration(int maxOps) {}
+    }
+
+    /** A named benchmark; setUp builds a fixture with size entities. */
+    public record Case(String name, IntFunction<Fixture> setUp) {}
+
+    public record Result(String name, int size, double score, double error, double[] iterations) {}
+
+    static final int MAX_OPS_PER_ITERATION = 200_000;
+
+    private static volatile long sink; // results end up here, so no operation is optimized away
+
+    private Microbench() {}
+
+    public static List<Case> allCases() {
+        List<Case> cases = new ArrayList<>(LibraryBenchmarks.cases());
+        cases.addAll(ContactBookBenchmarks.cases());
+        return cases;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for(int i = 0; i < args.length; i++) {
+            if(!args[i].startsWith("--")) throw new IllegalArgumentException("unknown argument " + args[i]);
+            String key = args[i].substring(2);
+            opt.put(key, key.equals("list") ? "" : args[++i]);
+        }
+        if(opt.containsKey("list")) {
+            for(Case c : allCases()) System.out.println(c.name());
+            return;
+        }
+        int[] sizes = Arrays.stream(opt.getOrDefault("sizes", "1000,10000,100000,1000000").split(","))
+                .mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+        Pattern filter = Pattern.compile(opt.getOrDefault("filter", ".*"));
+        int warmup = Integer.parseInt(opt.getOrDefault("warmup", "3"));
+        int iterations = Integer.parseInt(opt.getOrDefault("iterations", "5"));
+        long timeMs = Long.parseLong(opt.getOrDefault("time-ms", "1000"));
+        boolean fork = !opt.getOrDefault("fork", "1").equals("0");
+
+        List<Result> results = new ArrayList<>();
+        for(Case c : allCases()) {
+            if(!filter.matcher(c.name()).matches()) continue;
+            for(int size : sizes) {
+                Result r = fork ? runForked(c.name(), size, warmup, iterations, timeMs)
+                                : run(c, size, warmup, iterations, timeMs);
+                results.add(r);
+                System.out.printf("%-45s %10d %14.1f +- %.1f ns/op%n", r.name(), r.size(), r.score(), r.error());
+            }
+        }
+        Path out = Path.of(opt.getOrDefault("out", "bench-results.json"));
+        Files.writeString(out, BenchJson.write(results));
+        System.out.println("Results written to " + out);
+
+        if(opt.containsKey("baseline")) {
+            double maxRegression = Double.parseDouble(opt.getOrDefault("max-regression", "10"));
+            List<Result> baseline = BenchJson.read(Files.readString(Path.of(opt.get("baseline"))));
+            List<String> slower = BenchJson.regressions(baseline, results, maxRegression);
+            for(String line : slower) System.out.println("REGRESSION " + line);
+            if(!slower.isEmpty()) System.exit(2);
+            System.out.println("No regression above " + maxRegression + "% against " + opt.get("baseline"));
+        }
+    }
+
+    /** Runs one case at one size in this JVM. */
+    public static Result run(Case c, int size, int warmup, int iterations, long timeMs) {
+        Fixture f = c.setUp().apply(size);
+        for(int i = 0; i < warmup; i++) iteration(f, timeMs);
+        double[] scores = new double[iterations];
+        for(int i = 0; i < iterations; i++) scores[i] = iteration(f, timeMs);
+        return new Result(c.name(), size, mean(scores), error(scores), scores);
+    }
+
+    // ns/op of one iteration: ops until timeMs has passed (or MAX_OPS_PER_ITERATION)
+    private static double iteration(Fixture f, long timeMs) {
+        f.beforeIteration(MAX_OPS_PER_ITERATION);
+        long budget = timeMs * 1_000_000L;
+        long acc = 0;
+        int ops = 0;
+        int batch = 1;
+        long start = System.nanoTime();
+        long elapsed;
+        // the clock is read once per batch; batches double while they are short
+        do {
+            int end = Math.min(ops + batch, MAX_OPS_PER_ITERATION);
+            for(int i = ops; i < end; i++) acc ^= f.run(i);
+            ops = end;
+            elapsed = System.nanoTime() - start;
+            if(elapsed < budget / 100) batch = Math.min(batch * 2, 1 << 14);
+        } while(elapsed < budget && ops < MAX_OPS_PER_ITERATION);
+        sink ^= acc;
+        return (double) elapsed / ops;
+    }
+
+    // runs the case in a child JVM with the same classpath and heap settings, reads its result line
+    private static Result runForked(String name, int size, int warmup, int iterations, long timeMs)
+            throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        cmd.addAll(java.lang.management.ManagementFactory.getRuntimeMXBean().getInputArguments());
+        cmd.addAll(List.of("-cp", System.getProperty("java.class.path"), Child.class.getName(),
+                name, Integer.toString(size), Integer.toString(warmup), Integer.toString(iterations), Long.toString(timeMs)));
+        Process p = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String last = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+            for(String line; (line = in.readLine()) != null; ) last = line;
+        }
+        if(p.waitFor() != 0 || last == null) throw new IllegalStateException("Forked run of " + name + " failed");
+        return BenchJson.read("[" + last + "]").get(0);
+    }
+
+    /** Entry point of a forked run: prints the result as one JSON object. */
+    public static final class Child {
+        public static void main(String[] args) {
+            Case c = allCases().stream().filter(k -> k.name().equals(args[0])).findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("no case " + args[0]));
+            Result r = run(c, Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                    Integer.parseInt(args[3]), Long.parseLong(args[4]));
+            System.out.println(BenchJson.writeOne(r));
+        }
+    }
+
+    private static double mean(double[] xs) {
+        double sum = 0;
+        for(double x : xs) sum += x;
+        return sum / xs.length;
+    }
+
+    // half-width of the 99.9% confidence interval of the mean (normal approximation)
+    private static double error(double[] xs) {
+        if(xs.length < 2) return Double.NaN;
+        double m = mean(xs);
+        double ss = 0;
+        for(double x : xs) ss += (x - m) * (x - m);
+        return 3.29 * Math.sqrt(ss / (xs.length - 1)) / Math.sqrt(xs.length);
+    }
+}
@@ -0,0 +1,154 @@
+package projects.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Thread-safe LongKeyMap: the keys are spread over 16 segments, each a LongKeyMap
+ * with its own StampedLock. Writes lock one segment; get first tries an optimistic
+ * (lock-free) read and only takes the read lock if a writer got in the way.
+ * Functions passed to computeIfAbsent run under the segment lock and must not use the map.
+ *
+ * @param <V> the mapped value
+ */
+public class ConcurrentLongKeyMap<V> {
+    private static final int SEGMENT_BITS = 4;
+
+    private final Segment<V>[] segments;
+
+    private static final class Segment<V> {
+        final StampedLock lock = new StampedLock();
+        final LongKeyMap<V> map;
+
+        Segment(int expectedSize) {
+            map = new LongKeyMap<>(expectedSize);
+        }
+    }
+
+    public ConcurrentLongKeyMap() {
+        this(16);
+    }
+
+    public ConcurrentLongKeyMap(int expectedSize) {
+        segments = newSegments(1 << SEGMENT_BITS);
+        for(int i = 0; i < segments.length; i++) segments[i] = new Segment<>(expectedSize >> SEGMENT_BITS);
+    }
+
+    // no generic array creation in Java; the raw array only ever holds Segment<V>
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <V> Segment<V>[] newSegments(int n) {
+        return new Segment[n];
+    }
+
+    public V get(long key) {
+        Segment<V> s = segmentFor(key);
+        long stamp = s.lock.tryOptimisticRead();
+        if(stamp != 0) {
+            V v = s.map.get(key);
+            if(s.lock.validate(stamp)) return v;
+        }
+        stamp = s.lock.readLock();
+        try {
+            return s.map.get(key);
+        } finally {
+            s.lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    public V put(long key, V value) {
+        Segment<V> s = segmentFor(key);
+        long stamp = s.lock.writeLock();
+        try {
+            return s.map.put(key, value);
+        } finally {
+            s.lock.unlockWrite(stamp);
+        }
+    }
+
+    public V putIfAbsent(long key, V value) {
+        Segment<V> s = segmentFor(key);
+        long stamp = s.lock.writeLock();
+        try {
+            return s.map.putIfAbsent(key, value);
+        } finally {
+            s.lock.unlockWrite(stamp);
+        }
+    }
+
+    public V computeIfAbsent(long key, LongFunction<? extends V> mapping) {
+        V v = get(key); // common case: already there, no lock
+        if(v != null) return v;
+        Segment<V> s = segmentFor(key);
+        long stamp = s.lock.writeLock();
+        try {
+            return s.map.computeIfAbsent(key, mapping);
+        } finally {
+            s.lock.unlockWrite(stamp);
+        }
+    }
+
+    public V remove(long key) {
+        Segment<V> s = segmentFor(key);
+        long stamp = s.lock.writeLock();
+        try {
+            return s.map.remove(key);
+        } finally {
+            s.lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        int n = 0;
+        for(Segment<V> s : segments) {
+            long stamp = s.lock.readLock();
+            try {
+                n += s.map.size();
+            } finally {
+                s.lock.unlockRead(stamp);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Visits every value, one segment at a time. Each segment's values are copied into one
+     * buffer (reused for all segments) under the segment's read lock, and the action runs
+     * on the copy, unlocked. The copy is deliberate: actions can be slow (exportState writes
+     * every member and loan to disk), and running them under the lock would stall every
+     * writer to the segment, i.e. the borrows and returns of 1/16 of the ids.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        Object[] buf = new Object[0];
+        for(Segment<V> s : segments) {
+            int n;
+            long stamp = s.lock.readLock();
+            try {
+                if(buf.length < s.map.size()) buf = new Object[Math.max(s.map.size(), buf.length * 2)];
+                n = s.map.copyValuesTo(buf);
+            } finally {
+                s.lock.unlockRead(stamp);
+            }
+            for(int i = 0; i < n; i++) action.accept((V) buf[i]);
+        }
+    }
+
+    // copy of the values (not one atomic snapshot across segments)
+    public List<V> values() {
+        List<V> res = new ArrayList<>();
+        forEachValue(res::add);
+        return res;
+    }
+
+    private Segment<V> segmentFor(long key) {
+        // top bits, the segment map uses the low ones for its slots
+        return segments[(int) (LongKeyMap.hash(key) >>> (64 - SEGMENT_BITS))];
+    }
+}
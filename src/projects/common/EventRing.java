@@ -0,0 +1,175 @@
+package projects.common;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Bounded ring of preallocated events, in the style of the LMAX disruptor. Producers claim
+ * sequence numbers, fill the slot objects in place and publish them; every subscriber reads
+ * the published events in sequence order with its own cursor, in batches.
+ * Publishing allocates nothing. Producers never overwrite an event a subscriber has not
+ * handled yet: when the slowest subscriber is a full ring behind they wait (backpressure),
+ * so a subscriber that is no longer polled must be closed. With no subscribers nothing waits.
+ *
+ *   long seq = ring.next(1);
+ *   ring.get(seq).fill(...);
+ *   ring.publish(seq);
+ *
+ * @param <E> slot type, mutable and reused
+ */
+public final class EventRing<E> {
+
+    /** Gets a batch of events; event is the ring's slot, valid only during the call. */
+    public interface Handler<E> {
+        void onEvent(E event, long sequence, boolean endOfBatch);
+    }
+
+    private static final VarHandle PUBLISHED = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final Subscription<?>[] NONE = {};
+
+    private final Object[] slots;
+    private final long[] published; // per slot: the sequence last published there
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong(-1); // highest sequence handed out
+    private volatile Subscription<?>[] subscriptions = NONE;
+    // slowest subscriber cursor seen lately; only ever too low, which costs a fresh look
+    private volatile long gate = -1;
+
+    /** @param capacity slots, a power of two */
+    public EventRing(int capacity, Supplier<E> factory) {
+        if(capacity < 1 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        slots = new Object[capacity];
+        for(int i = 0; i < capacity; i++) slots[i] = factory.get();
+        published = new long[capacity];
+        Arrays.fill(published, -1);
+        mask = capacity - 1;
+    }
+
+    public int capacity() {return slots.length;}
+
+    // highest sequence handed to a producer (published or not yet), -1 before the first
+    public long claimedSequence() {return claimed.get();}
+
+    /**
+     * Claims the next n sequences for one producer, waiting while the ring is full.
+     * @return the last of them; the first is the result - n + 1
+     */
+    public long next(int n) {
+        if(n < 1 || n > slots.length) throw new IllegalArgumentException("Bad claim size: " + n);
+        while(true) {
+            long current = claimed.get();
+            long last = current + n;
+            long wrap = last - slots.length; // this sequence gets overwritten
+            if(wrap > gate) {
+                long min = slowest(current);
+                if(wrap > min) {
+                    Thread.yield();
+                    continue;
+                }
+                gate = min;
+            }
+            if(claimed.compareAndSet(current, last)) return last;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) slots[(int) sequence & mask];
+    }
+
+    public void publish(long sequence) {
+        PUBLISHED.setRelease(published, (int) sequence & mask, sequence);
+    }
+
+    // lo to hi, both included
+    public void publish(long lo, long hi) {
+        for(long s = lo; s <= hi; s++) publish(s);
+    }
+
+    private long slowest(long orElse) {
+        long min = orElse;
+        for(Subscription<?> s : subscriptions) min = Math.min(min, s.cursor.get());
+        return min;
+    }
+
+    /** A new subscriber that gets every event claimed after this call. */
+    public synchronized Subscription<E> subscribe() {
+        Subscription<E> s = new Subscription<>(this);
+        s.cursor.set(claimed.get());
+        Subscription<?>[] next = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        next[next.length - 1] = s;
+        subscriptions = next;
+        // again: a producer that looked at the list before s was in it may have claimed more
+        s.cursor.set(claimed.get());
+        return s;
+    }
+
+    private synchronized void unsubscribe(Subscription<?> s) {
+        Subscription<?>[] cur = subscriptions;
+        for(int i = 0; i < cur.length; i++) {
+            if(cur[i] != s) continue;
+            Subscription<?>[] next = Arrays.copyOf(cur, cur.length - 1);
+            System.arraycopy(cur, i + 1, next, i, cur.length - i - 1);
+            subscriptions = next;
+            return;
+        }
+    }
+
+    /** One subscriber's position in the ring. Poll it from one thread at a time. */
+    public static final class Subscription<E> implements AutoCloseable {
+        private final EventRing<E> ring;
+        private final AtomicLong cursor = new AtomicLong(); // last sequence handled
+
+        private Subscription(EventRing<E> ring) {
+            this.ring = ring;
+        }
+
+        // last sequence handled
+        public long sequence() {return cursor.get();}
+
+        // events claimed but not handled yet
+        public long lag() {return ring.claimed.get() - cursor.get();}
+
+        /**
+         * Hands the published events after this subscriber's cursor to handler, at most
+         * maxBatch of them, then moves the cursor past them. Does not wait.
+         * If handler throws, the cursor stays and the batch comes again on the next poll.
+         * @return number of events handled
+         */
+        public int poll(Handler<? super E> handler, int maxBatch) {
+            long from = cursor.get() + 1;
+            long to = from;
+            long end = from + maxBatch;
+            // a slot claimed but not yet published ends the batch, even if later ones are ready
+            while(to < end && (long) PUBLISHED.getAcquire(ring.published, (int) to & ring.mask) == to) to++;
+            if(to == from) return 0;
+            for(long s = from; s < to; s++) handler.onEvent(ring.get(s), s, s == to - 1);
+            cursor.lazySet(to - 1);
+            return (int) (to - from);
+        }
+
+        /** poll, waiting up to timeout for the first event. @return 0 if none came */
+        public int poll(Handler<? super E> handler, int maxBatch, long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            long pause = 1_000;
+            while(true) {
+                int n = poll(handler, maxBatch);
+                if(n > 0 || System.nanoTime() - deadline >= 0) return n;
+                if(Thread.interrupted()) throw new InterruptedException();
+                LockSupport.parkNanos(pause);
+                pause = Math.min(pause * 2, 1_000_000);
+            }
+        }
+
+        /** Stops holding producers back; the subscription must not be polled afterwards. */
+        @Override
+        public void close() {
+            ring.unsubscribe(this);
+        }
+    }
+}
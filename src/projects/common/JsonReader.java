@@ -0,0 +1,127 @@
+package projects.common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader: objects become maps (in key order), arrays lists, integers Longs,
+ * other numbers Doubles, true/false Booleans and null null.
+ */
+public final class JsonReader {
+    private final String s;
+    private int pos;
+
+    private JsonReader(String s) {
+        this.s = s;
+    }
+
+    /** The value s holds (whitespace around it allowed). */
+    public static Object parse(String s) {
+        JsonReader r = new JsonReader(s);
+        Object v = r.value();
+        if(r.peek() != 0) throw r.error("trailing characters");
+        return v;
+    }
+
+    private Object value() {
+        skipSpace();
+        if(pos >= s.length()) throw error("unexpected end");
+        char c = s.charAt(pos);
+        switch (c) {
+            case '{': {
+                pos++;
+                Map<String, Object> m = new LinkedHashMap<>();
+                if(peek() == '}') {
+                    pos++;
+                    return m;
+                }
+                do {
+                    skipSpace();
+                    String key = string();
+                    expect(':');
+                    m.put(key, value());
+                } while(next(','));
+                expect('}');
+                return m;
+            }
+            case '[': {
+                pos++;
+                List<Object> l = new ArrayList<>();
+                if(peek() == ']') {
+                    pos++;
+                    return l;
+                }
+                do {
+                    l.add(value());
+                } while(next(','));
+                expect(']');
+                return l;
+            }
+            case '"':
+                return string();
+            default:
+                if(s.startsWith("true", pos)) { pos += 4; return Boolean.TRUE; }
+                if(s.startsWith("false", pos)) { pos += 5; return Boolean.FALSE; }
+                if(s.startsWith("null", pos)) { pos += 4; return null; }
+                int start = pos;
+                while(pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) pos++;
+                if(start == pos) throw error("unexpected '" + c + "'");
+                String number = s.substring(start, pos);
+                boolean integral = number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0;
+                return integral ? (Object) Long.parseLong(number) : (Object) Double.parseDouble(number);
+        }
+    }
+
+    private String string() {
+        if(peek() != '"') throw error("expected a string");
+        pos++;
+        StringBuilder out = new StringBuilder();
+        while(true) {
+            if(pos >= s.length()) throw error("unterminated string");
+            char c = s.charAt(pos++);
+            if(c == '"') return out.toString();
+            if(c != '\\') {
+                out.append(c);
+                continue;
+            }
+            char e = s.charAt(pos++);
+            switch (e) {
+                case 'n' -> out.append('\n');
+                case 't' -> out.append('\t');
+                case 'r' -> out.append('\r');
+                case 'b' -> out.append('\b');
+                case 'f' -> out.append('\f');
+                case 'u' -> {
+                    out.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                    pos += 4;
+                }
+                default -> out.append(e);
+            }
+        }
+    }
+
+    private char peek() {
+        skipSpace();
+        return pos < s.length() ? s.charAt(pos) : 0;
+    }
+
+    private boolean next(char c) {
+        if(peek() != c) return false;
+        pos++;
+        return true;
+    }
+
+    private void expect(char c) {
+        if(!next(c)) throw error("expected '" + c + "'");
+    }
+
+    private void skipSpace() {
+        while(pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Bad JSON at " + pos + ": " + message);
+    }
+}
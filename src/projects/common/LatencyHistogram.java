@@ -0,0 +1,59 @@
+package projects.common;
+
+/**
+ * Log-linear histogram of nanosecond latencies: 64 sub-buckets per power of two, so a
+ * percentile is exact to within ~1.6% whatever the range, in a fixed ~30 KB.
+ * Not thread-safe: record on one thread and merge (the load generator has one per
+ * client), or use a LatencyRecorder and take snapshots.
+ */
+public final class LatencyHistogram {
+    static final int SUB_BITS = 6;
+    static final int SUB = 1 << SUB_BITS;
+    static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+    final long[] counts = new long[BUCKETS];
+    long total;
+    long max;
+
+    public void record(long nanos) {
+        long v = Math.max(nanos, 0);
+        counts[index(v)]++;
+        total++;
+        if(v > max) max = v;
+    }
+
+    public void add(LatencyHistogram other) {
+        for(int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public long count() {return total;}
+
+    public long max() {return max;}
+
+    // smallest recorded bucket value that at least fraction q of the samples do not exceed (0 < q <= 1)
+    public long percentile(double q) {
+        if(total == 0) return 0;
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if(seen >= rank) return Math.min(upperBound(i), max);
+        }
+        return max;
+    }
+
+    // values below 64 get a bucket each, then 64 buckets per power of two
+    static int index(long v) {
+        if(v < SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((v >>> shift) & (SUB - 1));
+    }
+
+    private static long upperBound(int index) {
+        int shift = index / SUB - 1;
+        if(shift < 0) return index;
+        return (((long) SUB + index % SUB + 1) << shift) - 1;
+    }
+}
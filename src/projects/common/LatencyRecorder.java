@@ -0,0 +1,34 @@
+package projects.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe LatencyHistogram for hot paths: any number of threads record, a reader
+ * takes snapshots. A record is one atomic increment of its bucket (plus a compare-and-set
+ * on the rare new maximum), no lock and no allocation. Counts only grow; the difference
+ * of two snapshots is the traffic in between.
+ */
+public final class LatencyRecorder {
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long v = Math.max(nanos, 0);
+        counts.getAndIncrement(LatencyHistogram.index(v));
+        long m = max.get();
+        while(v > m && !max.compareAndSet(m, v)) m = max.get();
+    }
+
+    /** A copy of the counts so far (records made while copying may or may not be in it). */
+    public LatencyHistogram snapshot() {
+        LatencyHistogram h = new LatencyHistogram();
+        for(int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            long c = counts.get(i);
+            h.counts[i] = c;
+            h.total += c;
+        }
+        h.max = max.get();
+        return h;
+    }
+}
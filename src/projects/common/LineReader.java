@@ -0,0 +1,64 @@
+package projects.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * UTF-8 lines ("\n" or "\r\n") read through one reusable buffer: no regex, no per-char
+ * decoding, one String per line. Used for the server's sockets and the apps' console.
+ * Not thread-safe.
+ */
+public final class LineReader {
+    private final InputStream in;
+    private final int maxLine;
+    private byte[] buf = new byte[8 * 1024];
+    private int pos;
+    private int limit;
+
+    public LineReader(InputStream in, int maxLine) {
+        this.in = in;
+        this.maxLine = maxLine;
+    }
+
+    // null at end of stream; a last line without "\n" is returned as well
+    public String readLine() throws IOException {
+        int scanned = pos;
+        while(true) {
+            for(int i = scanned; i < limit; i++) {
+                if(buf[i] == '\n') {
+                    int end = i > pos && buf[i - 1] == '\r' ? i - 1 : i;
+                    String line = new String(buf, pos, end - pos, StandardCharsets.UTF_8);
+                    pos = i + 1;
+                    return line;
+                }
+            }
+            // make room: move the partial line to the front, grow if it fills the buffer
+            if(pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                pos = 0;
+            }
+            scanned = limit; // no '\n' in there
+
+            if(limit == buf.length) {
+                if(buf.length >= maxLine) throw new IOException("line too long");
+                buf = Arrays.copyOf(buf, Math.min(buf.length * 2, maxLine));
+            }
+            int n = in.read(buf, limit, buf.length - limit);
+            if(n < 0) {
+                if(limit == 0) return null;
+                String last = new String(buf, 0, limit, StandardCharsets.UTF_8);
+                pos = limit = 0;
+                return last;
+            }
+            limit += n;
+        }
+    }
+
+    // true if a read would not block on the stream (a line may already be in the buffer)
+    public boolean hasBuffered() throws IOException {
+        return pos < limit || in.available() > 0;
+    }
+}
@@ -0,0 +1,185 @@
+package projects.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Hash map with primitive long keys (ids): open addressing with linear probing,
+ * keys in a long[] and values in a parallel Object[]. No boxed Long and no node
+ * object per entry, and get/put/remove never allocate (except when the table grows).
+ * Removal shifts the following entries back instead of leaving tombstones.
+ * Null values are not allowed (null marks a free slot). Not thread-safe,
+ * see ConcurrentLongKeyMap for the shared version.
+ *
+ * @param <V> the mapped value (Member, Loan, Contact, ...)
+ */
+public class LongKeyMap<V> {
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int resizeAt;
+
+    public LongKeyMap() {
+        this(16);
+    }
+
+    public LongKeyMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) * 2 - 1);
+        allocate(capacity);
+    }
+
+    public int size() {return size;}
+    public boolean isEmpty() {return size == 0;}
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        long[] ks = keys;
+        Object[] vs = values;
+        // both lengths, because ConcurrentLongKeyMap may read while the table grows
+        int mask = Math.min(ks.length, vs.length) - 1;
+        int i = slot(key, mask);
+        for(int probes = 0; probes <= mask; probes++) {
+            Object v = vs[i];
+            if(v == null) return null;
+            if(ks[i] == key) return (V) v;
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    // returns the previous value, or null
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        Objects.requireNonNull(value, "value");
+        int i = indexOf(key);
+        if(i >= 0) {
+            V old = (V) values[i];
+            values[i] = value;
+            return old;
+        }
+        insertAt(-i - 1, key, value);
+        return null;
+    }
+
+    // returns the current value if there is one (and keeps it), otherwise stores value and returns null
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(long key, V value) {
+        Objects.requireNonNull(value, "value");
+        int i = indexOf(key);
+        if(i >= 0) return (V) values[i];
+        insertAt(-i - 1, key, value);
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V computeIfAbsent(long key, LongFunction<? extends V> mapping) {
+        int i = indexOf(key);
+        if(i >= 0) return (V) values[i];
+        V value = Objects.requireNonNull(mapping.apply(key), "value");
+        insertAt(-i - 1, key, value);
+        return value;
+    }
+
+    // returns the removed value, or null
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = indexOf(key);
+        if(i < 0) return null;
+        V old = (V) values[i];
+        int mask = keys.length - 1;
+        // backward shift: pull later entries of the run into the gap when their home slot allows it
+        int gap = i;
+        for(int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            if(((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = null;
+        size--;
+        return old;
+    }
+
+    // visits every value in table order, without allocating
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        Object[] vs = values;
+        for(Object v : vs) {
+            if(v != null) action.accept((V) v);
+        }
+    }
+
+    // copies the values into dest (at least size() long), in table order; returns how many
+    public int copyValuesTo(Object[] dest) {
+        int n = 0;
+        for(Object v : values) {
+            if(v != null) dest[n++] = v;
+        }
+        return n;
+    }
+
+    // copy of the values, in table order
+    public List<V> values() {
+        List<V> res = new ArrayList<>(size);
+        forEachValue(res::add);
+        return res;
+    }
+
+    // slot of the key, or -(free slot + 1) where it would go
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while(values[i] != null) {
+            if(keys[i] == key) return i;
+            i = (i + 1) & mask;
+        }
+        return -i - 1;
+    }
+
+    private void insertAt(int i, long key, V value) {
+        keys[i] = key;
+        values[i] = value;
+        if(++size > resizeAt) rehash(keys.length * 2);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for(int j = 0; j < oldValues.length; j++) {
+            if(oldValues[j] == null) continue;
+            int i = slot(oldKeys[j], mask);
+            while(values[i] != null) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    // ids are mostly sequential, so mix the bits before masking (Fibonacci hashing)
+    static long hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    private static int slot(long key, int mask) {
+        return (int) hash(key) & mask;
+    }
+}
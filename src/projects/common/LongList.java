@@ -0,0 +1,38 @@
+package projects.common;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive longs (8 bytes per element, no boxed Long per entry).
+ * Appends and copies are synchronized, so several threads can share one list.
+ */
+public class LongList {
+    private long[] values;
+    private int size;
+
+    public LongList() {
+        this(4);
+    }
+
+    public LongList(int initialCapacity) {
+        values = new long[Math.max(1, initialCapacity)];
+    }
+
+    public synchronized void add(long v) {
+        if(size == values.length) values = Arrays.copyOf(values, values.length * 2);
+        values[size++] = v;
+    }
+
+    // count values first, first + step, first + 2 * step, ... in one go
+    public synchronized void addRange(long first, int count, long step) {
+        if(size + count > values.length) values = Arrays.copyOf(values, Math.max(values.length * 2, size + count));
+        for(int i = 0; i < count; i++) values[size++] = first + i * step;
+    }
+
+    public synchronized int size() {return size;}
+
+    // copy of the current elements, in insertion order
+    public synchronized long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
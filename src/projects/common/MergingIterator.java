@@ -0,0 +1,51 @@
+package projects.common;
+
+import java.util.*;
+
+/**
+ * k-way merge: reads several iterators that are each sorted by comparator as one sorted
+ * iterator. A heap holds the head of every source, so each element costs O(log k).
+ * Equal elements come in source order. Sources are read lazily, one element ahead.
+ *
+ * @param <T> element type
+ */
+public final class MergingIterator<T> implements Iterator<T> {
+    private final List<? extends Iterator<? extends T>> sources;
+    private final PriorityQueue<Head<T>> heads;
+
+    private record Head<T>(T value, int source) {}
+
+    public MergingIterator(List<? extends Iterator<? extends T>> sources, Comparator<? super T> comparator) {
+        this.sources = sources;
+        Comparator<Head<T>> byValue = (a, b) -> comparator.compare(a.value, b.value);
+        this.heads = new PriorityQueue<>(Math.max(sources.size(), 1), byValue.thenComparingInt(Head::source));
+        for(int i = 0; i < sources.size(); i++) advance(i);
+    }
+
+    // the first limit elements of several sorted lists, merged
+    public static <T> List<T> merge(List<? extends List<? extends T>> lists, Comparator<? super T> comparator, int limit) {
+        List<Iterator<? extends T>> sources = new ArrayList<>(lists.size());
+        for(List<? extends T> l : lists) sources.add(l.iterator());
+        List<T> res = new ArrayList<>();
+        for(MergingIterator<T> it = new MergingIterator<>(sources, comparator); res.size() < limit && it.hasNext(); ) res.add(it.next());
+        return res;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        Head<T> h = heads.poll();
+        if(h == null) throw new NoSuchElementException();
+        advance(h.source);
+        return h.value;
+    }
+
+    private void advance(int source) {
+        Iterator<? extends T> it = sources.get(source);
+        if(it.hasNext()) heads.add(new Head<>(it.next(), source));
+    }
+}
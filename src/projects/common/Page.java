@@ -0,0 +1,23 @@
+package projects.common;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of an ordered listing. The cursor is opaque: pass nextCursor back to get the
+ * page after this one (keyset paging, so a page costs the same wherever it is and rows
+ * added or removed meanwhile don't shift the rest). nextCursor is null on the last page.
+ */
+public class Page<V> {
+    private final List<V> items;
+    private final String nextCursor;
+
+    public Page(List<V> items, String nextCursor) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<V> getItems() {return items;}
+    public String getNextCursor() {return nextCursor;}
+    public boolean hasMore() {return nextCursor != null;}
+}
@@ -0,0 +1,131 @@
+package projects.common;
+
+/**
+ * Immutable sparse long[] indexed by a non-negative long (0 where nothing was set). set
+ * returns a new array and leaves this one as it was: only the nodes on the index's path are
+ * copied, the rest is shared. A radix tree of 32-way nodes, with long[32] leaves and null for
+ * untouched subtrees, so dense indexes (ids from a counter) cost ~8 bytes each and a get is
+ * one array read per 5 bits of the highest index (4 at a million, the upper ones cached).
+ * For snapshot reads, like PersistentSortedMap.
+ */
+public final class PersistentLongArray {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final PersistentLongArray EMPTY = new PersistentLongArray(new long[WIDTH], 0);
+
+    private final Object root; // long[] leaf when shift is 0, else Object[] of children
+    private final int shift;   // index bits below the root's slots
+
+    private PersistentLongArray(Object root, int shift) {
+        this.root = root;
+        this.shift = shift;
+    }
+
+    public static PersistentLongArray empty() {
+        return EMPTY;
+    }
+
+    public long get(long index) {
+        if(index < 0 || (index >>> shift >>> BITS) != 0) return 0;
+        Object n = root;
+        for(int s = shift; s > 0; s -= BITS) {
+            n = ((Object[]) n)[(int) (index >>> s) & MASK];
+            if(n == null) return 0;
+        }
+        return ((long[]) n)[(int) index & MASK];
+    }
+
+    /** This array with value at index. */
+    public PersistentLongArray set(long index, long value) {
+        if(index < 0) throw new IllegalArgumentException("Negative index: " + index);
+        Object r = root;
+        int s = shift;
+        while((index >>> s >>> BITS) != 0) { // taller: the old root becomes the first child
+            Object[] up = new Object[WIDTH];
+            up[0] = r;
+            r = up;
+            s += BITS;
+        }
+        return new PersistentLongArray(set(r, s, index, value), s);
+    }
+
+    /** The smallest index >= from with a non-zero value, or -1 if there is none (like BitSet.nextSetBit). */
+    public long nextNonZero(long from) {
+        if(from < 0) from = 0;
+        if((from >>> shift >>> BITS) != 0) return -1;
+        return next(root, shift, 0, from);
+    }
+
+    /** A cursor over the non-zero values in index order: while(c.next()) use c.index() and c.value(). */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public final class Cursor {
+        private long[] leaf; // the current leaf, found once per 32 indexes
+        private long base;
+        private int i = WIDTH - 1;
+
+        private Cursor() {
+            base = -WIDTH;
+        }
+
+        /** Moves to the next non-zero value; false when there is none. */
+        public boolean next() {
+            while(true) {
+                if(leaf != null) {
+                    while(++i < WIDTH) {
+                        if(leaf[i] != 0) return true;
+                    }
+                }
+                long at = nextNonZero(base + WIDTH);
+                if(at < 0) return false;
+                base = at & ~MASK;
+                leaf = leafAt(at);
+                i = (int) (at & MASK) - 1;
+            }
+        }
+
+        public long index() {return base + i;}
+        public long value() {return leaf[i];}
+    }
+
+    private long[] leafAt(long index) {
+        Object n = root;
+        for(int s = shift; s > 0; s -= BITS) n = ((Object[]) n)[(int) (index >>> s) & MASK];
+        return (long[]) n;
+    }
+
+    private static Object set(Object n, int shift, long index, long value) {
+        int i = (int) (index >>> shift) & MASK;
+        if(shift == 0) {
+            long[] leaf = n == null ? new long[WIDTH] : ((long[]) n).clone();
+            leaf[i] = value;
+            return leaf;
+        }
+        Object[] node = n == null ? new Object[WIDTH] : ((Object[]) n).clone();
+        node[i] = set(node[i], shift - BITS, index, value);
+        return node;
+    }
+
+    // first non-zero index >= from below n, whose subtree starts at base
+    private static long next(Object n, int shift, long base, long from) {
+        int first = from > base ? (int) ((from - base) >>> shift) : 0;
+        if(shift == 0) {
+            long[] leaf = (long[]) n;
+            for(int i = first; i < WIDTH; i++) {
+                if(leaf[i] != 0) return base + i;
+            }
+            return -1;
+        }
+        Object[] node = (Object[]) n;
+        for(int i = first; i < WIDTH; i++) {
+            if(node[i] == null) continue;
+            long child = base + ((long) i << shift);
+            long found = next(node[i], shift - BITS, child, Math.max(from, child));
+            if(found >= 0) return found;
+        }
+        return -1;
+    }
+}
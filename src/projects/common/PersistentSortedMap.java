@@ -0,0 +1,201 @@
+package projects.common;
+
+import java.util.*;
+
+/**
+ * Immutable sorted map (AVL tree). put and remove return a new map and leave this one as it
+ * was: only the O(log n) nodes on the path to the key are copied, the rest is shared.
+ * Meant for snapshot reads: writers publish each new map through an atomic reference, a
+ * reader takes whatever map is current and iterates it without locks, unaffected by later writes.
+ * No null keys or values. About 32 bytes per entry.
+ *
+ * @param <K> key, ordered by the map's comparator
+ * @param <V> value
+ */
+public final class PersistentSortedMap<K, V> {
+    private final Comparator<? super K> comparator;
+    private final Node<K, V> root;
+    private final int size;
+
+    private static final class Node<K, V> implements Map.Entry<K, V> {
+        final K key;
+        final V value;
+        final Node<K, V> left;
+        final Node<K, V> right;
+        final int height;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(height(left), height(right));
+        }
+
+        @Override public K getKey() {return key;}
+        @Override public V getValue() {return value;}
+        @Override public V setValue(V value) {throw new UnsupportedOperationException();}
+    }
+
+    private PersistentSortedMap(Comparator<? super K> comparator, Node<K, V> root, int size) {
+        this.comparator = comparator;
+        this.root = root;
+        this.size = size;
+    }
+
+    public static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> empty() {
+        return new PersistentSortedMap<>(Comparator.naturalOrder(), null, 0);
+    }
+
+    public static <K, V> PersistentSortedMap<K, V> empty(Comparator<? super K> comparator) {
+        return new PersistentSortedMap<>(comparator, null, 0);
+    }
+
+    public int size() {return size;}
+
+    public boolean isEmpty() {return size == 0;}
+
+    public V get(K key) {
+        Node<K, V> n = root;
+        while(n != null) {
+            int c = comparator.compare(key, n.key);
+            if(c == 0) return n.value;
+            n = c < 0 ? n.left : n.right;
+        }
+        return null;
+    }
+
+    /** This map plus key -> value (replacing key's old value). */
+    public PersistentSortedMap<K, V> put(K key, V value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+        boolean[] added = new boolean[1];
+        Node<K, V> r = put(root, key, value, added);
+        return new PersistentSortedMap<>(comparator, r, added[0] ? size + 1 : size);
+    }
+
+    /** This map without key (this map itself if key is not there). */
+    public PersistentSortedMap<K, V> remove(K key) {
+        Node<K, V> r = remove(root, key);
+        return r == root ? this : new PersistentSortedMap<>(comparator, r, size - 1);
+    }
+
+    /** Entries in key order, starting after from (at from if inclusive); null from = the first entry. */
+    public Iterator<Map.Entry<K, V>> entriesFrom(K from, boolean inclusive) {
+        return new EntryIterator<>(this, from, inclusive);
+    }
+
+    /** Values in key order, starting after from (at from if inclusive); null from = the first entry. */
+    public Iterator<V> valuesFrom(K from, boolean inclusive) {
+        Iterator<Map.Entry<K, V>> entries = entriesFrom(from, inclusive);
+        return new Iterator<>() {
+            @Override public boolean hasNext() {return entries.hasNext();}
+            @Override public V next() {return entries.next().getValue();}
+        };
+    }
+
+    /** Every value in key order (a read-only view of this map, so it never changes). */
+    public Collection<V> values() {
+        return new AbstractCollection<>() {
+            @Override public Iterator<V> iterator() {return valuesFrom(null, true);}
+            @Override public int size() {return size;}
+        };
+    }
+
+    // ------------------------------ TREE ------------------------------------------
+
+    private Node<K, V> put(Node<K, V> n, K key, V value, boolean[] added) {
+        if(n == null) {
+            added[0] = true;
+            return new Node<>(key, value, null, null);
+        }
+        int c = comparator.compare(key, n.key);
+        if(c == 0) return new Node<>(key, value, n.left, n.right);
+        if(c < 0) return balance(n.key, n.value, put(n.left, key, value, added), n.right);
+        return balance(n.key, n.value, n.left, put(n.right, key, value, added));
+    }
+
+    // the same node when key is not below n
+    private Node<K, V> remove(Node<K, V> n, K key) {
+        if(n == null) return null;
+        int c = comparator.compare(key, n.key);
+        if(c < 0) {
+            Node<K, V> l = remove(n.left, key);
+            return l == n.left ? n : balance(n.key, n.value, l, n.right);
+        }
+        if(c > 0) {
+            Node<K, V> r = remove(n.right, key);
+            return r == n.right ? n : balance(n.key, n.value, n.left, r);
+        }
+        if(n.left == null) return n.right;
+        if(n.right == null) return n.left;
+        Node<K, V> min = n.right;
+        while(min.left != null) min = min.left;
+        return balance(min.key, min.value, n.left, removeMin(n.right));
+    }
+
+    private static <K, V> Node<K, V> removeMin(Node<K, V> n) {
+        if(n.left == null) return n.right;
+        return balance(n.key, n.value, removeMin(n.left), n.right);
+    }
+
+    // a node over l and r, rotated when their heights differ by more than one
+    private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> l, Node<K, V> r) {
+        int hl = height(l);
+        int hr = height(r);
+        if(hl > hr + 1) {
+            if(height(l.left) >= height(l.right)) {
+                return new Node<>(l.key, l.value, l.left, new Node<>(key, value, l.right, r));
+            }
+            Node<K, V> lr = l.right;
+            return new Node<>(lr.key, lr.value, new Node<>(l.key, l.value, l.left, lr.left), new Node<>(key, value, lr.right, r));
+        }
+        if(hr > hl + 1) {
+            if(height(r.right) >= height(r.left)) {
+                return new Node<>(r.key, r.value, new Node<>(key, value, l, r.left), r.right);
+            }
+            Node<K, V> rl = r.left;
+            return new Node<>(rl.key, rl.value, new Node<>(key, value, l, rl.left), new Node<>(r.key, r.value, rl.right, r.right));
+        }
+        return new Node<>(key, value, l, r);
+    }
+
+    private static int height(Node<?, ?> n) {
+        return n == null ? 0 : n.height;
+    }
+
+    // in order; the stack holds the nodes still to visit along with their right subtrees
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final Object[] stack;
+        private int top;
+
+        EntryIterator(PersistentSortedMap<K, V> map, K from, boolean inclusive) {
+            stack = new Object[height(map.root) + 1];
+            Node<K, V> n = map.root;
+            while(n != null) {
+                int c = from == null ? -1 : map.comparator.compare(from, n.key);
+                if(c < 0 || (c == 0 && inclusive)) {
+                    stack[top++] = n;
+                    if(c == 0) break;
+                    n = n.left;
+                } else {
+                    n = n.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return top > 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if(top == 0) throw new NoSuchElementException();
+            Node<K, V> n = (Node<K, V>) stack[--top];
+            for(Node<K, V> c = n.right; c != null; c = c.left) stack[top++] = c;
+            return n;
+        }
+    }
+}
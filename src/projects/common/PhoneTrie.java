@@ -0,0 +1,331 @@
+package projects.common;
+
+import java.util.Arrays;
+
+/**
+ * Radix tree of E.164 phone numbers -> long ids, for exact and "starts with" lookups.
+ * A number is kept as up to 15 digits packed 4 bits each into one long (left-aligned),
+ * so there is no String per entry. Nodes live in parallel primitive arrays (no objects):
+ * packed path, path length, id, first child and next sibling (siblings sorted by digit,
+ * so results come out in digit order). Edges are compressed, every node either ends a
+ * number or splits, so a subtree with k numbers has fewer than 2k nodes and a prefix query
+ * costs O(prefix length + results). About 25 bytes per node. Not thread-safe.
+ *
+ * Inputs are normalized: an optional leading '+' and the separators ' ', '-', '.', '(' and ')'
+ * are ignored, anything else that is not a digit makes the input invalid.
+ */
+public class PhoneTrie {
+    public static final int MAX_DIGITS = 15;
+    private static final long NONE = Long.MIN_VALUE;
+    private static final int NIL = -1;
+    private static final int ROOT = 0;
+
+    private long[] paths;     // digits from the root down to the node, packed
+    private byte[] lengths;   // number of digits in paths[n]
+    private long[] ids;       // id of the number ending here, or NONE
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int nodes;        // high-water mark
+    private int[] free = new int[16]; // recycled node slots
+    private int freeCount;
+    private int size;
+
+    public PhoneTrie() {
+        int capacity = 64;
+        paths = new long[capacity];
+        lengths = new byte[capacity];
+        ids = new long[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        newNode(0L, 0, NONE); // root, the empty prefix
+    }
+
+    public int size() {return size;}
+
+    /**
+     * Maps the number to the id, replacing any previous id.
+     * @throws IllegalArgumentException if the input is not 1..15 digits
+     */
+    public void put(String phone, long id) {
+        if(id == NONE) throw new IllegalArgumentException("reserved id");
+        long key = pack(phone);
+        int len = packedLength(phone);
+        if(len == 0) throw new IllegalArgumentException("Not a phone number: " + phone);
+        int node = ROOT;
+        while(true) {
+            int depth = lengths[node];
+            if(depth == len) {
+                if(ids[node] == NONE) size++;
+                ids[node] = id;
+                return;
+            }
+            int d = digitAt(key, depth);
+            int prev = NIL;
+            int child = firstChild[node];
+            while(child != NIL && digitAt(paths[child], depth) < d) {
+                prev = child;
+                child = nextSibling[child];
+            }
+            if(child == NIL || digitAt(paths[child], depth) != d) {
+                int leaf = newNode(key, len, id);
+                link(node, prev, leaf, child);
+                size++;
+                return;
+            }
+            int common = Math.min(commonPrefix(paths[child], key), Math.min(lengths[child], len));
+            if(common == lengths[child]) {
+                node = child;
+                continue;
+            }
+            // split the edge to child at common
+            int mid = newNode(key & mask(common), common, NONE);
+            link(node, prev, mid, nextSibling[child]);
+            nextSibling[child] = NIL;
+            firstChild[mid] = child;
+            if(common == len) {
+                ids[mid] = id;
+            } else {
+                int leaf = newNode(key, len, id);
+                if(digitAt(key, common) < digitAt(paths[child], common)) {
+                    link(mid, NIL, leaf, child);
+                } else {
+                    link(mid, child, leaf, NIL);
+                }
+            }
+            size++;
+            return;
+        }
+    }
+
+    /** @return the id of exactly this number, or -1 if absent or invalid */
+    public long get(String phone) {
+        int node = findExact(phone);
+        return node == NIL ? -1 : ids[node];
+    }
+
+    public boolean contains(String phone) {
+        return findExact(phone) != NIL;
+    }
+
+    /** @return the removed id, or -1 if the number was not there */
+    public long remove(String phone) {
+        if(!isNormalizable(phone)) return -1;
+        long key = pack(phone);
+        int len = packedLength(phone);
+        int parent = NIL;
+        int node = ROOT;
+        while(lengths[node] < len) {
+            int child = childFor(node, key);
+            if(child == NIL || lengths[child] > len || commonPrefix(paths[child], key) < lengths[child]) return -1;
+            parent = node;
+            node = child;
+        }
+        if(lengths[node] != len || ids[node] == NONE) return -1;
+        long id = ids[node];
+        ids[node] = NONE;
+        size--;
+        if(node == ROOT) return id;
+        // keep the tree compressed: drop empty leaves, merge nodes left with a single child
+        if(firstChild[node] == NIL) {
+            unlink(parent, node);
+            release(node);
+            if(parent != ROOT && ids[parent] == NONE && nextSibling[firstChild[parent]] == NIL) {
+                mergeWithOnlyChild(parent);
+            }
+        } else if(nextSibling[firstChild[node]] == NIL) {
+            mergeWithOnlyChild(node);
+        }
+        return id;
+    }
+
+    /**
+     * Ids of the numbers starting with prefix (an empty prefix matches everything), in digit
+     * order, at most limit of them. Country-code filters are prefix queries too: calling codes
+     * are prefix-free, so "+30" matches exactly the Greek numbers.
+     */
+    public long[] startingWith(String prefix, int limit) {
+        if(!isNormalizable(prefix) || limit <= 0) return new long[0];
+        long key = pack(prefix);
+        int len = packedLength(prefix);
+        int node = ROOT;
+        while(lengths[node] < len) {
+            int child = childFor(node, key);
+            if(child == NIL) return new long[0];
+            int common = Math.min(commonPrefix(paths[child], key), Math.min(lengths[child], len));
+            if(common < Math.min(lengths[child], len)) return new long[0];
+            node = child;
+        }
+        LongList out = new LongList();
+        collect(node, limit, out, new int[2 * (MAX_DIGITS + 1)]);
+        return out.toArray();
+    }
+
+    /**
+     * The normalized number as one long (e.g. the key of a hash index on disk): the packed
+     * digits, the digit count in the low 4 bits. Never 0 or -1.
+     * @throws IllegalArgumentException if the input is not 1..15 digits
+     */
+    public static long numberKey(String phone) {
+        long key = pack(phone);
+        int len = packedLength(phone);
+        if(len == 0) throw new IllegalArgumentException("Not a phone number: " + phone);
+        return key | len;
+    }
+
+    /** true when the input normalizes to 0..15 digits */
+    public static boolean isNormalizable(String s) {
+        if(s == null) return false;
+        int digits = 0;
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if(c >= '0' && c <= '9') {
+                if(++digits > MAX_DIGITS) return false;
+            } else if(!(c == '+' && i == 0) && !isSeparator(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------ NODES ------------------------------------------
+
+    private int findExact(String phone) {
+        if(!isNormalizable(phone)) return NIL;
+        long key = pack(phone);
+        int len = packedLength(phone);
+        int node = ROOT;
+        while(lengths[node] < len) {
+            int child = childFor(node, key);
+            if(child == NIL || lengths[child] > len || commonPrefix(paths[child], key) < lengths[child]) return NIL;
+            node = child;
+        }
+        return ids[node] == NONE ? NIL : node;
+    }
+
+    // child of node on key's path (by the next digit only)
+    private int childFor(int node, long key) {
+        int d = digitAt(key, lengths[node]);
+        for(int c = firstChild[node]; c != NIL; c = nextSibling[c]) {
+            int cd = digitAt(paths[c], lengths[node]);
+            if(cd == d) return c;
+            if(cd > d) break;
+        }
+        return NIL;
+    }
+
+    // depth-first, in digit order; stack holds the next sibling to visit per level
+    private void collect(int start, int limit, LongList out, int[] stack) {
+        int top = 0;
+        stack[top++] = start;
+        int remaining = limit;
+        while(top > 0) {
+            int node = stack[--top];
+            if(node == NIL) continue;
+            if(node != start) stack[top++] = nextSibling[node];
+            if(ids[node] != NONE) {
+                out.add(ids[node]);
+                if(--remaining == 0) return;
+            }
+            if(firstChild[node] != NIL) stack[top++] = firstChild[node];
+        }
+    }
+
+    // inserts child between prev and next in parent's sibling list
+    private void link(int parent, int prev, int child, int next) {
+        nextSibling[child] = next;
+        if(prev == NIL) firstChild[parent] = child;
+        else nextSibling[prev] = child;
+    }
+
+    private void unlink(int parent, int child) {
+        if(firstChild[parent] == child) {
+            firstChild[parent] = nextSibling[child];
+            return;
+        }
+        int c = firstChild[parent];
+        while(nextSibling[c] != child) c = nextSibling[c];
+        nextSibling[c] = nextSibling[child];
+    }
+
+    // node has no id and one child: the child takes over node's slot (and its place among siblings)
+    private void mergeWithOnlyChild(int node) {
+        int child = firstChild[node];
+        paths[node] = paths[child];
+        lengths[node] = lengths[child];
+        ids[node] = ids[child];
+        firstChild[node] = firstChild[child];
+        release(child);
+    }
+
+    private int newNode(long path, int length, long id) {
+        int n;
+        if(freeCount > 0) {
+            n = free[--freeCount];
+        } else {
+            if(nodes == paths.length) grow();
+            n = nodes++;
+        }
+        paths[n] = path;
+        lengths[n] = (byte) length;
+        ids[n] = id;
+        firstChild[n] = NIL;
+        nextSibling[n] = NIL;
+        return n;
+    }
+
+    private void release(int node) {
+        ids[node] = NONE;
+        if(freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+        free[freeCount++] = node;
+    }
+
+    private void grow() {
+        int capacity = paths.length * 2;
+        paths = Arrays.copyOf(paths, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+    }
+
+    // ------------------------------ PACKING ------------------------------------------
+
+    // digits left-aligned, 4 bits each: digit i sits at bits 63-4i .. 60-4i
+    private static long pack(String s) {
+        if(!isNormalizable(s)) throw new IllegalArgumentException("Not a phone number: " + s);
+        long key = 0;
+        int i = 0;
+        for(int j = 0; j < s.length(); j++) {
+            char c = s.charAt(j);
+            if(c >= '0' && c <= '9') key |= (long) (c - '0') << (60 - 4 * i++);
+        }
+        return key;
+    }
+
+    private static int packedLength(String s) {
+        int n = 0;
+        for(int j = 0; j < s.length(); j++) {
+            char c = s.charAt(j);
+            if(c >= '0' && c <= '9') n++;
+        }
+        return n;
+    }
+
+    private static int digitAt(long key, int i) {
+        return (int) (key >>> (60 - 4 * i)) & 0xF;
+    }
+
+    // number of equal leading digits of two packed keys (not capped by their lengths)
+    private static int commonPrefix(long a, long b) {
+        return Long.numberOfLeadingZeros(a ^ b) / 4;
+    }
+
+    // keeps the first n digits
+    private static long mask(int n) {
+        return n == 0 ? 0L : -1L << (64 - 4 * n);
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '-' || c == '.' || c == '(' || c == ')';
+    }
+}
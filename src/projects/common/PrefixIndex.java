@@ -0,0 +1,83 @@
+package projects.common;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Sorted, case-folded text index used for "starts with" searches.
+ * Keys are folded once on insert, so a query only folds the prefix and
+ * reads the matching range in order (no per-entry lowercasing or sorting).
+ * The unique id breaks ties between equal texts (e.g. two books with the same title).
+ * Backed by a skip list, so it can be read and updated from several threads.
+ *
+ * @param <V> the indexed value (Book, Contact, ...)
+ */
+public class PrefixIndex<V> {
+    private static final char SEPARATOR = '\u0000';
+
+    private final NavigableMap<String, V> byKey = new ConcurrentSkipListMap<>();
+
+    public void put(String text, String uniqueId, V value) {
+        byKey.put(key(text, uniqueId), value);
+    }
+
+    public void remove(String text, String uniqueId) {
+        byKey.remove(key(text, uniqueId));
+    }
+
+    public int size() {return byKey.size();}
+
+    // every value, in text order
+    public Collection<V> values() {
+        return Collections.unmodifiableCollection(byKey.values());
+    }
+
+    // values whose text starts with prefix ("" for all), in text order, read lazily from the
+    // index (nothing is copied; entries changed meanwhile may or may not show up)
+    public Stream<V> stream(String prefix) {
+        return range(prefix).values().stream();
+    }
+
+    // at most limit values whose text starts with prefix (case-insensitive), in text order
+    public List<V> startingWith(String prefix, int limit) {
+        List<V> res = new ArrayList<>();
+        for(V v : range(prefix).values()) {
+            if(res.size() >= limit) break;
+            res.add(v);
+        }
+        return res;
+    }
+
+    /**
+     * One page of the values whose text starts with prefix ("" for all), in text order.
+     * Pass a null cursor for the first page, then the page's next cursor; the cost is
+     * O(log n + limit) whatever page is asked for.
+     */
+    public Page<V> page(String prefix, String cursor, int limit) {
+        NavigableMap<String, V> range = range(prefix);
+        if(cursor != null) range = range.tailMap(cursor, false);
+        List<V> items = new ArrayList<>(Math.min(limit, 1024));
+        String last = null;
+        for(Map.Entry<String, V> e : range.entrySet()) {
+            if(items.size() >= limit) return new Page<>(items, last);
+            items.add(e.getValue());
+            last = e.getKey();
+        }
+        return new Page<>(items, null);
+    }
+
+    private NavigableMap<String, V> range(String prefix) {
+        String p = fold(prefix);
+        return byKey.subMap(p, true, p + Character.MAX_VALUE, false);
+    }
+
+    // the key text is filed under; a page's next cursor is one of these
+    public static String key(String text, String uniqueId) {
+        return fold(text) + SEPARATOR + uniqueId;
+    }
+
+    public static String fold(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,84 @@
+package projects.common;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Console of the CLI apps. Input is read with a LineReader instead of a Scanner (no regex
+ * per line). Output goes to one 64 KB buffer that is flushed only right before input is
+ * read, instead of on every println. System.out points at the same buffer, so all of an
+ * app's printing shares it and stays in order.
+ * In batch mode ("--batch", for scripted sessions piped in) menus and prompts are skipped
+ * and the output is flushed only when the buffer fills up and at exit.
+ * Rows are best built in line(), a StringBuilder that is reused for every row.
+ */
+public final class TextConsole {
+    private static final int BUFFER = 64 * 1024;
+    private static final int MAX_LINE = 1024 * 1024;
+
+    private final LineReader in;
+    private final PrintStream out;
+    private final boolean batch;
+    private final StringBuilder line = new StringBuilder(256);
+
+    public TextConsole(InputStream in, OutputStream out, boolean batch) {
+        this.in = new LineReader(in, MAX_LINE);
+        this.out = new PrintStream(new BufferedOutputStream(out, BUFFER), false, StandardCharsets.UTF_8);
+        this.batch = batch;
+    }
+
+    /** Standard input and output; System.out is pointed here and flushed at exit. */
+    public static TextConsole system(boolean batch) {
+        TextConsole console = new TextConsole(new FileInputStream(FileDescriptor.in),
+                new FileOutputStream(FileDescriptor.out), batch);
+        System.setOut(console.out);
+        Runtime.getRuntime().addShutdownHook(new Thread(console.out::flush));
+        return console;
+    }
+
+    // "--batch" among the program arguments
+    public static boolean batchRequested(String[] args) {
+        for(String a : args) {
+            if(a.equals("--batch")) return true;
+        }
+        return false;
+    }
+
+    public boolean isBatch() {return batch;}
+
+    public PrintStream out() {return out;}
+
+    /** The next line, or null when the input has ended. Pending output is shown first (unless batch). */
+    public String readLine() {
+        if(!batch) out.flush();
+        try {
+            return in.readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Printed only when someone is typing (not in batch mode). */
+    public void prompt(String text) {
+        if(!batch) out.print(text);
+    }
+
+    /** The shared row builder, emptied; print it with println. */
+    public StringBuilder line() {
+        line.setLength(0);
+        return line;
+    }
+
+    public void println(CharSequence text) {
+        out.append(text);
+        out.println();
+    }
+
+    public void println(String text) {
+        out.println(text);
+    }
+
+    public void flush() {
+        out.flush();
+    }
+}
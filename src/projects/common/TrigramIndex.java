@@ -0,0 +1,381 @@
+package projects.common;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Typo-tolerant text search: an inverted index from trigrams to the documents containing them.
+ * Text is case-folded and split into words of letters/digits; each word is padded ("  ab", "abc", "c ")
+ * so word starts and ends count. Each trigram keeps a posting list of document numbers,
+ * delta + varint encoded in a byte[] (1-2 bytes per entry), with a skip entry every 32
+ * documents so a list can be advanced without decoding it all.
+ *
+ * A query of q trigrams tolerates 1 typo (2 when q > 5); a typo changes at most 3 trigrams, so
+ * a match must share T = max(1, q - 3 * typos) of them. Any such document is in at least one of
+ * the q - T + 1 shortest lists (prefix filtering): only those lists produce candidates, the
+ * others are skipped forward to check them (unless a candidate cannot beat the results kept).
+ * Ranking: shared trigrams, then the Jaccard similarity (so shorter, closer texts win), then
+ * the older document; the results are the top limit by that order, whatever order the
+ * candidates come in. At most MAX_CANDIDATES postings produce candidates, which bounds the
+ * latency of very common queries: past that, fewer short lists are used (or only the start
+ * of the shortest one), so matches on common trigrams alone may be missed.
+ *
+ * Maintained incrementally: a document is appended on put and tombstoned on remove or replace.
+ * Once more than half of the document numbers are dead, the live documents are renumbered
+ * 0..n-1 in the same order, so every posting list is remapped as it is (no text is kept or
+ * re-read) and numbers stay dense; that costs O(postings), amortized over n/2 removals.
+ * Thread-safe (read/write lock): many searches at once, writers one at a time.
+ *
+ * @param <K> key of a document (contact id, ISBN, ...)
+ * @param <V> value returned by searches
+ */
+public class TrigramIndex<K, V> {
+    private static final int MAX_CANDIDATES = 20_000;
+
+    private final LongKeyMap<Postings> postings = new LongKeyMap<>();
+    private final Map<K, Integer> docByKey = new HashMap<>();
+    private final ArrayList<V> values = new ArrayList<>(); // by document number, null when dead
+    private int[] trigramCounts = new int[16];              // distinct trigrams per document
+    private int dead;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Indexes text for key (replacing what key had before). */
+    public void put(K key, String text, V value) {
+        Objects.requireNonNull(value, "value");
+        lock.writeLock().lock();
+        try {
+            Integer old = docByKey.get(key);
+            if(old != null) kill(old);
+            int doc = values.size();
+            values.add(value);
+            long[] grams = trigrams(text);
+            if(doc == trigramCounts.length) trigramCounts = Arrays.copyOf(trigramCounts, doc * 2);
+            trigramCounts[doc] = grams.length;
+            for(long g : grams) postings.computeIfAbsent(g, k -> new Postings()).add(doc);
+            docByKey.put(key, doc);
+            if(dead > values.size() / 2) compact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(K key) {
+        lock.writeLock().lock();
+        try {
+            Integer doc = docByKey.remove(key);
+            if(doc != null) kill(doc);
+            if(dead > values.size() / 2) compact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docByKey.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Best matches first, at most limit of them. */
+    public List<V> search(String query, int limit) {
+        long[] grams = trigrams(query);
+        if(grams.length == 0 || limit <= 0) return Collections.emptyList();
+        lock.readLock().lock();
+        try {
+            return rank(grams, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * How search ranks text for query: shared trigrams plus the Jaccard similarity (at most 1,
+     * so it only breaks ties). Higher is better; lets the results of several indexes be merged.
+     */
+    public static double score(String query, String text) {
+        long[] q = trigrams(query);
+        long[] t = trigrams(text);
+        int shared = 0;
+        for(int i = 0, j = 0; i < q.length && j < t.length; ) {
+            if(q[i] == t[j]) {
+                shared++;
+                i++;
+                j++;
+            } else if(q[i] < t[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return shared == 0 ? 0 : shared + shared / (double) (q.length + t.length - shared);
+    }
+
+    // ------------------------------ QUERY ------------------------------------------
+
+    private List<V> rank(long[] grams, int limit) {
+        int q = grams.length;
+        int typos = q > 5 ? 2 : 1;
+        int threshold = Math.max(1, q - 3 * typos);
+
+        // shortest lists first; a trigram nobody has is an empty list
+        Postings[] lists = new Postings[q];
+        for(int i = 0; i < q; i++) lists[i] = postings.get(grams[i]);
+        Arrays.sort(lists, Comparator.comparingInt(TrigramIndex::count));
+
+        // producers: the q - T + 1 shortest lists (or fewer if they hold too many entries)
+        int producers = 1;
+        long entries = count(lists[0]);
+        while(producers < q - threshold + 1 && entries + count(lists[producers]) <= MAX_CANDIDATES) {
+            entries += count(lists[producers++]);
+        }
+
+        // 1. candidates in document order, with how many producer lists have them
+        int[] docs = new int[(int) Math.min(entries, MAX_CANDIDATES)];
+        int[] hits = new int[docs.length];
+        int n = 0;
+        Cursor[] cursors = new Cursor[producers];
+        for(int i = 0; i < producers; i++) {
+            cursors[i] = new Cursor(lists[i]);
+            cursors[i].next();
+        }
+        while(n < docs.length) {
+            int doc = Cursor.END;
+            for(Cursor c : cursors) doc = Math.min(doc, c.doc);
+            if(doc == Cursor.END) break;
+            int shared = 0;
+            for(Cursor c : cursors) {
+                if(c.doc == doc) {
+                    shared++;
+                    c.next();
+                }
+            }
+            docs[n] = doc;
+            hits[n++] = shared;
+        }
+
+        // 2. check them against the longer lists (one pass, in document order); a candidate is
+        // dropped as soon as it can no longer reach the threshold or beat the worst hit kept
+        int rest = q - producers;
+        Cursor[] others = new Cursor[rest];
+        for(int i = 0; i < rest; i++) others[i] = new Cursor(lists[producers + i]);
+        PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1, Hit.WORST_FIRST); // worst on top
+        for(int i = 0; i < n; i++) {
+            Hit worst = best.size() == limit ? best.peek() : null;
+            int needed = worst == null ? threshold : Math.max(threshold, worst.shared);
+            int doc = docs[i];
+            int shared = hits[i];
+            int left = rest;
+            for(Cursor c : others) {
+                if(shared + left < needed) break;
+                left--;
+                if(c.advance(doc) == doc) shared++;
+            }
+            if(shared < needed || values.get(doc) == null) continue; // too weak, or removed
+            double jaccard = shared / (double) (q + trigramCounts[doc] - shared);
+            // as many shared as the worst hit kept: only a closer text replaces it (documents come
+            // in order, so on a full tie the kept one is older and stays)
+            if(worst != null && shared == worst.shared && jaccard <= worst.jaccard) continue;
+            best.add(new Hit(doc, shared, jaccard));
+            if(best.size() > limit) best.poll();
+        }
+        List<V> res = new ArrayList<>(best.size());
+        while(!best.isEmpty()) res.add(values.get(best.poll().doc));
+        Collections.reverse(res);
+        return res;
+    }
+
+    private static int count(Postings p) {
+        return p == null ? 0 : p.count;
+    }
+
+    private static final class Hit {
+        static final Comparator<Hit> WORST_FIRST = Comparator.<Hit>comparingInt(h -> h.shared)
+                .thenComparingDouble(h -> h.jaccard)
+                .thenComparing(Comparator.comparingInt((Hit h) -> h.doc).reversed());
+
+        final int doc;
+        final int shared;
+        final double jaccard;
+
+        Hit(int doc, int shared, double jaccard) {
+            this.doc = doc;
+            this.shared = shared;
+            this.jaccard = jaccard;
+        }
+    }
+
+    // ------------------------------ MAINTENANCE ------------------------------------------
+
+    // caller holds the write lock
+    private void kill(int doc) {
+        values.set(doc, null);
+        dead++;
+    }
+
+    // drops the dead documents and numbers the live ones 0..n-1, keeping their order
+    private void compact() {
+        int[] renumbered = new int[values.size()]; // old number -> new one, -1 if dead
+        int live = 0;
+        for(int doc = 0; doc < renumbered.length; doc++) {
+            V v = values.get(doc);
+            if(v == null) {
+                renumbered[doc] = -1;
+                continue;
+            }
+            renumbered[doc] = live;
+            values.set(live, v);
+            trigramCounts[live++] = trigramCounts[doc];
+        }
+        values.subList(live, values.size()).clear();
+        values.trimToSize();
+        if(trigramCounts.length > 4 * live + 16) trigramCounts = Arrays.copyOf(trigramCounts, 2 * live + 16);
+        postings.forEachValue(p -> p.renumber(renumbered));
+        docByKey.replaceAll((k, doc) -> renumbered[doc]);
+        dead = 0;
+    }
+
+    // ------------------------------ TRIGRAMS ------------------------------------------
+
+    // distinct trigrams of the folded text, each packed as three 16-bit chars
+    static long[] trigrams(String text) {
+        if(text == null) return new long[0];
+        String s = text.toLowerCase(Locale.ROOT);
+        long[] res = new long[s.length() * 2 + 4];
+        int n = 0;
+        char a = ' ';
+        char b = ' ';
+        boolean inWord = false;
+        for(int i = 0; i <= s.length(); i++) {
+            char c = i < s.length() ? s.charAt(i) : ' ';
+            boolean letter = Character.isLetterOrDigit(c);
+            if(!letter) {
+                if(!inWord) continue;
+                c = ' '; // end of word: "xy " closes it
+                inWord = false;
+            } else if(!inWord) {
+                a = ' ';
+                b = ' ';
+                inWord = true;
+            }
+            if(n == res.length) res = Arrays.copyOf(res, n * 2);
+            res[n++] = ((long) a << 32) | ((long) b << 16) | c;
+            a = b;
+            b = c;
+        }
+        Arrays.sort(res, 0, n);
+        int distinct = 0;
+        for(int i = 0; i < n; i++) {
+            if(distinct == 0 || res[distinct - 1] != res[i]) res[distinct++] = res[i];
+        }
+        return Arrays.copyOf(res, distinct);
+    }
+
+    // ------------------------------ POSTINGS ------------------------------------------
+
+    private static final class Postings {
+        static final int SKIP_EVERY = 32;
+
+        byte[] data = new byte[4];
+        int bytes;
+        int count;
+        int last = -1;
+        // for block b (entries b*32...): the document before it and the byte offset it starts at
+        int[] skipPrev = new int[1];
+        int[] skipOffset = new int[1];
+
+        void add(int doc) {
+            if(count % SKIP_EVERY == 0 && count > 0) {
+                int b = count / SKIP_EVERY;
+                if(b == skipPrev.length) {
+                    skipPrev = Arrays.copyOf(skipPrev, b * 2);
+                    skipOffset = Arrays.copyOf(skipOffset, b * 2);
+                }
+                skipPrev[b] = last;
+                skipOffset[b] = bytes;
+            }
+            int delta = doc - last;
+            if(bytes + 5 > data.length) data = Arrays.copyOf(data, Math.max(bytes + 5, data.length * 2));
+            while((delta & ~0x7F) != 0) {
+                data[bytes++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[bytes++] = (byte) delta;
+            last = doc;
+            count++;
+        }
+
+        // keeps the live documents under their new numbers (which are in the same order)
+        void renumber(int[] renumbered) {
+            Postings kept = new Postings();
+            Cursor c = new Cursor(this);
+            while(c.next() != Cursor.END) {
+                if(renumbered[c.doc] >= 0) kept.add(renumbered[c.doc]);
+            }
+            data = kept.data;
+            bytes = kept.bytes;
+            count = kept.count;
+            last = kept.last;
+            skipPrev = kept.skipPrev;
+            skipOffset = kept.skipOffset;
+        }
+    }
+
+    private static final class Cursor {
+        static final int END = Integer.MAX_VALUE;
+
+        final Postings p; // null for a trigram nobody has
+        final int count;
+        int doc = -1;
+        int index;  // entries read
+        int offset; // next byte
+
+        Cursor(Postings p) {
+            this.p = p;
+            this.count = count(p);
+        }
+
+        int next() {
+            if(index >= count) return doc = END;
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = p.data[offset++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while(b < 0);
+            index++;
+            return doc += delta;
+        }
+
+        // first document >= target
+        int advance(int target) {
+            if(doc >= target) return doc;
+            if(count == 0) return doc = END;
+            // jump to the last block that starts before target, if it is ahead of us
+            int blocks = (count - 1) / Postings.SKIP_EVERY + 1;
+            int lo = index / Postings.SKIP_EVERY + 1;
+            int hi = blocks - 1;
+            int jump = -1;
+            while(lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if(p.skipPrev[mid] < target) {
+                    jump = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            if(jump > 0) {
+                doc = p.skipPrev[jump];
+                offset = p.skipOffset[jump];
+                index = jump * Postings.SKIP_EVERY;
+            }
+            while(doc < target) next();
+            return doc;
+        }
+    }
+}
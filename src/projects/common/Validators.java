@@ -0,0 +1,149 @@
+package projects.common;
+
+/**
+ * Input validators shared by the apps, the bulk importer and anything else that
+ * checks user data. Hand-written single-pass scanners: no regex, and no allocation
+ * for any input (valid or not).
+ */
+public final class Validators {
+    /** Longest title, author, name or email stored (chars); a log record field holds at most 64 KB of UTF-8. */
+    public static final int MAX_TEXT_LENGTH = 4096;
+    private static final int MAX_ISBN_LENGTH = 17; // 13 digits + 4 separators
+
+    private Validators() {}
+
+    /**
+     * E.164 phone number: '+', a non-zero digit, then 1 to 14 more digits (e.g. +306912345678).
+     * Same rule as the former regex ^\+[1-9]\d{1,14}$.
+     */
+    public static boolean isE164Phone(String phone) {
+        if(phone == null) return false;
+        int n = phone.length();
+        if(n < 3 || n > 16 || phone.charAt(0) != '+') return false;
+        char first = phone.charAt(1);
+        if(first < '1' || first > '9') return false;
+        for(int i = 2; i < n; i++) {
+            if(!isDigit(phone.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    // E.164 country calling code without the '+': 1 to 3 digits, not starting with 0
+    public static boolean isCountryCode(String code) {
+        if(code == null || code.isEmpty() || code.length() > 3 || code.charAt(0) == '0') return false;
+        for(int i = 0; i < code.length(); i++) {
+            if(!isDigit(code.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    // a free-text field (title, author, name, email) short enough to be stored
+    public static boolean isStorableText(String text) {
+        return text != null && text.length() <= MAX_TEXT_LENGTH;
+    }
+
+    /**
+     * ISBN-10 or ISBN-13 with a valid check digit. Hyphens or spaces may separate groups
+     * (not at either end, never two in a row); an ISBN-10 may end in X or x.
+     */
+    public static boolean isIsbn(String isbn) {
+        if(isbn == null) return false;
+        int n = isbn.length();
+        if(n < 10 || n > MAX_ISBN_LENGTH) return false;
+        int digits = 0;
+        int sum10 = 0; // sum of digit * (10 - position), ISBN-10 rule
+        int sum13 = 0; // digits weighted 1,3,1,3..., ISBN-13 rule
+        boolean lastWasSeparator = true; // so a leading one is rejected
+        for(int i = 0; i < n; i++) {
+            char c = isbn.charAt(i);
+            if(c == '-' || c == ' ') {
+                if(lastWasSeparator) return false;
+                lastWasSeparator = true;
+                continue;
+            }
+            int d;
+            if(isDigit(c)) {
+                d = c - '0';
+            } else if((c == 'X' || c == 'x') && digits == 9 && i == n - 1) {
+                d = 10; // only as the ISBN-10 check digit
+            } else {
+                return false;
+            }
+            if(digits == 13) return false;
+            sum10 += d * (10 - digits);
+            sum13 += (digits & 1) == 0 ? d : 3 * d;
+            digits++;
+            lastWasSeparator = false;
+        }
+        if(lastWasSeparator) return false;
+        if(digits == 10) return sum10 % 11 == 0;
+        return digits == 13 && sum13 % 10 == 0;
+    }
+
+    /**
+     * The form ISBNs are stored in: hyphens and spaces dropped, x upper-cased, so
+     * "978-0-13-468599-1" and "9780134685991" are the same book. Returns the same String
+     * when it is already in that form (no allocation).
+     */
+    public static String normalizeIsbn(String isbn) {
+        int n = isbn.length();
+        int i = 0;
+        while(i < n && !needsNormalizing(isbn.charAt(i))) i++;
+        if(i == n) return isbn;
+        StringBuilder sb = new StringBuilder(n).append(isbn, 0, i);
+        for(; i < n; i++) {
+            char c = isbn.charAt(i);
+            if(c == 'x') sb.append('X');
+            else if(c != '-' && c != ' ') sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static boolean needsNormalizing(char c) {
+        return c == '-' || c == ' ' || c == 'x';
+    }
+
+    /**
+     * Loose email check, not RFC-perfect: local part of letters, digits and ._%+-,
+     * then '@', one or more dot-terminated labels of letters, digits and '-', and a
+     * top-level domain of at least 2 letters. Same rule as the former regex
+     * (?i)^[A-Z0-9._%+-]+@(?:[A-Z0-9-]+\.)+[A-Z]{2,}$ (ASCII only).
+     */
+    public static boolean isEmailLike(String email) {
+        if(email == null) return false;
+        int n = email.length();
+        int i = 0;
+        while(i < n && isLocalChar(email.charAt(i))) i++;
+        if(i == 0 || i == n || email.charAt(i) != '@') return false;
+        i++;
+        int labels = 0;
+        int labelStart = i;
+        for(; i < n; i++) {
+            char c = email.charAt(i);
+            if(c == '.') {
+                if(i == labelStart) return false; // empty label
+                labels++;
+                labelStart = i + 1;
+            } else if(!isLetter(c) && !isDigit(c) && c != '-') {
+                return false;
+            }
+        }
+        if(labels == 0 || n - labelStart < 2) return false;
+        for(int j = labelStart; j < n; j++) {
+            if(!isLetter(email.charAt(j))) return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isLocalChar(char c) {
+        return isLetter(c) || isDigit(c) || c == '.' || c == '_' || c == '%' || c == '+' || c == '-';
+    }
+}
@@ -1,17 +1,30 @@
 package projects.contactbook;
 
+import projects.common.Page;
+import projects.common.PhoneTrie;
+import projects.common.TextConsole;
+import projects.common.TrigramIndex;
+import projects.common.Validators;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Simple Contact Book CLI app.
- * Features: add contacts, list sorted by name, search (name prefix / phone), update, delete, exit.
+ * Features: add contacts, list sorted by name, search (name prefix / fuzzy name / phone / phone prefix / country code),
+ * update, delete, exit.
+ * Run with --batch to replay a script of answers from standard input (no menu or prompts, output fully buffered).
  *
  * Architecture notes:
  * - Model: Contact
  * - Service: ContactBookService
  * - UI: ContactBookApp (menu + input helpers)
- * - Persistence: in-memory maps (acts as DAO/repository)
+ * - Persistence: ContactStore, memory-mapped files in contactbook-data (acts as DAO/repository)
  * - DTOs: not used here because this is a simple CLI app (no API/UI boundary).
  *   DTOs become useful when exposing data to a GUI/web/API layer.
  *
@@ -20,23 +33,30 @@ import java.util.stream.Collectors;
  */
 
 public class ContactBookApp {
+    private static final int SEARCH_LIMIT = 100; // results shown per search
+    private static final int PAGE_SIZE = 50; // contacts per page when listing
     public static void main(String[] args) {
-        Scanner reader = new Scanner(System.in);
-        ContactBookService service = new ContactBookService();
+        TextConsole reader = TextConsole.system(TextConsole.batchRequested(args));
+        ContactBookService service = openService();
+        // also runs on System.exit when the input ends; waits for a write in progress
+        Runtime.getRuntime().addShutdownHook(new Thread(service::close));
 
         while (true) {
-            printMenu();
+            if (!reader.isBatch()) printMenu();
             int choice = readInt(reader, "Choose: ");
             switch (choice) {
                 case 1 -> addContact(reader, service);
-                case 2 -> listContact(service);
+                case 2 -> listContact(reader, service);
                 case 3 -> searchContact(reader, service);
                 case 4 -> searchContactByPhone(reader, service);
                 case 5 -> updateContact(reader, service);
                 case 6 -> deleteContact(reader, service);
+                case 7 -> searchContactByPhonePrefix(reader, service);
+                case 8 -> listContactsByCountryCode(reader, service);
+                case 9 -> searchContactFuzzy(reader, service);
                 case 0 -> {
                     System.out.println("Goodbye!");
-                    reader.close();
+                    reader.flush();
                     return;
                 }
                 default -> {
@@ -45,9 +65,24 @@ public class ContactBookApp {
             }
         }
     }
+    // ------------------------------------------- PERSISTENCE -----------------------------------------
+
+    private static ContactBookService openService() {
+        try {
+            ContactStore store = ContactStore.open(Path.of("contactbook-data"), true);
+            if(store.wasRecovered()) {
+                System.out.println("Contact book was not closed properly, rebuilt its indexes in "
+                        + store.getOpenMillis() + " ms.");
+            }
+            return new ContactBookService(store);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open contactbook-data", e);
+        }
+    }
+
     // ------------------------------------------- UI FLOWS --------------------------------------------
 
-    private static void addContact(Scanner sc, ContactBookService service) {
+    private static void addContact(TextConsole sc, ContactBookService service) {
         System.out.println("*** Adding contact ***");
         String name = readNonBlank(sc, "Name: ");
         String phone = readPhone(sc, "Phone (unique): ");
@@ -57,19 +92,25 @@ public class ContactBookApp {
         else System.out.println("A contact with that phone already exists!");
     }
 
-    private static void listContact(ContactBookService service) {
+    private static void listContact(TextConsole sc, ContactBookService service) {
         System.out.println("*** Listing contacts ***");
-        List<Contact> all = service.listAllSortedByName();
+        Page<Contact> page = service.listPageSortedByName(null, PAGE_SIZE);
         // checking if Contact list is empty
-        if (all.isEmpty()) {
+        if (page.getItems().isEmpty()) {
             System.out.println("No contacts found!");
             return;
         }
-        for(Contact c : all) {
-            System.out.println(c.pretty());
+        while (true) {
+            for(Contact c : page.getItems()) {
+                sc.println(c.appendPretty(sc.line()));
+            }
+            if (!page.hasMore()) return;
+            String more = readMaybeBlank(sc, "More? (Enter = next page, q = stop): ");
+            if (more.equalsIgnoreCase("q")) return;
+            page = service.listPageSortedByName(page.getNextCursor(), PAGE_SIZE);
         }
     }
-    private static void searchContact(Scanner sc, ContactBookService service) {
+    private static void searchContact(TextConsole sc, ContactBookService service) {
         System.out.println("*** Searching for contact ***");
         String prefix = readNonBlank(sc, "Name starts with: ");
         List<Contact> res = service.searchByNamePrefix(prefix);
@@ -79,11 +120,17 @@ public class ContactBookApp {
         }
         System.out.println("Found " + res.size() + ":");
         for(Contact c : res) {
-            System.out.println(c.pretty());
+            sc.println(c.appendPretty(sc.line()));
         }
     }
 
-    private static void searchContactByPhone(Scanner sc, ContactBookService service) {
+    private static void searchContactFuzzy(TextConsole sc, ContactBookService service) {
+        System.out.println("*** Fuzzy search by name ***");
+        String text = readNonBlank(sc, "Name or part of it (typos are ok): ");
+        printContacts(sc, service.searchByNameFuzzy(text, SEARCH_LIMIT));
+    }
+
+    private static void searchContactByPhone(TextConsole sc, ContactBookService service) {
         System.out.println("*** Searching for contact by Phone ***");
         String phone = readPhone(sc, "Phone: ");
         Contact c = service.findByPhone(phone);
@@ -94,7 +141,39 @@ public class ContactBookApp {
         System.out.println(c.pretty());
     }
 
-    private static void updateContact(Scanner sc, ContactBookService service){
+    private static void searchContactByPhonePrefix(TextConsole sc, ContactBookService service) {
+        System.out.println("*** Searching for contact by phone prefix ***");
+        String prefix = readNonBlank(sc, "Phone starts with (e.g. +3069): ");
+        if(!PhoneTrie.isNormalizable(prefix)) {
+            System.out.println("Use digits only, optionally starting with +");
+            return;
+        }
+        printContacts(sc, service.searchByPhonePrefix(prefix, SEARCH_LIMIT));
+    }
+
+    private static void listContactsByCountryCode(TextConsole sc, ContactBookService service) {
+        System.out.println("*** Listing contacts by country code ***");
+        String code = readNonBlank(sc, "Country code (e.g. 30): ");
+        if(code.startsWith("+")) code = code.substring(1);
+        if(!Validators.isCountryCode(code)) {
+            System.out.println("Country code is 1 to 3 digits, e.g. 30 or 1");
+            return;
+        }
+        printContacts(sc, service.listByCountryCode(code, SEARCH_LIMIT));
+    }
+
+    private static void printContacts(TextConsole sc, List<Contact> res) {
+        if (res.isEmpty()) {
+            System.out.println("No matches found!");
+            return;
+        }
+        System.out.println("Found " + res.size() + (res.size() == SEARCH_LIMIT ? " (first " + SEARCH_LIMIT + ")" : "") + ":");
+        for(Contact c : res) {
+            sc.println(c.appendPretty(sc.line()));
+        }
+    }
+
+    private static void updateContact(TextConsole sc, ContactBookService service){
         System.out.println("*** Updating contact ***");
         // Checking if the contact exists so it can be updated
         long id = readLong(sc, "ID of contact to update: ");
@@ -113,7 +192,7 @@ public class ContactBookApp {
         System.out.println((ok) ? "Updated successfully!" : "Failed to update! Phone already exists!");
     }
 
-    private static void deleteContact(Scanner sc, ContactBookService service) {
+    private static void deleteContact(TextConsole sc, ContactBookService service) {
         System.out.println("*** Deleting contact ***");
         // Checking if the contact exists so it can be updated
         long id = readLong(sc, "ID of contact to delete: ");
@@ -134,13 +213,25 @@ public class ContactBookApp {
         System.out.println("4. Search by phone");
         System.out.println("5. Update contact (by id)");
         System.out.println("6. Delete contact (by id)");
+        System.out.println("7. Search by phone prefix");
+        System.out.println("8. List by country code");
+        System.out.println("9. Fuzzy search by name");
         System.out.println("0. Exit");
     }
     // ----------------------------------- INPUT HELPERS -----------------------------------------------
-    private static int readInt(Scanner sc, String prompt) {
+    private static String readLineOrExit(TextConsole sc) {
+        String line = sc.readLine();
+        if (line == null) {
+            System.out.println("\nInput ended. Goodbye!");
+            System.exit(0);
+        }
+        return line.trim();
+    }
+
+    private static int readInt(TextConsole sc, String prompt) {
         while (true) {
-            System.out.print(prompt);
-            String s = sc.nextLine().trim();
+            sc.prompt(prompt);
+            String s = readLineOrExit(sc);
             try {
                 return Integer.parseInt(s);
             } catch (NumberFormatException e) {
@@ -149,30 +240,30 @@ public class ContactBookApp {
         }
     }
 
-    private static String readNonBlank(Scanner sc, String prompt) {
+    private static String readNonBlank(TextConsole sc, String prompt) {
         while (true) {
-            System.out.print(prompt);
-            String s = sc.nextLine().trim();
+            sc.prompt(prompt);
+            String s = readLineOrExit(sc);
             if (!s.isEmpty()) return s;
             System.out.println("Cannot be empty");
         }
     }
 
-    private static String readMaybeBlank(Scanner sc, String prompt) {
-        System.out.print(prompt);
-        return sc.nextLine().trim(); // can be empty
+    private static String readMaybeBlank(TextConsole sc, String prompt) {
+        sc.prompt(prompt);
+        return readLineOrExit(sc); // can be empty
     }
 
-    private static String readPhone(Scanner sc, String prompt) {
+    private static String readPhone(TextConsole sc, String prompt) {
         while (true) {
-            System.out.print(prompt);
-            String p = sc.nextLine().trim();
+            sc.prompt(prompt);
+            String p = readLineOrExit(sc);
             if (p.isEmpty()) {
                 System.out.println("Phone cannot be empty");
                 continue;
             }
             // Phone simple validation
-            if(!p.matches("^\\+[1-9]\\d{1,14}$")) {
+            if(!Validators.isE164Phone(p)) {
                 System.out.println("Phone number is invalid. Try again Use E.164 like +306912345678.");
                 continue;
             }
@@ -180,24 +271,20 @@ public class ContactBookApp {
         }
     }
 
-    private static String readOptionalEmail(Scanner sc, String prompt) {
+    private static String readOptionalEmail(TextConsole sc, String prompt) {
         while (true) {
-            System.out.print(prompt);
-            String e = sc.nextLine().trim();
+            sc.prompt(prompt);
+            String e = readLineOrExit(sc);
             if (e.isEmpty()) return ""; // optional
-            if(isEmailLike(e)) return e;
+            if(Validators.isEmailLike(e)) return e;
             System.out.println("Email looks invalid try again or leave blank");
         }
     }
 
-    private static boolean isEmailLike(String email) {
-        return (email != null) && (email.matches("(?i)^[A-Z0-9._%+-]+@(?:[A-Z0-9-]+\\.)+[A-Z]{2,}$"));
-    }
-
-    private static long readLong(Scanner sc, String prompt) {
+    private static long readLong(TextConsole sc, String prompt) {
         while (true) {
-            System.out.print(prompt);
-            String s = sc.nextLine().trim();
+            sc.prompt(prompt);
+            String s = readLineOrExit(sc);
             try {
                 return Long.parseLong(s);
             } catch (NumberFormatException e) {
@@ -206,26 +293,23 @@ public class ContactBookApp {
         }
     }
 
-    private static String readOptionalPhone(Scanner sc, String prompt) {
+    private static String readOptionalPhone(TextConsole sc, String prompt) {
         while (true) {
-            System.out.print(prompt);
-            String phone = sc.nextLine().trim();
+            sc.prompt(prompt);
+            String phone = readLineOrExit(sc);
             if (phone.isEmpty()) return ""; // optional
-            if (isPhoneLike(phone)) return phone;
+            if (Validators.isE164Phone(phone)) return phone;
             System.out.println("Invalid phone. Use E.164 like +306912345678 or leave blank");
         }
     }
 
-    private static boolean isPhoneLike(String phone) {
-        return phone.matches("^\\+[1-9]\\d{1,14}$");
-    }
-
     // --------------------------------------- DOMAIN --------------------------------------------------
+    // a contact as read from the store; changes go through ContactBookService.update
     static class Contact {
         private final long id; // PK immutable
-        private String name;
-        private String phone; // UNIQUE ( mutable)
-        private String email;
+        private final String name;
+        private final String phone; // UNIQUE
+        private final String email;
 
         public Contact( long id, String name, String phone, String email) {
             this.id = id;
@@ -239,83 +323,210 @@ public class ContactBookApp {
         public String getPhone() {return phone;}
         public String getEmail() {return email;}
 
-        public void setName(String name) {this.name = name;}
-        public void setPhone(String phone) {this.phone = phone;}
-        public void setEmail(String email) {this.email = email;}
-
         public String pretty() {
+            return appendPretty(new StringBuilder(80)).toString();
+        }
+
+        // same as pretty, into a reused builder
+        public StringBuilder appendPretty(StringBuilder sb) {
             String emailPart = (email == null || email.isBlank()) ? "(no email)" : email;
-            return String.format("%d | %s | %s | %s", id, name, phone, emailPart);
+            return sb.append(id).append(" | ").append(name).append(" | ").append(phone).append(" | ").append(emailPart);
         }
     }
 
-    static class ContactBookService {
-        private final Map<Long, Contact> byID = new HashMap<>();
-        private final Map<String, Long> phoneIndex = new HashMap<>();
-        private long nextID = 1L;
-
-       public Contact add(String name, String phone, String email) {
-           if(phoneIndex.containsKey(phone)) return null;
-           long id = nextID++;
-           Contact c = new Contact(id, name, phone, email);
-           byID.put(id, c);
-           phoneIndex.put(phone, id);
-           return c;
+    /*
+     * Methods are synchronized: the store is not thread-safe, and close (from the shutdown
+     * hook) must wait for a write in progress. Reads and writes after close throw
+     * IllegalStateException (the store's files are unmapped then).
+     */
+    static class ContactBookService implements Closeable {
+        private static final int STREAM_PAGE = 1024; // contacts a stream reads per lock
+
+        private final ContactStore store; // contacts, by id, by phone and in name order
+        // in memory, built from the store on first use so opening stays instant
+        private PhoneTrie phoneIndex; // phone -> id, for prefix searches
+        private TrigramIndex<Long, Long> nameTrigrams; // typo-tolerant name search, only once it is used
+        private boolean closed;
+
+        // contacts in a temporary directory, gone when the JVM exits
+        ContactBookService() {
+            this(ContactStore.temporary());
+        }
+
+        ContactBookService(ContactStore store) {
+            this.store = store;
+        }
+
+        public synchronized int size() {
+            checkOpen();
+            return store.size();
+        }
+
+       public synchronized Contact add(String name, String phone, String email) {
+           checkOpen();
+           long id = store.add(name, phone, email);
+           if(id < 0) return null;
+           if(phoneIndex != null) phoneIndex.put(phone, id);
+           if(nameTrigrams != null) nameTrigrams.put(id, name, id);
+           return new Contact(id, name, phone, email);
        }
 
-       public Contact findById(long id) {
-           return byID.get(id);
+       public synchronized Contact findById(long id) {
+           checkOpen();
+           return store.get(id);
        }
 
-       public Contact  findByPhone(String phone) {
-           Long id = phoneIndex.get(phone);
-           return (id == null) ? null : byID.get(id);
+       public synchronized Contact  findByPhone(String phone) {
+           checkOpen();
+           long id = store.idByPhone(phone);
+           return (id < 0) ? null : store.get(id);
        }
 
-        public boolean deleteById(long id) {
-           Contact c = byID.remove(id);
-            if (c == null) return false;
-            phoneIndex.remove(c.getPhone());
+        public synchronized boolean deleteById(long id) {
+            checkOpen();
+            Contact c = phoneIndex != null ? store.get(id) : null;
+            if (!store.delete(id)) return false;
+            if(phoneIndex != null) phoneIndex.remove(c.getPhone());
+            if(nameTrigrams != null) nameTrigrams.remove(id);
             return true;
         }
 
-        public boolean update( long id, String newName, String newPhone, String newEmail) {
-            Contact c = byID.get(id);
+        // blank fields keep their value; nothing changes when the new phone is taken
+        public synchronized boolean update( long id, String newName, String newPhone, String newEmail) {
+            checkOpen();
+            Contact c = store.get(id);
             if (c == null) return false;
-            if(newName != null && !newName.isBlank()) c.setName(newName);
+            String name = c.getName();
+            String phone = c.getPhone();
+            String email = c.getEmail();
+            if(newName != null && !newName.isBlank()) name = newName;
             if(newEmail != null && !newEmail.isBlank()) {
                 // validate if provided
-                if(!isEmailLike(newEmail)) {
+                if(!Validators.isEmailLike(newEmail)) {
                     System.out.println("Invalid email format. Keeping previous email.");
                 } else {
-                    c.setEmail(newEmail);
+                    email = newEmail;
                 }
             }
-            if(newPhone != null && !newPhone.isBlank()) {
-                // UNIQUE check
-                Long existingID = phoneIndex.get(newPhone);
-                if (existingID != null && existingID != id) return false;
+            if(newPhone != null && !newPhone.isBlank()) phone = newPhone;
+            // UNIQUE check in the store, which also re-indexes the name
+            if(!store.update(id, name, phone, email)) return false;
 
-                // re-index
+            // re-index
+            if(phoneIndex != null && !phone.equals(c.getPhone())) {
                 phoneIndex.remove(c.getPhone());
-                c.setPhone(newPhone);
-                phoneIndex.put(newPhone, id);
+                phoneIndex.put(phone, id);
             }
+            if(nameTrigrams != null && !name.equals(c.getName())) nameTrigrams.put(id, name, id);
             return true;
         }
 
-        public List<Contact> listAllSortedByName() {
-            return byID.values().stream()
-                    .sorted(Comparator.comparing(Contact::getName, String.CASE_INSENSITIVE_ORDER))
-                    .collect(Collectors.toList());
+        // contacts whose phone starts with the prefix (e.g. "+3069"), in phone order
+        public synchronized List<Contact> searchByPhonePrefix(String prefix, int limit) {
+            checkOpen();
+            long[] ids = phoneIndex().startingWith(prefix, limit);
+            List<Contact> res = new ArrayList<>(ids.length);
+            for(long id : ids) res.add(store.get(id));
+            return res;
+        }
+
+        // calling codes are prefix-free, so this is a prefix search on "+code"
+        public List<Contact> listByCountryCode(String code, int limit) {
+            return searchByPhonePrefix("+" + code, limit);
+        }
+
+        public synchronized List<Contact> listAllSortedByName() {
+            checkOpen();
+            return contacts(store.idsByName(""), Integer.MAX_VALUE);
+        }
+
+        /*
+         * Every contact in name order, read lazily a page at a time (listPageSortedByName, under
+         * the lock), so memory stays at one page whatever the size. Changes between two pages
+         * show up as they do for pages: a contact renamed meanwhile may be seen twice or not at all.
+         */
+        public Stream<Contact> streamAllSortedByName() {
+            Iterator<Contact> contacts = new Iterator<>() {
+                Iterator<Contact> page = Collections.emptyIterator();
+                String cursor;
+                boolean last;
+
+                @Override
+                public boolean hasNext() {
+                    while(!page.hasNext() && !last) {
+                        Page<Contact> p = listPageSortedByName(cursor, STREAM_PAGE);
+                        page = p.getItems().iterator();
+                        cursor = p.getNextCursor();
+                        last = cursor == null;
+                    }
+                    return page.hasNext();
+                }
+
+                @Override
+                public Contact next() {
+                    if(!hasNext()) throw new NoSuchElementException();
+                    return page.next();
+                }
+            };
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(contacts, Spliterator.ORDERED), false);
         }
 
-        public List<Contact> searchByNamePrefix(String prefix) {
-            String p = prefix.toLowerCase();
-            return byID.values().stream()
-                    .filter(c -> c.getName().toLowerCase().startsWith(p))
-                    .sorted(Comparator.comparing(Contact::getName, String.CASE_INSENSITIVE_ORDER))
-                    .collect(Collectors.toList());
+        // one page in name order: null cursor for the first page, then the previous page's next cursor
+        public synchronized Page<Contact> listPageSortedByName(String cursor, int limit) {
+            checkOpen();
+            Page<Long> ids = store.idsByNamePage("", cursor, limit);
+            List<Contact> items = new ArrayList<>(ids.getItems().size());
+            for(long id : ids.getItems()) items.add(store.get(id));
+            return new Page<>(items, ids.getNextCursor());
+        }
+
+        // already in name order, nothing is sorted or lowercased per contact
+        public synchronized List<Contact> searchByNamePrefix(String prefix) {
+            checkOpen();
+            return contacts(store.idsByName(prefix), Integer.MAX_VALUE);
+        }
+
+        // any word of the name, misspellings included; best matches first
+        public synchronized List<Contact> searchByNameFuzzy(String text, int limit) {
+            checkOpen();
+            List<Long> ids = nameTrigrams().search(text, limit);
+            return contacts(ids.iterator(), ids.size());
+        }
+
+        /** Waits for a write in progress, then closes the store (see ContactStore.close). */
+        @Override
+        public synchronized void close() {
+            if(closed) return;
+            closed = true;
+            store.close();
+        }
+
+        private void checkOpen() {
+            if(closed) throw new IllegalStateException("Contact book is closed");
+        }
+
+        private List<Contact> contacts(Iterator<Long> ids, int limit) {
+            List<Contact> res = new ArrayList<>();
+            while(res.size() < limit && ids.hasNext()) res.add(store.get(ids.next()));
+            return res;
+        }
+
+        private PhoneTrie phoneIndex() {
+            if(phoneIndex == null) {
+                PhoneTrie trie = new PhoneTrie();
+                store.forEach(c -> trie.put(c.getPhone(), c.getId()));
+                phoneIndex = trie;
+            }
+            return phoneIndex;
+        }
+
+        private TrigramIndex<Long, Long> nameTrigrams() {
+            if(nameTrigrams == null) {
+                TrigramIndex<Long, Long> index = new TrigramIndex<>();
+                store.forEach(c -> index.put(c.getId(), c.getName(), c.getId()));
+                nameTrigrams = index;
+            }
+            return nameTrigrams;
         }
     }
 }
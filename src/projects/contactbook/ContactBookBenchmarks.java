@@ -0,0 +1,89 @@
+package projects.contactbook;
+
+import projects.bench.Microbench.Case;
+import projects.bench.Microbench.Fixture;
+
+import java.util.List;
+
+/**
+ * ContactBookService cases for projects.bench.Microbench (here because the service is
+ * package-private). A fixture of size n has n contacts, ids 1..n, phones +30690xxxxxxx.
+ */
+public final class ContactBookBenchmarks {
+    private static final String[] FIRST = {"Anna", "Nikos", "Maria", "John", "Eleni", "Peter", "Sofia", "Kostas", "Laura", "Marco"};
+    private static final String[] SYLLABLES = {"pa", "do", "ni", "ko", "la", "mi", "ros", "gia", "tri", "ou",
+            "an", "ve", "sta", "ke", "li", "mo", "ra", "the", "zo", "ba"};
+    private static final String[] PREFIXES = {"Anna Pa", "Ko", "Maria Nido", "Pet", "Laura Rosgia"};
+    private static final String[] TYPOS = {"padonikou", "nikolau", "rosgiatri", "elen kolami", "marko lamiros"};
+
+    private ContactBookBenchmarks() {}
+
+    public static List<Case> cases() {
+        return List.of(
+                new Case("contacts.add", n -> {
+                    ContactBookApp.ContactBookService s = service(n);
+                    int[] next = {n};
+                    return i -> {
+                        int k = next[0]++;
+                        return s.add(name(k), phone(k), "") == null ? 0 : 1;
+                    };
+                }),
+                new Case("contacts.findById", n -> {
+                    ContactBookApp.ContactBookService s = service(n);
+                    return i -> s.findById(1 + i % n).getId();
+                }),
+                new Case("contacts.findByPhone", n -> {
+                    ContactBookApp.ContactBookService s = service(n);
+                    String[] phones = new String[n];
+                    for(int k = 0; k < n; k++) phones[k] = phone(k);
+                    return i -> s.findByPhone(phones[i % n]).getId();
+                }),
+                new Case("contacts.searchByNamePrefix", n -> {
+                    ContactBookApp.ContactBookService s = service(n);
+                    return i -> s.searchByNamePrefix(PREFIXES[i % PREFIXES.length]).size();
+                }),
+                new Case("contacts.searchByPhonePrefix", n -> {
+                    ContactBookApp.ContactBookService s = service(n);
+                    return i -> s.searchByPhonePrefix("+306901" + (i % 10), 10).size();
+                }),
+                new Case("contacts.searchByNameFuzzy", n -> {
+                    ContactBookApp.ContactBookService s = service(n);
+                    return i -> s.searchByNameFuzzy(TYPOS[i % TYPOS.length], 10).size();
+                }),
+                // a rename re-indexes the name (prefix and trigram indexes); renames alternate so the size stays put
+                new Case("contacts.update", n -> {
+                    ContactBookApp.ContactBookService s = service(n);
+                    return new Fixture() {
+                        int round;
+
+                        @Override
+                        public void beforeIteration(int maxOps) {
+                            round++;
+                        }
+
+                        @Override
+                        public long run(int i) {
+                            int k = i % n;
+                            return s.update(k + 1, name(k + round + i / n), null, "c" + k + "@example.com") ? 1 : 0;
+                        }
+                    };
+                }));
+    }
+
+    static ContactBookApp.ContactBookService service(int n) {
+        ContactBookApp.ContactBookService s = new ContactBookApp.ContactBookService();
+        for(int k = 0; k < n; k++) s.add(name(k), phone(k), "");
+        return s;
+    }
+
+    // 10 first names x 8000 three-syllable surnames
+    private static String name(int k) {
+        int s = k / FIRST.length;
+        String last = SYLLABLES[s % 20] + SYLLABLES[s / 20 % 20] + SYLLABLES[s / 400 % 20];
+        return FIRST[k % FIRST.length] + " " + Character.toUpperCase(last.charAt(0)) + last.substring(1);
+    }
+
+    private static String phone(int k) {
+        return String.format("+30690%07d", k);
+    }
+}
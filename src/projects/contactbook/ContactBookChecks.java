@@ -0,0 +1,148 @@
+package projects.contactbook;
+
+import projects.bench.Checks.Check;
+import projects.common.Page;
+import projects.common.PrefixIndex;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static projects.bench.Checks.expect;
+import static projects.bench.Checks.firstDifference;
+
+/**
+ * ContactBookService checks for projects.bench.Checks (here because the service is
+ * package-private): the name index lists and searches what a sorted model holds, also
+ * across reopening the store (clean, and after it was left open).
+ */
+public final class ContactBookChecks {
+    private static final String[] PARTS = {"an", "An", "\u00c4N", "na", "b", "Bo", "b\u00f6", " ", "-"};
+
+    private ContactBookChecks() {}
+
+    public static List<Check> checks() {
+        return List.of(new Check("contacts.nameIndex.model", ContactBookChecks::nameIndexModel));
+    }
+
+    // ------------------------------ NAME INDEX ------------------------------------------
+
+    // random adds, renames and deletes; listing, paging and prefix search compared with a TreeMap
+    // keyed the way the index sorts (folded name, then id), so equal names keep a stable order.
+    // Four runs on one directory: the first starts empty, the second on the index the first
+    // closed with, the third is left open (as by a crash), so the fourth rebuilds the index
+    private static void nameIndexModel() throws IOException {
+        SplittableRandom rnd = new SplittableRandom(3);
+        TreeMap<String, Long> model = new TreeMap<>();
+        Map<Long, String> names = new HashMap<>();
+        Path dir = Files.createTempDirectory("contact-check");
+        try {
+            int phone = 0;
+            for(int run = 0; run < 4; run++) {
+                ContactBookApp.ContactBookService service = new ContactBookApp.ContactBookService(ContactStore.open(dir, false));
+                sameListing(service, model);
+                phone = randomChanges(service, rnd, model, names, phone, 6_000);
+                if(run != 2) closeWhileStreaming(service, model.size());
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for(Path f : files.toList()) Files.delete(f);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    // reads after close, including the rest of a stream started before it, fail instead of touching unmapped files
+    private static void closeWhileStreaming(ContactBookApp.ContactBookService service, int size) {
+        Iterator<ContactBookApp.Contact> stream = service.streamAllSortedByName().iterator();
+        expect(stream.hasNext() == (size > 0), "stream before close");
+        service.close();
+        expectClosed(() -> service.findById(1), "findById");
+        expectClosed(service::size, "size");
+        expectClosed(() -> service.listPageSortedByName(null, 10), "a page");
+        if(size > 1024) expectClosed(() -> stream.forEachRemaining(c -> {}), "the rest of a stream");
+    }
+
+    private static void expectClosed(Runnable read, String what) {
+        try {
+            read.run();
+        } catch (IllegalStateException e) {
+            return;
+        }
+        throw new IllegalStateException(what + " after close did not fail");
+    }
+
+    // returns the next unused phone number
+    private static int randomChanges(ContactBookApp.ContactBookService service, SplittableRandom rnd,
+                                     TreeMap<String, Long> model, Map<Long, String> names, int phone, int changes) {
+        for(int i = 0; i < changes; i++) {
+            String name = randomName(rnd);
+            int dice = rnd.nextInt(10);
+            if(dice < 5 || names.isEmpty()) {
+                ContactBookApp.Contact c = service.add(name, String.format("+30690%07d", phone++), "");
+                model.put(PrefixIndex.key(name, Long.toString(c.getId())), c.getId());
+                names.put(c.getId(), name);
+            } else {
+                long id = 1 + rnd.nextInt(phone);
+                String old = names.get(id);
+                if(dice < 8) {
+                    expect(service.update(id, name, null, null) == (old != null), "update " + id);
+                    if(old == null) continue;
+                    model.remove(PrefixIndex.key(old, Long.toString(id)));
+                    model.put(PrefixIndex.key(name, Long.toString(id)), id);
+                    names.put(id, name);
+                } else {
+                    expect(service.deleteById(id) == (old != null), "delete " + id);
+                    if(old == null) continue;
+                    model.remove(PrefixIndex.key(old, Long.toString(id)));
+                    names.remove(id);
+                }
+            }
+            if(i % 50 == 0) {
+                String prefix = randomName(rnd);
+                prefix = prefix.substring(0, rnd.nextInt(Math.min(prefix.length(), 4) + 1));
+                String p = PrefixIndex.fold(prefix);
+                List<Long> expected = new ArrayList<>(model.subMap(p, p + Character.MAX_VALUE).values());
+                sameIds(expected, service.searchByNamePrefix(prefix), "prefix \"" + prefix + "\"");
+            }
+            if(i % 2_000 == 0) sameListing(service, model);
+        }
+        sameListing(service, model);
+        return phone;
+    }
+
+    // the whole listing, the same again page by page, and the lazy stream
+    private static void sameListing(ContactBookApp.ContactBookService service, TreeMap<String, Long> model) {
+        List<Long> expected = new ArrayList<>(model.values());
+        sameIds(expected, service.listAllSortedByName(), "listing");
+        List<ContactBookApp.Contact> paged = new ArrayList<>();
+        Page<ContactBookApp.Contact> page = service.listPageSortedByName(null, 97);
+        paged.addAll(page.getItems());
+        while(page.hasMore()) {
+            page = service.listPageSortedByName(page.getNextCursor(), 97);
+            expect(!page.getItems().isEmpty(), "empty page before the end");
+            paged.addAll(page.getItems());
+        }
+        sameIds(expected, paged, "pages");
+        sameIds(expected, service.streamAllSortedByName().toList(), "stream");
+        expect(service.size() == model.size(), "size " + service.size() + ", expected " + model.size());
+    }
+
+    private static void sameIds(List<Long> expected, List<ContactBookApp.Contact> contacts, String what) {
+        List<String> e = new ArrayList<>(expected.size());
+        for(long id : expected) e.add(Long.toString(id));
+        List<String> a = new ArrayList<>(contacts.size());
+        for(ContactBookApp.Contact c : contacts) a.add(Long.toString(c.getId()));
+        String diff = firstDifference(e, a);
+        expect(diff == null, what + ": " + diff);
+    }
+
+    // few distinct parts in mixed case, so names collide, share prefixes and fold together
+    private static String randomName(SplittableRandom rnd) {
+        StringBuilder sb = new StringBuilder();
+        for(int n = 1 + rnd.nextInt(4); n > 0; n--) sb.append(PARTS[rnd.nextInt(PARTS.length)]);
+        return sb.toString().isBlank() ? "x" + sb : sb.toString();
+    }
+}
@@ -0,0 +1,631 @@
+package projects.contactbook;
+
+import projects.common.Page;
+import projects.common.PhoneTrie;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Contacts on disk, in memory-mapped files of one directory:
+ * - contacts.dat  fixed 128-byte slots, slot 0 is the header
+ * - overflow.dat  names and emails too long for their slot, appended
+ * - ids.idx       contact id -> slot, an int per id
+ * - phones.idx    normalized phone -> slot, an open-addressing hash table
+ * - names.idx, names.dat  ids in name order (NameIndex)
+ * Opening only maps the files; a lookup reads the slot straight from the mapping.
+ *
+ * Slot layout:
+ *  0 id (0 = free, a free slot keeps the next free slot at 16) | 8 version | 12 CRC-32C of the rest
+ * 16 phone key (PhoneTrie.numberKey) | 24 phone: length + 23 ASCII bytes | 48 name | 92 email
+ * The name (email) field is a length plus 40 (32) bytes of UTF-8; a longer text goes to
+ * overflow.dat, the length is negated and the field holds its offset there instead.
+ *
+ * Crash safety: a live slot is never written. An update writes the new version into a free
+ * slot and then frees the old one, overflow bytes are written before the slot pointing at them,
+ * and a slot's id is written last. With durable on, each step is forced to disk before the next,
+ * so after a crash a contact is either the old or the new version, never a mix.
+ * The header and the index files are derived data: the header's clean flag is down while the
+ * store is open, and an open that finds it down rebuilds them from the slots (a scan without
+ * objects; a clean open reads nothing). Replaced overflow bytes are not reused.
+ * Not thread-safe.
+ */
+final class ContactStore implements Closeable {
+    private static final int MAGIC = 0x43424B31; // "CBK1"
+    public static final int MAX_TEXT_BYTES = 64 * 1024;
+
+    private static final int SLOT_BYTES = 128;
+    private static final int SEGMENT_SLOTS = 1 << 16;           // 8 MB of slots per mapping
+    private static final int OVERFLOW_SEGMENT = 1 << 24;        // 16 MB, a text never spans two
+    private static final int IDS_SEGMENT = 4 << 20;             // 1M ids
+
+    // header fields
+    private static final int H_MAGIC = 0;
+    private static final int H_CLEAN = 4;
+    private static final int H_NEXT_ID = 8;
+    private static final int H_SLOTS = 16;         // slots below this have been used
+    private static final int H_FREE = 24;          // first free slot, 0 = none
+    private static final int H_OVERFLOW_END = 32;
+    private static final int H_SIZE = 40;
+
+    // slot fields
+    private static final int ID = 0;
+    private static final int VERSION = 8;
+    private static final int CRC = 12;
+    private static final int PHONE_KEY = 16;
+    private static final int NEXT_FREE = 16;
+    private static final int PHONE = 24;
+    private static final int NAME = 48;
+    private static final int EMAIL = 92;
+    private static final int PHONE_BYTES = 23;
+    private static final int NAME_INLINE = 40;
+    private static final int EMAIL_INLINE = 32;
+
+    private final Path dir;
+    private final boolean durable;
+    private final Region slots;
+    private final Region overflow;
+    private final Region ids;
+    private PhoneIndex phones;
+    private final NameIndex names;
+    private final MappedByteBuffer header;
+
+    private long nextId;
+    private long slotCount;
+    private long freeHead;
+    private long overflowEnd;
+    private int size;
+
+    private final long openMillis;
+    private final boolean recovered;
+
+    private final ByteBuffer scratch = ByteBuffer.allocate(SLOT_BYTES); // a slot being written
+    private byte[] text = new byte[256];                                // a text being read
+    private final CRC32C crc = new CRC32C();
+
+    private ContactStore(Path dir, boolean durable) throws IOException {
+        long start = System.nanoTime();
+        this.dir = dir;
+        this.durable = durable;
+        Files.createDirectories(dir);
+        Path slotFile = dir.resolve("contacts.dat");
+        boolean fresh = !Files.exists(slotFile) || Files.size(slotFile) == 0;
+        slots = new Region(slotFile, SEGMENT_SLOTS * SLOT_BYTES);
+        overflow = new Region(dir.resolve("overflow.dat"), OVERFLOW_SEGMENT);
+        header = slots.segment(0);
+        if(fresh) {
+            header.putInt(H_MAGIC, MAGIC);
+            header.putLong(H_NEXT_ID, 1);
+            header.putLong(H_SLOTS, 1);
+        } else if(header.getInt(H_MAGIC) != MAGIC) {
+            throw new IOException("Not a contact store: " + slotFile);
+        }
+        recovered = !fresh && header.getInt(H_CLEAN) == 0;
+        if(recovered) {
+            // the indexes may be behind the slots
+            Files.deleteIfExists(dir.resolve("ids.idx"));
+            Files.deleteIfExists(dir.resolve("phones.idx"));
+        }
+        ids = new Region(dir.resolve("ids.idx"), IDS_SEGMENT);
+        phones = PhoneIndex.open(dir.resolve("phones.idx"), 1024);
+        nextId = header.getLong(H_NEXT_ID);
+        slotCount = header.getLong(H_SLOTS);
+        freeHead = header.getLong(H_FREE);
+        overflowEnd = header.getLong(H_OVERFLOW_END);
+        size = (int) header.getLong(H_SIZE);
+        if(recovered) recover();
+        NameIndex existing = recovered ? null : NameIndex.open(dir);
+        names = existing != null ? existing : NameIndex.rebuild(dir, namesById());
+        header.putInt(H_CLEAN, 0);
+        header.force(0, SLOT_BYTES);
+        openMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Opens (or creates) the store in dir.
+     * @param durable force every write to disk before returning (else the OS writes it back,
+     *                which survives a crash of the process but not of the machine)
+     */
+    public static ContactStore open(Path dir, boolean durable) throws IOException {
+        return new ContactStore(dir, durable);
+    }
+
+    // store in a temporary directory, removed when the JVM exits
+    static ContactStore temporary() {
+        try {
+            Path dir = Files.createTempDirectory("contact-store");
+            dir.toFile().deleteOnExit();
+            for(String f : new String[] {"contacts.dat", "overflow.dat", "ids.idx", "phones.idx", "names.idx", "names.dat"}) {
+                dir.resolve(f).toFile().deleteOnExit();
+            }
+            return new ContactStore(dir, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int size() {return size;}
+    public long getOpenMillis() {return openMillis;}
+    // true when the last run did not close the store and the indexes were rebuilt
+    public boolean wasRecovered() {return recovered;}
+
+    /**
+     * @return the new contact's id, or -1 if a contact already has that phone
+     * @throws IllegalArgumentException for an invalid phone or a text over MAX_TEXT_BYTES
+     */
+    public long add(String name, String phone, String email) {
+        long key = PhoneTrie.numberKey(phone);
+        if(phones.get(key) != 0) return -1;
+        long id = nextId++;
+        header.putLong(H_NEXT_ID, nextId);
+        int slot = write(id, 0, name, phone, key, email);
+        setSlotOf(id, slot);
+        putPhone(key, slot);
+        names.put(name, id);
+        header.putLong(H_SIZE, ++size);
+        return id;
+    }
+
+    /** @return a new Contact read from disk, or null if there is no such id */
+    public ContactBookApp.Contact get(long id) {
+        int slot = slotOf(id);
+        return slot == 0 ? null : read(slot);
+    }
+
+    /** @return the id of the contact with this phone (normalized), or -1 */
+    public long idByPhone(String phone) {
+        if(!PhoneTrie.isNormalizable(phone) || !hasDigit(phone)) return -1;
+        long slot = phones.get(PhoneTrie.numberKey(phone));
+        return slot == 0 ? -1 : slotBuffer((int) slot).getLong(slotPos((int) slot) + ID);
+    }
+
+    /**
+     * Replaces every field of the contact.
+     * @return false if there is no such id, or another contact has that phone
+     */
+    public boolean update(long id, String name, String phone, String email) {
+        int old = slotOf(id);
+        if(old == 0) return false;
+        long key = PhoneTrie.numberKey(phone);
+        long owner = phones.get(key);
+        if(owner != 0 && owner != old) return false;
+        MappedByteBuffer seg = slotBuffer(old);
+        int pos = slotPos(old);
+        long oldKey = seg.getLong(pos + PHONE_KEY);
+        String oldName = getText(seg, pos + NAME);
+        int slot = write(id, seg.getInt(pos + VERSION) + 1, name, phone, key, email);
+        setSlotOf(id, slot);
+        if(oldKey != key) phones.remove(oldKey);
+        putPhone(key, slot);
+        if(!oldName.equals(name)) {
+            names.remove(oldName, id);
+            names.put(name, id);
+        }
+        release(old);
+        return true;
+    }
+
+    /** @return false if there is no such id */
+    public boolean delete(long id) {
+        int slot = slotOf(id);
+        if(slot == 0) return false;
+        long key = slotBuffer(slot).getLong(slotPos(slot) + PHONE_KEY);
+        String name = getText(slotBuffer(slot), slotPos(slot) + NAME);
+        release(slot);
+        setSlotOf(id, 0);
+        phones.remove(key);
+        names.remove(name, id);
+        header.putLong(H_SIZE, --size);
+        return true;
+    }
+
+    /** Reads every contact, in slot order (not id order). */
+    public void forEach(Consumer<ContactBookApp.Contact> action) {
+        for(int s = 1; s < slotCount; s++) {
+            if(slotBuffer(s).getLong(slotPos(s) + ID) != 0) action.accept(read(s));
+        }
+    }
+
+    /** Ids of the contacts whose name starts with prefix (case-insensitive, "" for all), in name order, read lazily. */
+    public Iterator<Long> idsByName(String prefix) {
+        return names.ids(prefix);
+    }
+
+    /** One page of ids in name order, see PrefixIndex.page (same cursors). */
+    public Page<Long> idsByNamePage(String prefix, String cursor, int limit) {
+        return names.page(prefix, cursor, limit);
+    }
+
+    /** Forces everything to disk and marks the store as cleanly closed. */
+    @Override
+    public void close() {
+        names.flush();
+        slots.force();
+        overflow.force();
+        ids.force();
+        phones.force();
+        header.putInt(H_CLEAN, 1);
+        header.force(0, SLOT_BYTES);
+    }
+
+    // ------------------------------ SLOTS ------------------------------------------
+
+    // writes a new slot for the contact and returns it; overflow first, the id last
+    private int write(long id, int version, String name, String phone, long phoneKey, String email) {
+        byte[] phoneBytes = phone.getBytes(StandardCharsets.US_ASCII);
+        if(phoneBytes.length > PHONE_BYTES) throw new IllegalArgumentException("Phone too long: " + phone);
+        byte[] nameBytes = encode(name);
+        byte[] emailBytes = encode(email == null ? "" : email);
+        ByteBuffer b = scratch;
+        Arrays.fill(b.array(), (byte) 0);
+        b.putInt(VERSION, version);
+        b.putLong(PHONE_KEY, phoneKey);
+        b.put(PHONE, (byte) phoneBytes.length);
+        b.put(PHONE + 1, phoneBytes);
+        putText(b, NAME, NAME_INLINE, nameBytes);
+        putText(b, EMAIL, EMAIL_INLINE, emailBytes);
+        b.putLong(ID, id);
+        b.putInt(CRC, checksum(b.array()));
+
+        int slot = allocate();
+        MappedByteBuffer seg = slotBuffer(slot);
+        int pos = slotPos(slot);
+        seg.put(pos + VERSION, b.array(), VERSION, SLOT_BYTES - VERSION);
+        seg.putLong(pos + ID, id); // commits the slot
+        if(durable) seg.force(pos, SLOT_BYTES);
+        return slot;
+    }
+
+    private ContactBookApp.Contact read(int slot) {
+        MappedByteBuffer seg = slotBuffer(slot);
+        int pos = slotPos(slot);
+        int phoneLen = seg.get(pos + PHONE);
+        seg.get(pos + PHONE + 1, text(phoneLen), 0, phoneLen);
+        String phone = new String(text, 0, phoneLen, StandardCharsets.US_ASCII);
+        return new ContactBookApp.Contact(seg.getLong(pos + ID), getText(seg, pos + NAME), phone, getText(seg, pos + EMAIL));
+    }
+
+    private int allocate() {
+        int slot;
+        if(freeHead != 0) {
+            slot = (int) freeHead;
+            freeHead = slotBuffer(slot).getLong(slotPos(slot) + NEXT_FREE);
+        } else {
+            if(slotCount >= Integer.MAX_VALUE) throw new IllegalStateException("Contact store is full");
+            slot = (int) slotCount++;
+            header.putLong(H_SLOTS, slotCount);
+        }
+        header.putLong(H_FREE, freeHead);
+        return slot;
+    }
+
+    private void release(int slot) {
+        MappedByteBuffer seg = slotBuffer(slot);
+        int pos = slotPos(slot);
+        seg.putLong(pos + ID, 0);
+        if(durable) seg.force(pos, SLOT_BYTES);
+        seg.putLong(pos + NEXT_FREE, freeHead);
+        freeHead = slot;
+        header.putLong(H_FREE, freeHead);
+    }
+
+    private MappedByteBuffer slotBuffer(int slot) {
+        return slots.segment(slot / SEGMENT_SLOTS);
+    }
+
+    private static int slotPos(int slot) {
+        return (slot % SEGMENT_SLOTS) * SLOT_BYTES;
+    }
+
+    // over the whole slot except the checksum field
+    private int checksum(byte[] slot) {
+        crc.reset();
+        crc.update(slot, 0, CRC);
+        crc.update(slot, CRC + 4, SLOT_BYTES - CRC - 4);
+        return (int) crc.getValue();
+    }
+
+    // ------------------------------ TEXT ------------------------------------------
+
+    private static byte[] encode(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if(bytes.length > MAX_TEXT_BYTES) throw new IllegalArgumentException("Text too long: " + bytes.length + " bytes");
+        return bytes;
+    }
+
+    // inline when it fits, else appended to the overflow file (and forced before the slot is)
+    private void putText(ByteBuffer b, int field, int inline, byte[] bytes) {
+        if(bytes.length <= inline) {
+            b.putInt(field, bytes.length);
+            b.put(field + 4, bytes);
+            return;
+        }
+        long offset = overflowEnd;
+        if(offset / OVERFLOW_SEGMENT != (offset + bytes.length - 1) / OVERFLOW_SEGMENT) {
+            offset = (offset / OVERFLOW_SEGMENT + 1) * OVERFLOW_SEGMENT; // to the next segment
+        }
+        MappedByteBuffer seg = overflow.segment((int) (offset / OVERFLOW_SEGMENT));
+        int pos = (int) (offset % OVERFLOW_SEGMENT);
+        seg.put(pos, bytes);
+        if(durable) seg.force(pos, bytes.length);
+        overflowEnd = offset + bytes.length;
+        header.putLong(H_OVERFLOW_END, overflowEnd);
+        b.putInt(field, -bytes.length);
+        b.putLong(field + 4, offset);
+    }
+
+    private String getText(MappedByteBuffer seg, int field) {
+        int len = seg.getInt(field);
+        if(len >= 0) {
+            seg.get(field + 4, text(len), 0, len);
+        } else {
+            len = -len;
+            long offset = seg.getLong(field + 4);
+            overflow.segment((int) (offset / OVERFLOW_SEGMENT)).get((int) (offset % OVERFLOW_SEGMENT), text(len), 0, len);
+        }
+        return new String(text, 0, len, StandardCharsets.UTF_8);
+    }
+
+    private byte[] text(int len) {
+        if(len > text.length) text = new byte[Math.max(len, text.length * 2)];
+        return text;
+    }
+
+    private static boolean hasDigit(String s) {
+        for(int i = 0; i < s.length(); i++) {
+            if(s.charAt(i) >= '0' && s.charAt(i) <= '9') return true;
+        }
+        return false;
+    }
+
+    // ------------------------------ INDEXES ------------------------------------------
+
+    private int slotOf(long id) {
+        if(id <= 0 || id >= nextId) return 0;
+        long pos = 4 * id;
+        int seg = (int) (pos / IDS_SEGMENT);
+        if(seg >= ids.segments()) return 0;
+        return ids.segment(seg).getInt((int) (pos % IDS_SEGMENT));
+    }
+
+    private void setSlotOf(long id, int slot) {
+        long pos = 4 * id;
+        ids.segment((int) (pos / IDS_SEGMENT)).putInt((int) (pos % IDS_SEGMENT), slot);
+    }
+
+    private void putPhone(long key, int slot) {
+        if(phones.isFull()) phones = phones.resized(dir.resolve("phones.idx"));
+        phones.put(key, slot);
+    }
+
+    // ------------------------------ RECOVERY ------------------------------------------
+
+    /*
+     * Rebuilds the header and the indexes from the slots. A slot is live if its id is set and
+     * its checksum holds; of two live slots with one id (an update cut short) the newer version
+     * wins. Every other slot below the last live one goes back to the free list.
+     */
+    private void recover() {
+        long maxId = 0;
+        int last = 0;
+        long end = slots.segments() * (long) SEGMENT_SLOTS;
+        byte[] slot = new byte[SLOT_BYTES];
+        nextId = Math.max(nextId, 1);
+        for(int s = 1; s < end; s++) {
+            MappedByteBuffer seg = slotBuffer(s);
+            int pos = slotPos(s);
+            long id = seg.getLong(pos + ID);
+            if(id <= 0) continue;
+            seg.get(pos, slot);
+            if(checksum(slot) != seg.getInt(pos + CRC)) continue; // torn
+            maxId = Math.max(maxId, id);
+            nextId = Math.max(nextId, id + 1);
+            long p = 4 * id;
+            MappedByteBuffer idSeg = ids.segment((int) (p / IDS_SEGMENT));
+            int other = idSeg.getInt((int) (p % IDS_SEGMENT));
+            if(other != 0 && slotBuffer(other).getInt(slotPos(other) + VERSION) - seg.getInt(pos + VERSION) > 0) continue;
+            setSlotOf(id, s);
+            last = s;
+        }
+        slotCount = last + 1;
+        freeHead = 0;
+        overflowEnd = 0;
+        size = 0;
+        phones = PhoneIndex.open(dir.resolve("phones.idx"), 1024);
+        for(int s = last; s >= 1; s--) { // backwards, so the free list starts at the lowest slot
+            MappedByteBuffer seg = slotBuffer(s);
+            int pos = slotPos(s);
+            long id = seg.getLong(pos + ID);
+            if(id <= 0 || slotOf(id) != s) {
+                seg.putLong(pos + ID, 0);
+                seg.putLong(pos + NEXT_FREE, freeHead);
+                freeHead = s;
+                continue;
+            }
+            size++;
+            putPhone(seg.getLong(pos + PHONE_KEY), s);
+            overflowEnd = Math.max(overflowEnd, textEnd(seg, pos + NAME));
+            overflowEnd = Math.max(overflowEnd, textEnd(seg, pos + EMAIL));
+        }
+        header.putLong(H_NEXT_ID, nextId);
+        header.putLong(H_SLOTS, slotCount);
+        header.putLong(H_FREE, freeHead);
+        header.putLong(H_OVERFLOW_END, overflowEnd);
+        header.putLong(H_SIZE, size);
+        slots.force();
+        ids.force();
+        phones.force();
+    }
+
+    // for a new name index; every name on the heap for the time it takes to sort them
+    private Map<Long, String> namesById() {
+        Map<Long, String> res = new HashMap<>(size * 2);
+        forEach(c -> res.put(c.getId(), c.getName()));
+        return res;
+    }
+
+    private static long textEnd(MappedByteBuffer seg, int field) {
+        int len = seg.getInt(field);
+        return len >= 0 ? 0 : seg.getLong(field + 4) - len;
+    }
+
+    // ------------------------------ FILES ------------------------------------------
+
+    // a file mapped in fixed-size segments, grown by a segment at a time
+    static final class Region {
+        private final Path file;
+        private final int segmentBytes;
+        private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+        Region(Path file, int segmentBytes) throws IOException {
+            this.file = file;
+            this.segmentBytes = segmentBytes;
+            long bytes = Files.exists(file) ? Files.size(file) : 0;
+            for(int n = 0; n < (bytes + segmentBytes - 1) / segmentBytes; n++) segment(n);
+        }
+
+        int segments() {return segments.length;}
+
+        // mapping segment n, the file grows to hold it if needed
+        MappedByteBuffer segment(int n) {
+            if(n < segments.length) return segments[n];
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer[] grown = Arrays.copyOf(segments, n + 1);
+                for(int i = segments.length; i <= n; i++) {
+                    // the mapping stays valid after the channel is closed
+                    grown[i] = ch.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentBytes, segmentBytes);
+                }
+                segments = grown;
+                return segments[n];
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void force() {
+            for(MappedByteBuffer seg : segments) seg.force();
+        }
+    }
+
+    /*
+     * Open addressing with linear probing, 16 bytes an entry: phone key (0 = empty,
+     * -1 = deleted) and slot. Header: live and used (live + deleted) entries. Grown (or
+     * cleaned of deleted entries) by rebuilding into a new file renamed over the old one.
+     */
+    private static final class PhoneIndex {
+        private static final int HEADER = 16;
+        private static final long EMPTY = 0;
+        private static final long DELETED = -1;
+
+        private final MappedByteBuffer table;
+        private final int mask;
+        private int live;
+        private int used;
+
+        private PhoneIndex(MappedByteBuffer table, int capacity) {
+            this.table = table;
+            this.mask = capacity - 1;
+            this.live = table.getInt(0);
+            this.used = table.getInt(4);
+        }
+
+        // the existing file, or a new one of the given capacity (a power of two)
+        static PhoneIndex open(Path file, int capacity) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                if(ch.size() > HEADER) capacity = (int) ((ch.size() - HEADER) / 16);
+                return new PhoneIndex(ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + 16L * capacity), capacity);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        long get(long key) {
+            for(int i = home(key); ; i = (i + 1) & mask) {
+                long k = table.getLong(HEADER + 16 * i);
+                if(k == key) return table.getLong(HEADER + 16 * i + 8);
+                if(k == EMPTY) return 0;
+            }
+        }
+
+        void put(long key, long slot) {
+            int free = -1;
+            for(int i = home(key); ; i = (i + 1) & mask) {
+                long k = table.getLong(HEADER + 16 * i);
+                if(k == key) {
+                    table.putLong(HEADER + 16 * i + 8, slot);
+                    return;
+                }
+                if(k == DELETED && free < 0) free = i;
+                if(k == EMPTY) {
+                    if(free < 0) {
+                        free = i;
+                        table.putInt(4, ++used);
+                    }
+                    table.putLong(HEADER + 16 * free + 8, slot);
+                    table.putLong(HEADER + 16 * free, key);
+                    table.putInt(0, ++live);
+                    return;
+                }
+            }
+        }
+
+        void remove(long key) {
+            for(int i = home(key); ; i = (i + 1) & mask) {
+                long k = table.getLong(HEADER + 16 * i);
+                if(k == key) {
+                    table.putLong(HEADER + 16 * i, DELETED);
+                    table.putInt(0, --live);
+                    return;
+                }
+                if(k == EMPTY) return;
+            }
+        }
+
+        // no room for one more entry under a 3/4 load
+        boolean isFull() {
+            return 4L * (used + 1) > 3L * (mask + 1);
+        }
+
+        PhoneIndex resized(Path file) {
+            int capacity = mask + 1;
+            while(4L * (live + 1) > capacity) capacity *= 2; // at most 1/4 full afterwards
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                Files.deleteIfExists(tmp);
+                PhoneIndex grown = open(tmp, capacity);
+                for(int i = 0; i <= mask; i++) {
+                    long k = table.getLong(HEADER + 16 * i);
+                    if(k != EMPTY && k != DELETED) grown.put(k, table.getLong(HEADER + 16 * i + 8));
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return grown;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void force() {
+            table.force();
+        }
+
+        private int home(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package projects.contactbook;
+
+import projects.common.MergingIterator;
+import projects.common.Page;
+import projects.common.PrefixIndex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Contact ids in name order, kept by ContactStore next to the contacts, so listing and prefix
+ * search don't need every name on the heap. Keys are PrefixIndex keys (folded name, id), so
+ * the order and the page cursors are the ones PrefixIndex gives.
+ *
+ * A sorted run on disk, memory-mapped and never changed once written, plus the changes since
+ * it was written on the heap: keys added, and ids whose run entry is stale (renamed or
+ * deleted). Reads merge the two. Once the changes pass max(MIN_CHANGES, run / 64) the run is
+ * rewritten with them, a sequential O(n) write, amortized over that many changes; close
+ * writes them too. The files are derived data like the store's other indexes: a store that
+ * was not closed properly rebuilds them from the slots (sorting every name on the heap once).
+ *   names.idx  16-byte header (magic, count), then per entry: key offset in names.dat, id
+ *   names.dat  keys: length, UTF-8 bytes (never across a segment)
+ * Not thread-safe for writers; a lazy read (ids) started before a change keeps going over
+ * the run and change set it started on.
+ */
+final class NameIndex {
+    private static final int MAGIC = 0x434E4931; // "CNI1"
+    private static final int MIN_CHANGES = 1 << 16;
+    private static final int ENTRY_BYTES = 16;
+    private static final int ENTRY_SEGMENT = ENTRY_BYTES << 20; // 1M entries per mapping
+    private static final int KEY_SEGMENT = 1 << 24;             // 16 MB
+
+    private final Path dir;
+    private Run run;
+    private NavigableMap<String, Long> added = new ConcurrentSkipListMap<>();
+    private Set<Long> dropped = ConcurrentHashMap.newKeySet();
+
+    private NameIndex(Path dir, Run run) {
+        this.dir = dir;
+        this.run = run;
+    }
+
+    /** The index in dir, or null if its files are missing (see rebuild). */
+    static NameIndex open(Path dir) throws IOException {
+        Path idx = dir.resolve("names.idx");
+        if(!Files.exists(idx) || !Files.exists(dir.resolve("names.dat"))) return null;
+        ContactStore.Region entries = new ContactStore.Region(idx, ENTRY_SEGMENT);
+        if(entries.segments() == 0 || entries.segment(0).getInt(0) != MAGIC) return null;
+        return new NameIndex(dir, new Run(entries, new ContactStore.Region(dir.resolve("names.dat"), KEY_SEGMENT)));
+    }
+
+    /** A new index in dir of the given (id, name) pairs, written at once. */
+    static NameIndex rebuild(Path dir, Map<Long, String> namesById) {
+        NameIndex index = new NameIndex(dir, Run.EMPTY);
+        for(Map.Entry<Long, String> e : namesById.entrySet()) index.added.put(key(e.getValue(), e.getKey()), e.getKey());
+        index.write();
+        return index;
+    }
+
+    void put(String name, long id) {
+        added.put(key(name, id), id);
+        if(added.size() + dropped.size() > Math.max(MIN_CHANGES, run.count >>> 6)) write();
+    }
+
+    void remove(String name, long id) {
+        if(added.remove(key(name, id)) == null) dropped.add(id);
+        if(added.size() + dropped.size() > Math.max(MIN_CHANGES, run.count >>> 6)) write();
+    }
+
+    /** Ids of the names starting with prefix (case-insensitive, "" for all), in name order, read lazily. */
+    Iterator<Long> ids(String prefix) {
+        Iterator<Map.Entry<String, Long>> entries = entries(PrefixIndex.fold(prefix), null);
+        return new Iterator<>() {
+            @Override public boolean hasNext() {return entries.hasNext();}
+            @Override public Long next() {return entries.next().getValue();}
+        };
+    }
+
+    /** One page of ids, see PrefixIndex.page; the cursors are interchangeable with its. */
+    Page<Long> page(String prefix, String cursor, int limit) {
+        Iterator<Map.Entry<String, Long>> entries = entries(PrefixIndex.fold(prefix), cursor);
+        List<Long> items = new ArrayList<>(Math.min(limit, 1024));
+        String last = null;
+        while(entries.hasNext()) {
+            Map.Entry<String, Long> e = entries.next();
+            if(items.size() >= limit) return new Page<>(items, last);
+            items.add(e.getValue());
+            last = e.getKey();
+        }
+        return new Page<>(items, null);
+    }
+
+    /** Writes the pending changes into the run and forces it to disk. */
+    void flush() {
+        if(!added.isEmpty() || !dropped.isEmpty()) write();
+        run.force();
+    }
+
+    // ------------------------------ READING ------------------------------------------
+
+    // keys starting with prefix (folded), after cursor if there is one, in order
+    private Iterator<Map.Entry<String, Long>> entries(String prefix, String cursor) {
+        String end = prefix + Character.MAX_VALUE;
+        boolean afterCursor = cursor != null && cursor.compareTo(prefix) >= 0;
+        String from = afterCursor ? cursor : prefix;
+        if(from.compareTo(end) >= 0) return Collections.emptyIterator();
+        Run r = run;
+        Set<Long> stale = dropped;
+        Iterator<Map.Entry<String, Long>> fromRun = r.entries(r.lowerBound(from, !afterCursor), end, stale);
+        Iterator<Map.Entry<String, Long>> fromHeap = added.subMap(from, !afterCursor, end, false).entrySet().iterator();
+        return new MergingIterator<>(List.of(fromRun, fromHeap), Map.Entry.comparingByKey());
+    }
+
+    private static String key(String name, long id) {
+        return PrefixIndex.key(name, Long.toString(id));
+    }
+
+    // ------------------------------ WRITING ------------------------------------------
+
+    // merges the run and the changes into new files, renamed over the old ones
+    private void write() {
+        Path idxTmp = dir.resolve("names.idx.tmp");
+        Path datTmp = dir.resolve("names.dat.tmp");
+        try {
+            Files.deleteIfExists(idxTmp);
+            Files.deleteIfExists(datTmp);
+            ContactStore.Region entries = new ContactStore.Region(idxTmp, ENTRY_SEGMENT);
+            ContactStore.Region keys = new ContactStore.Region(datTmp, KEY_SEGMENT);
+            keys.segment(0); // creates the file, also for an empty index
+            long count = 0;
+            long keyEnd = 0;
+            for(Iterator<Map.Entry<String, Long>> it = entries("", null); it.hasNext(); ) {
+                Map.Entry<String, Long> e = it.next();
+                byte[] bytes = e.getKey().getBytes(StandardCharsets.UTF_8);
+                if(keyEnd / KEY_SEGMENT != (keyEnd + 4 + bytes.length - 1) / KEY_SEGMENT) {
+                    keyEnd = (keyEnd / KEY_SEGMENT + 1) * KEY_SEGMENT; // to the next segment
+                }
+                MappedByteBuffer seg = keys.segment((int) (keyEnd / KEY_SEGMENT));
+                int pos = (int) (keyEnd % KEY_SEGMENT);
+                seg.putInt(pos, bytes.length);
+                seg.put(pos + 4, bytes);
+                long at = (count + 1) * ENTRY_BYTES;
+                MappedByteBuffer entrySeg = entries.segment((int) (at / ENTRY_SEGMENT));
+                entrySeg.putLong((int) (at % ENTRY_SEGMENT), keyEnd);
+                entrySeg.putLong((int) (at % ENTRY_SEGMENT) + 8, e.getValue());
+                keyEnd += 4 + bytes.length;
+                count++;
+            }
+            // not forced here: until close (flush) the store is marked open, and a crash rebuilds the index
+            MappedByteBuffer header = entries.segment(0);
+            header.putLong(8, count);
+            header.putInt(0, MAGIC);
+            Files.move(idxTmp, dir.resolve("names.idx"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(datTmp, dir.resolve("names.dat"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // the mappings follow the renamed files; reads that started on the old run keep it
+            run = new Run(entries, keys);
+            added = new ConcurrentSkipListMap<>();
+            dropped = ConcurrentHashMap.newKeySet();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ------------------------------ RUN ------------------------------------------
+
+    // the sorted entries on disk, read-only once written
+    private static final class Run {
+        static final Run EMPTY = new Run(null, null, 0);
+
+        final ContactStore.Region entries;
+        final ContactStore.Region keys;
+        final long count;
+
+        Run(ContactStore.Region entries, ContactStore.Region keys) {
+            this(entries, keys, entries.segment(0).getLong(8));
+        }
+
+        private Run(ContactStore.Region entries, ContactStore.Region keys, long count) {
+            this.entries = entries;
+            this.keys = keys;
+            this.count = count;
+        }
+
+        void force() {
+            if(entries == null) return;
+            keys.force();
+            entries.force();
+        }
+
+        // first entry whose key is >= from (inclusive) or > from, by binary search
+        long lowerBound(String from, boolean inclusive) {
+            long lo = 0;
+            long hi = count;
+            byte[] buf = new byte[256];
+            while(lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                int c = keyAt(mid, buf).compareTo(from);
+                if(c < 0 || (c == 0 && !inclusive)) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        // entries from index first on with keys below end, skipping the stale ids
+        Iterator<Map.Entry<String, Long>> entries(long first, String end, Set<Long> stale) {
+            return new Iterator<>() {
+                final byte[] buf = new byte[256];
+                long i = first;
+                Map.Entry<String, Long> next = advance();
+
+                private Map.Entry<String, Long> advance() {
+                    for(; i < count; i++) {
+                        String key = keyAt(i, buf);
+                        if(key.compareTo(end) >= 0) break;
+                        long id = idAt(i);
+                        if(!stale.contains(id)) {
+                            i++;
+                            return Map.entry(key, id);
+                        }
+                    }
+                    i = count;
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Map.Entry<String, Long> next() {
+                    if(next == null) throw new NoSuchElementException();
+                    Map.Entry<String, Long> e = next;
+                    next = advance();
+                    return e;
+                }
+            };
+        }
+
+        private long idAt(long i) {
+            long at = (i + 1) * ENTRY_BYTES; // after the header
+            return entries.segment((int) (at / ENTRY_SEGMENT)).getLong((int) (at % ENTRY_SEGMENT) + 8);
+        }
+
+        // the key of entry i, read through buf (a longer one gets its own array)
+        private String keyAt(long i, byte[] buf) {
+            long at = (i + 1) * ENTRY_BYTES;
+            long offset = entries.segment((int) (at / ENTRY_SEGMENT)).getLong((int) (at % ENTRY_SEGMENT));
+            MappedByteBuffer seg = keys.segment((int) (offset / KEY_SEGMENT));
+            int pos = (int) (offset % KEY_SEGMENT);
+            int len = seg.getInt(pos);
+            byte[] bytes = len <= buf.length ? buf : new byte[len];
+            seg.get(pos + 4, bytes, 0, len);
+            return new String(bytes, 0, len, StandardCharsets.UTF_8);
+        }
+    }
+}
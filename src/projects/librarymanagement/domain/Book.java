@@ -19,6 +19,12 @@ public class Book {
     public int getTotalCopies() {return totalCopies;}
 
     public String pretty(int available) {
-        return String.format("%s | %s | %s | available %d/%d", isbn, title, author, available, totalCopies);
+        return appendPretty(new StringBuilder(96), available).toString();
+    }
+
+    // same as pretty, into a reused builder
+    public StringBuilder appendPretty(StringBuilder sb, int available) {
+        return sb.append(isbn).append(" | ").append(title).append(" | ").append(author)
+                .append(" | available ").append(available).append('/').append(totalCopies);
     }
 }
@@ -7,7 +7,7 @@ public class Loan {
     private final long memberId;
     private final LocalDate loanDate;
     private final LocalDate dueDate;
-    private LocalDate returnDate;
+    private volatile LocalDate returnDate;
 
     public Loan(long id, String isbn, long memberId, LocalDate loanDate, LocalDate dueDate) {
         this.id = id;
@@ -17,17 +17,50 @@ public class Loan {
         this.dueDate = dueDate;
     }
 
+    public Loan(long id, String isbn, long memberId, LocalDate loanDate, LocalDate dueDate, LocalDate returnDate) {
+        this(id, isbn, memberId, loanDate, dueDate);
+        this.returnDate = returnDate;
+    }
+
     public long getId() {return id;}
     public String getIsbn() {return isbn;}
     public long getMemberId() {return memberId;}
+    public LocalDate getLoanDate() {return loanDate;}
     public LocalDate getDueDate() {return dueDate;}
+    public LocalDate getReturnDate() {return returnDate;}
     public boolean isActive() {return returnDate == null;}
 
-    public void markReturned(LocalDate date) {this.returnDate = date;}
+    // false if the loan was already returned (only one caller can win)
+    public synchronized boolean markReturned(LocalDate date) {
+        if(returnDate != null) return false;
+        this.returnDate = date;
+        return true;
+    }
 
     public String pretty() {
-        String status = isActive() ? "ACTIVE" : "RETURNED ON : " + returnDate;
-        return String.format("Loan#%d | ISBN = %s | member = %d | loan = %s | due = %s | %s",
-                id, isbn, memberId, loanDate, dueDate, status);
+        return appendPretty(new StringBuilder(112)).toString();
+    }
+
+    // same as pretty, into a reused builder
+    public StringBuilder appendPretty(StringBuilder sb) {
+        LocalDate returned = returnDate; // read once, another desk may be returning it
+        sb.append("Loan#").append(id).append(" | ISBN = ").append(isbn).append(" | member = ").append(memberId);
+        appendDate(sb.append(" | loan = "), loanDate);
+        appendDate(sb.append(" | due = "), dueDate);
+        if(returned == null) return sb.append(" | ACTIVE");
+        return appendDate(sb.append(" | RETURNED ON : "), returned);
+    }
+
+    // yyyy-MM-dd like LocalDate.toString, without the intermediate String
+    private static StringBuilder appendDate(StringBuilder sb, LocalDate d) {
+        int y = d.getYear();
+        if(y < 1000 || y > 9999) return sb.append(d);
+        sb.append(y).append('-');
+        int m = d.getMonthValue();
+        if(m < 10) sb.append('0');
+        sb.append(m).append('-');
+        int day = d.getDayOfMonth();
+        if(day < 10) sb.append('0');
+        return sb.append(day);
     }
 }
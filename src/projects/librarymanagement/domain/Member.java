@@ -3,7 +3,7 @@ package projects.librarymanagement.domain;
 public class Member {
     private final long id; // PK immutable
     private final String name;
-    private String email;
+    private volatile String email;
     public Member(long id, String name, String email) {
         this.id = id;
         this.name = name;
@@ -0,0 +1,381 @@
+package projects.librarymanagement.importer;
+
+import projects.common.Validators;
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.service.LibraryService;
+import projects.librarymanagement.service.LibraryService.NewMember;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Streams books or members from a file into a LibraryService.
+ * Formats: CSV (isbn,title,author,copies / name,email; optional header line; quoted fields
+ * may contain commas and "" but not line breaks) or JSON lines (one flat object per line:
+ * {"isbn":..,"title":..,"author":..,"copies":..} / {"name":..,"email":..}).
+ *
+ * Lines are read in chunks; chunks are parsed and validated in parallel (same ISBN/email
+ * rules as the console app) and then inserted in file order, one bulk call per chunk.
+ * Only a bounded number of chunks is in flight, so files of any size stream through.
+ */
+public class CatalogImporter {
+    private static final int CHUNK_LINES = 16_384;
+    private static final List<String> BOOK_KEYS = List.of("isbn", "title", "author", "copies");
+    private static final List<String> MEMBER_KEYS = List.of("name", "email");
+
+    public enum Format {
+        CSV, JSON_LINES;
+
+        // by file extension, CSV unless it looks like JSON lines
+        public static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            return name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json") ? JSON_LINES : CSV;
+        }
+    }
+
+    private final LibraryService service;
+    private final int threads;
+
+    public CatalogImporter(LibraryService service) {
+        this(service, Runtime.getRuntime().availableProcessors());
+    }
+
+    public CatalogImporter(LibraryService service, int threads) {
+        if(threads < 1) throw new IllegalArgumentException("threads must be >= 1");
+        this.service = service;
+        this.threads = threads;
+    }
+
+    public ImportReport importBooks(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importBooks(in, Format.of(file));
+        }
+    }
+
+    public ImportReport importMembers(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importMembers(in, Format.of(file));
+        }
+    }
+
+    /**
+     * Books with an ISBN seen earlier in the same input are reported as duplicates
+     * (the first one wins); books already in the catalog are counted as existing.
+     */
+    public ImportReport importBooks(BufferedReader in, Format format) throws IOException {
+        ImportReport report = new ImportReport();
+        Map<String, Long> firstLineByIsbn = new HashMap<>();
+        run(in, format, BOOK_KEYS, CatalogImporter::parseBook, report, chunk -> {
+            List<Book> fresh = new ArrayList<>(chunk.items.size());
+            for(int i = 0; i < chunk.items.size(); i++) {
+                Book b = chunk.items.get(i);
+                Long first = firstLineByIsbn.putIfAbsent(b.getIsbn(), chunk.lines[i]);
+                if(first == null) {
+                    fresh.add(b);
+                } else {
+                    report.addDuplicate();
+                    report.addProblem("line " + chunk.lines[i] + ": duplicate ISBN " + b.getIsbn() + " (first on line " + first + ")");
+                }
+            }
+            int added = service.addBooks(fresh).size();
+            report.addImported(added);
+            report.addExisting(fresh.size() - added);
+        });
+        return report;
+    }
+
+    public ImportReport importMembers(BufferedReader in, Format format) throws IOException {
+        ImportReport report = new ImportReport();
+        run(in, format, MEMBER_KEYS, CatalogImporter::parseMember, report,
+                chunk -> report.addImported(service.registerMembers(chunk.items).size()));
+        return report;
+    }
+
+    // ------------------------------ PIPELINE ------------------------------------------
+
+    private interface RecordParser<T> {
+        // the record from its fields (in key order), or IllegalArgumentException with the reason it was rejected
+        T parse(List<String> fields);
+    }
+
+    private static class Chunk<T> {
+        final List<T> items = new ArrayList<>();
+        long[] lines = new long[16]; // file line of each item
+        final List<String> problems = new ArrayList<>();
+        long records;
+        long invalid;
+
+        void add(T item, long line) {
+            if(items.size() == lines.length) lines = Arrays.copyOf(lines, lines.length * 2);
+            lines[items.size()] = line;
+            items.add(item);
+        }
+    }
+
+    // keys: the CSV column order, also the JSON keys to pick
+    private <T> void run(BufferedReader in, Format format, List<String> keys, RecordParser<T> parser,
+                         ImportReport report, Consumer<Chunk<T>> apply) throws IOException {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Deque<Future<Chunk<T>>> inFlight = new ArrayDeque<>();
+        try {
+            long lineNo = 0;
+            List<String> lines = new ArrayList<>(CHUNK_LINES);
+            long firstLine = 1;
+            String line;
+            while((line = in.readLine()) != null) {
+                lineNo++;
+                if(lineNo == 1 && format == Format.CSV && isHeader(line, keys.get(0))) {
+                    firstLine = 2;
+                    continue;
+                }
+                lines.add(line);
+                if(lines.size() == CHUNK_LINES) {
+                    submit(pool, inFlight, lines, firstLine, format, keys, parser);
+                    firstLine = lineNo + 1;
+                    lines = new ArrayList<>(CHUNK_LINES);
+                    // keep the pool busy, but don't read the whole file ahead of the inserts
+                    if(inFlight.size() >= threads * 2) drain(inFlight.removeFirst(), report, apply);
+                }
+            }
+            if(!lines.isEmpty()) submit(pool, inFlight, lines, firstLine, format, keys, parser);
+            while(!inFlight.isEmpty()) drain(inFlight.removeFirst(), report, apply);
+        } finally {
+            pool.shutdownNow();
+        }
+        report.setMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static <T> void submit(ExecutorService pool, Deque<Future<Chunk<T>>> inFlight, List<String> lines,
+                                   long firstLine, Format format, List<String> keys, RecordParser<T> parser) {
+        inFlight.addLast(pool.submit(() -> parseChunk(lines, firstLine, format, keys, parser)));
+    }
+
+    private static <T> void drain(Future<Chunk<T>> future, ImportReport report, Consumer<Chunk<T>> apply) throws IOException {
+        Chunk<T> chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed", e.getCause());
+        }
+        report.addRecords(chunk.records);
+        report.addInvalid(chunk.invalid);
+        for(String p : chunk.problems) report.addProblem(p);
+        apply.accept(chunk);
+    }
+
+    private static <T> Chunk<T> parseChunk(List<String> lines, long firstLine, Format format,
+                                           List<String> keys, RecordParser<T> parser) {
+        Chunk<T> chunk = new Chunk<>();
+        for(int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if(line.isBlank()) continue;
+            long lineNo = firstLine + i;
+            chunk.records++;
+            try {
+                List<String> fields = format == Format.CSV ? splitCsv(line) : jsonFields(line, keys);
+                chunk.add(parser.parse(fields), lineNo);
+            } catch (IllegalArgumentException e) {
+                chunk.invalid++;
+                if(chunk.problems.size() < 100) chunk.problems.add("line " + lineNo + ": " + e.getMessage());
+            }
+        }
+        return chunk;
+    }
+
+    private static boolean isHeader(String line, String firstField) {
+        String s = line.strip();
+        if(s.startsWith("\uFEFF")) s = s.substring(1); // BOM
+        return s.regionMatches(true, 0, firstField, 0, firstField.length())
+                && (s.length() == firstField.length() || s.charAt(firstField.length()) == ',');
+    }
+
+    // ------------------------------ RECORDS ------------------------------------------
+
+    private static Book parseBook(List<String> f) {
+        if(f.size() != 4) throw new IllegalArgumentException("expected isbn,title,author,copies");
+        String isbn = f.get(0) == null ? "" : f.get(0).strip();
+        if(!Validators.isIsbn(isbn)) throw new IllegalArgumentException("invalid ISBN '" + isbn + "'");
+        String title = required(f.get(1), "title");
+        String author = required(f.get(2), "author");
+        int copies;
+        try {
+            copies = Integer.parseInt(required(f.get(3), "copies"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("copies is not a number");
+        }
+        if(copies < 0) throw new IllegalArgumentException("copies must be >= 0");
+        return new Book(Validators.normalizeIsbn(isbn), title, author, copies);
+    }
+
+    private static NewMember parseMember(List<String> f) {
+        if(f.size() != 2) throw new IllegalArgumentException("expected name,email");
+        String name = required(f.get(0), "name");
+        String email = required(f.get(1), "email");
+        if(!Validators.isEmailLike(email)) throw new IllegalArgumentException("invalid email '" + email + "'");
+        return new NewMember(name, email);
+    }
+
+    private static String required(String value, String field) {
+        if(value == null || value.isBlank()) throw new IllegalArgumentException(field + " is missing");
+        String s = value.strip();
+        if(!Validators.isStorableText(s)) throw new IllegalArgumentException(field + " is longer than " + Validators.MAX_TEXT_LENGTH + " characters");
+        return s;
+    }
+
+    // ------------------------------ PARSING ------------------------------------------
+
+    // RFC 4180 style: fields may be quoted, "" is a quote inside a quoted field
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        int n = line.length();
+        while(true) {
+            sb.setLength(0);
+            if(i < n && line.charAt(i) == '"') {
+                i++;
+                while(true) {
+                    if(i >= n) throw new IllegalArgumentException("unterminated quoted field");
+                    char c = line.charAt(i++);
+                    if(c != '"') {
+                        sb.append(c);
+                    } else if(i < n && line.charAt(i) == '"') {
+                        sb.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if(i < n && line.charAt(i) != ',') throw new IllegalArgumentException("text after a quoted field");
+            } else {
+                int comma = line.indexOf(',', i);
+                int end = comma < 0 ? n : comma;
+                sb.append(line, i, end);
+                i = end;
+            }
+            fields.add(sb.toString());
+            if(i >= n) return fields;
+            i++; // the comma
+        }
+    }
+
+    // the values of the keys, in that order (missing keys become null)
+    private static List<String> jsonFields(String line, List<String> keys) {
+        Map<String, String> obj = parseJsonObject(line);
+        List<String> fields = new ArrayList<>(keys.size());
+        for(String k : keys) fields.add(obj.get(k));
+        return fields;
+    }
+
+    /**
+     * Parses one flat JSON object: string, number, boolean or null values
+     * (numbers and booleans are kept as their text, null as null). Nested values are rejected.
+     */
+    static Map<String, String> parseJsonObject(String s) {
+        JsonCursor c = new JsonCursor(s);
+        Map<String, String> res = new HashMap<>();
+        c.skipSpace();
+        c.expect('{');
+        c.skipSpace();
+        if(c.peek() == '}') {
+            c.pos++;
+        } else {
+            while(true) {
+                c.skipSpace();
+                String key = c.string();
+                c.skipSpace();
+                c.expect(':');
+                c.skipSpace();
+                res.put(key, c.value());
+                c.skipSpace();
+                char ch = c.next();
+                if(ch == '}') break;
+                if(ch != ',') throw new IllegalArgumentException("expected , or } at " + (c.pos - 1));
+            }
+        }
+        c.skipSpace();
+        if(c.pos != s.length()) throw new IllegalArgumentException("text after the JSON object");
+        return res;
+    }
+
+    private static class JsonCursor {
+        final String s;
+        int pos;
+
+        JsonCursor(String s) {this.s = s;}
+
+        char peek() {
+            if(pos >= s.length()) throw new IllegalArgumentException("unexpected end of JSON");
+            return s.charAt(pos);
+        }
+
+        char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        void expect(char c) {
+            if(next() != c) throw new IllegalArgumentException("expected " + c + " at " + (pos - 1));
+        }
+
+        void skipSpace() {
+            while(pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+        }
+
+        String value() {
+            char c = peek();
+            if(c == '"') return string();
+            if(c == '{' || c == '[') throw new IllegalArgumentException("nested values are not supported");
+            int start = pos;
+            while(pos < s.length() && ",} \t\r\n".indexOf(s.charAt(pos)) < 0) pos++;
+            String literal = s.substring(start, pos);
+            if(literal.isEmpty()) throw new IllegalArgumentException("missing value at " + start);
+            return literal.equals("null") ? null : literal;
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder sb = null; // only needed when there are escapes
+            int start = pos;
+            while(true) {
+                char c = next();
+                if(c == '"') return sb == null ? s.substring(start, pos - 1) : sb.toString();
+                if(c != '\\') {
+                    if(sb != null) sb.append(c);
+                    continue;
+                }
+                if(sb == null) sb = new StringBuilder(s.substring(start, pos - 1));
+                char e = next();
+                switch (e) {
+                    case '"', '\\', '/' -> sb.append(e);
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'u' -> {
+                        if(pos + 4 > s.length()) throw new IllegalArgumentException("bad \\u escape");
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw new IllegalArgumentException("bad \\u escape");
+                        }
+                        pos += 4;
+                    }
+                    default -> throw new IllegalArgumentException("bad escape \\" + e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package projects.librarymanagement.importer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of one bulk import: counters plus the first problems found (capped,
+ * so a badly broken file doesn't fill the heap with messages).
+ */
+public class ImportReport {
+    private static final int MAX_PROBLEMS = 100;
+
+    private long records;    // non-empty lines, header excluded
+    private long imported;
+    private long invalid;    // failed parsing or validation
+    private long duplicates; // same ISBN earlier in the same file
+    private long existing;   // ISBN already in the catalog
+    private long millis;
+    private final List<String> problems = new ArrayList<>();
+
+    void addRecords(long n) {records += n;}
+    void addImported(long n) {imported += n;}
+    void addInvalid(long n) {invalid += n;}
+    void addDuplicate() {duplicates++;}
+    void addExisting(long n) {existing += n;}
+    void setMillis(long millis) {this.millis = millis;}
+
+    void addProblem(String problem) {
+        if(problems.size() < MAX_PROBLEMS) problems.add(problem);
+    }
+
+    public long getRecords() {return records;}
+    public long getImported() {return imported;}
+    public long getInvalid() {return invalid;}
+    public long getDuplicates() {return duplicates;}
+    public long getExisting() {return existing;}
+    public long getMillis() {return millis;}
+    public List<String> getProblems() {return Collections.unmodifiableList(problems);}
+
+    public String pretty() {
+        long perSecond = millis == 0 ? records : records * 1000 / millis;
+        return String.format("%d records | imported %d | invalid %d | duplicate ISBN %d | already in catalog %d | %d ms (%d records/s)",
+                records, imported, invalid, duplicates, existing, millis, perSecond);
+    }
+}
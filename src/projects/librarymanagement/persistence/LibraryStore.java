@@ -0,0 +1,188 @@
+package projects.librarymanagement.persistence;
+
+import projects.librarymanagement.service.LibraryService;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps a LibraryService on disk: a write-ahead log of every mutation plus periodic snapshots.
+ * Directory layout:
+ * - wal-N.log        log segments, replayed in order
+ * - snapshot-N.dat   full state at the moment segment N was started (replay segments >= N on top)
+ * After a snapshot is on disk the older segments and snapshots are deleted (log truncation).
+ * Snapshot records and log records may overlap, the service's restore methods skip duplicates.
+ */
+public class LibraryStore implements Closeable {
+    private static final Pattern SEGMENT = Pattern.compile("wal-(\\d+)\\.log");
+    private static final Pattern SNAPSHOT = Pattern.compile("snapshot-(\\d+)\\.dat");
+
+    private final Path dir;
+    private final LibraryService service;
+    private final WriteAheadLog wal;
+    private final ScheduledExecutorService background;
+    private final Object snapshotLock = new Object();
+
+    private final long recoveredRecords;
+    private final long recoveryMillis;
+
+    private LibraryStore(Path dir, LibraryService service, WriteAheadLog wal, ScheduledExecutorService background,
+                         long recoveredRecords, long recoveryMillis) {
+        this.dir = dir;
+        this.service = service;
+        this.wal = wal;
+        this.background = background;
+        this.recoveredRecords = recoveredRecords;
+        this.recoveryMillis = recoveryMillis;
+    }
+
+    /** Durable on return of every mutation, a snapshot every 10 minutes. */
+    public static LibraryStore open(Path dir, LibraryService service) throws IOException {
+        return open(dir, service, 1, 0, TimeUnit.MINUTES.toMillis(10));
+    }
+
+    /**
+     * Restores the (empty) service from dir, then logs every further mutation.
+     * @param syncBatchRecords fsync at the latest once this many records wait (only with syncIntervalMillis > 0)
+     * @param syncIntervalMillis 0 = each mutation waits for its fsync, otherwise fsync on this period
+     * @param snapshotIntervalMillis 0 = snapshots only through snapshot()
+     */
+    public static LibraryStore open(Path dir, LibraryService service, int syncBatchRecords,
+                                    long syncIntervalMillis, long snapshotIntervalMillis) throws IOException {
+        Files.createDirectories(dir);
+        long start = System.nanoTime();
+
+        List<Long> segments = list(dir, SEGMENT);
+        List<Long> snapshots = list(dir, SNAPSHOT);
+        long base = snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1);
+
+        ServiceRestorer restorer = new ServiceRestorer(service);
+        long records = 0;
+        if(base > 0) records += replay(dir.resolve(snapshotName(base)), restorer);
+        for(long s : segments) {
+            if(s >= base) records += replay(dir.resolve(WriteAheadLog.segmentName(s)), restorer);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // always a fresh segment, so a torn tail of the last one is never appended to
+        long next = Math.max(base, segments.isEmpty() ? 0 : segments.get(segments.size() - 1)) + 1;
+        WriteAheadLog wal = new WriteAheadLog(dir, next, syncBatchRecords, syncIntervalMillis);
+        service.setLog(wal);
+
+        ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "library-store");
+            t.setDaemon(true);
+            return t;
+        });
+        LibraryStore store = new LibraryStore(dir, service, wal, background, records, millis);
+        store.deleteOlderThan(base); // leftovers of a crash between a snapshot and its cleanup
+        if(syncIntervalMillis > 0) {
+            background.scheduleWithFixedDelay(store::syncQuietly, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if(snapshotIntervalMillis > 0) {
+            background.scheduleWithFixedDelay(store::snapshotQuietly, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        return store;
+    }
+
+    public long getRecoveredRecords() {return recoveredRecords;}
+    public long getRecoveryMillis() {return recoveryMillis;}
+
+    /** Forces every logged mutation to disk. */
+    public void sync() throws IOException {
+        wal.sync();
+    }
+
+    /**
+     * Writes a snapshot of the current state and truncates the log behind it.
+     * Mutations keep going while the snapshot is written.
+     */
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            long segment = wal.rotate();
+            Path target = dir.resolve(snapshotName(segment));
+            Path tmp = dir.resolve(snapshotName(segment) + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                RecordWriter out = new RecordWriter(new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16));
+                service.exportState(out);
+                out.flush();
+                ch.force(true);
+            }
+            // the rename is what makes the snapshot count, a crash before it leaves only a .tmp
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            deleteOlderThan(segment);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        wal.close();
+    }
+
+    private void syncQuietly() {
+        try {
+            wal.sync();
+        } catch (IOException e) {
+            System.err.println("Write-ahead log sync failed: " + e.getMessage());
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            System.err.println("Snapshot failed: " + e.getMessage());
+        }
+    }
+
+    private void deleteOlderThan(long segment) throws IOException {
+        for(long s : list(dir, SEGMENT)) {
+            if(s < segment) Files.deleteIfExists(dir.resolve(WriteAheadLog.segmentName(s)));
+        }
+        for(long s : list(dir, SNAPSHOT)) {
+            if(s < segment) Files.deleteIfExists(dir.resolve(snapshotName(s)));
+        }
+        try (DirectoryStream<Path> tmps = Files.newDirectoryStream(dir, "*.tmp")) {
+            for(Path p : tmps) Files.deleteIfExists(p); // half-written snapshots
+        }
+    }
+
+    private static long replay(Path file, ServiceRestorer to) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            return new RecordReader(in).replayAll(to);
+        }
+    }
+
+    static String snapshotName(long segment) {
+        return String.format("snapshot-%06d.dat", segment);
+    }
+
+    // numbers of the files matching the pattern, ascending
+    private static List<Long> list(Path dir, Pattern pattern) throws IOException {
+        List<Long> res = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for(Path p : files) {
+                Matcher m = pattern.matcher(p.getFileName().toString());
+                if(m.matches()) res.add(Long.parseLong(m.group(1)));
+            }
+        }
+        res.sort(null);
+        return res;
+    }
+}
@@ -0,0 +1,102 @@
+package projects.librarymanagement.persistence;
+
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.service.LibraryMutationListener;
+
+import java.io.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the frames written by RecordWriter and replays them on a listener.
+ * Stops at the end of the stream or at the first torn/corrupt frame
+ * (e.g. the tail of a log that was being written during a crash), or one that
+ * doesn't decode. A frame is decoded completely before it reaches the listener.
+ */
+public class RecordReader {
+    private static final int MAX_PAYLOAD = 1 << 20;
+
+    private final DataInputStream in;
+    private final CRC32 crc = new CRC32();
+    private byte[] buf = new byte[256];
+    private long validBytes; // bytes of complete, checked frames read so far
+
+    public RecordReader(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    public long getValidBytes() {return validBytes;}
+
+    // false when there is no further complete record
+    public boolean next(LibraryMutationListener to) throws IOException {
+        int length;
+        int expectedCrc;
+        try {
+            length = in.readInt();
+            expectedCrc = in.readInt();
+            if(length <= 0 || length > MAX_PAYLOAD) return false;
+            if(buf.length < length) buf = new byte[Math.max(length, buf.length * 2)];
+            in.readFully(buf, 0, length);
+        } catch (EOFException e) {
+            return false;
+        }
+        crc.reset();
+        crc.update(buf, 0, length);
+        if((int) crc.getValue() != expectedCrc) return false;
+        try {
+            dispatch(new DataInputStream(new ByteArrayInputStream(buf, 0, length)), to);
+        } catch (IOException e) {
+            return false; // a frame that doesn't decode ends the log like a torn one
+        }
+        validBytes += 8 + length;
+        return true;
+    }
+
+    // replays everything that is left, returns how many records were read
+    public long replayAll(LibraryMutationListener to) throws IOException {
+        long n = 0;
+        while(next(to)) n++;
+        return n;
+    }
+
+    private static void dispatch(DataInputStream p, LibraryMutationListener to) throws IOException {
+        byte type = p.readByte();
+        switch (type) {
+            case RecordWriter.BOOK -> to.bookAdded(new Book(p.readUTF(), p.readUTF(), p.readUTF(), p.readInt()));
+            case RecordWriter.MEMBER -> to.memberRegistered(p.readLong(), p.readUTF(), emailOrNull(p.readUTF()));
+            case RecordWriter.LOAN -> to.loanCreated(readLoan(p));
+            case RecordWriter.RETURN -> to.loanReturned(p.readLong(), LocalDate.ofEpochDay(p.readInt()));
+            case RecordWriter.EMAIL -> to.memberEmailUpdated(p.readLong(), p.readUTF());
+            case RecordWriter.LOANS -> {
+                int n = p.readInt();
+                List<Loan> loans = new ArrayList<>(n);
+                for(int i = 0; i < n; i++) loans.add(readLoan(p));
+                to.loansCreated(loans);
+            }
+            case RecordWriter.RETURNS -> {
+                LocalDate returnDate = LocalDate.ofEpochDay(p.readInt());
+                long[] ids = new long[p.readInt()];
+                for(int i = 0; i < ids.length; i++) ids[i] = p.readLong();
+                to.loansReturned(ids, returnDate);
+            }
+            default -> throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    // RecordWriter writes a missing email as ""
+    private static String emailOrNull(String email) {
+        return email.isEmpty() ? null : email;
+    }
+
+    private static Loan readLoan(DataInputStream p) throws IOException {
+        long id = p.readLong();
+        String isbn = p.readUTF();
+        long memberId = p.readLong();
+        LocalDate loanDate = LocalDate.ofEpochDay(p.readInt());
+        LocalDate dueDate = LocalDate.ofEpochDay(p.readInt());
+        return new Loan(id, isbn, memberId, loanDate, dueDate);
+    }
+}
@@ -0,0 +1,160 @@
+package projects.librarymanagement.persistence;
+
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.service.LibraryMutationListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Turns library mutations into compact binary records.
+ * Frame: [int payload length][int CRC32 of payload][payload], payload starts with a type byte.
+ * Dates are stored as epoch days (int). Not thread-safe, callers lock around it.
+ * A record that fails to encode (a string over 64 KB of UTF-8) writes nothing.
+ */
+public class RecordWriter implements LibraryMutationListener {
+    static final byte BOOK = 1;
+    static final byte MEMBER = 2;
+    static final byte LOAN = 3;
+    static final byte RETURN = 4;
+    static final byte EMAIL = 5;
+    static final byte LOANS = 6;   // a borrowAll basket
+    static final byte RETURNS = 7; // a returnAll basket
+
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(128);
+    private final DataOutputStream payload = new DataOutputStream(payloadBytes);
+    private final CRC32 crc = new CRC32();
+    private long frames; // written so far
+
+    public RecordWriter(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    @Override
+    public void bookAdded(Book book) {
+        try {
+            start(BOOK);
+            payload.writeUTF(book.getIsbn());
+            payload.writeUTF(book.getTitle());
+            payload.writeUTF(book.getAuthor());
+            payload.writeInt(book.getTotalCopies());
+            frame();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void memberRegistered(long memberId, String name, String email) {
+        try {
+            start(MEMBER);
+            payload.writeLong(memberId);
+            payload.writeUTF(name);
+            payload.writeUTF(email == null ? "" : email);
+            frame();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void loanCreated(Loan loan) {
+        try {
+            start(LOAN);
+            payload.writeLong(loan.getId());
+            payload.writeUTF(loan.getIsbn());
+            payload.writeLong(loan.getMemberId());
+            payload.writeInt((int) loan.getLoanDate().toEpochDay());
+            payload.writeInt((int) loan.getDueDate().toEpochDay());
+            frame();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void loanReturned(long loanId, LocalDate returnDate) {
+        try {
+            start(RETURN);
+            payload.writeLong(loanId);
+            payload.writeInt((int) returnDate.toEpochDay());
+            frame();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void memberEmailUpdated(long memberId, String email) {
+        try {
+            start(EMAIL);
+            payload.writeLong(memberId);
+            payload.writeUTF(email);
+            frame();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // one frame for the whole basket
+    @Override
+    public void loansCreated(List<Loan> loans) {
+        try {
+            start(LOANS);
+            payload.writeInt(loans.size());
+            for(Loan loan : loans) {
+                payload.writeLong(loan.getId());
+                payload.writeUTF(loan.getIsbn());
+                payload.writeLong(loan.getMemberId());
+                payload.writeInt((int) loan.getLoanDate().toEpochDay());
+                payload.writeInt((int) loan.getDueDate().toEpochDay());
+            }
+            frame();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void loansReturned(long[] loanIds, LocalDate returnDate) {
+        try {
+            start(RETURNS);
+            payload.writeInt((int) returnDate.toEpochDay());
+            payload.writeInt(loanIds.length);
+            for(long id : loanIds) payload.writeLong(id);
+            frame();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public long getFrames() {return frames;}
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    // drops whatever a record that failed to encode left in the payload
+    private void start(byte type) throws IOException {
+        payloadBytes.reset();
+        payload.writeByte(type);
+    }
+
+    private void frame() throws IOException {
+        crc.reset();
+        crc.update(payloadBytes.toByteArray(), 0, payloadBytes.size());
+        out.writeInt(payloadBytes.size());
+        out.writeInt((int) crc.getValue());
+        payloadBytes.writeTo(out);
+        payloadBytes.reset();
+        frames++;
+    }
+}
@@ -0,0 +1,181 @@
+package projects.librarymanagement.persistence;
+
+import projects.common.Page;
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Member;
+import projects.librarymanagement.service.LibraryService;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A read replica of a ReplicationLeader's service: a LibraryService in this JVM, kept up to
+ * date by applying the leader's records through the restore methods. On a lost connection it
+ * reconnects and applies a fresh copy of the leader's state over its own (restores are
+ * idempotent), so it never has to know where it stopped.
+ *
+ * Reads have bounded staleness: the read methods below throw IllegalStateException when the
+ * replica may be missing changes older than maxStalenessMillis, so the caller can go to the
+ * leader instead. Staleness is measured against the leader's System.nanoTime(); on Linux that
+ * is CLOCK_MONOTONIC, shared by every process on the machine, so leader and followers must run
+ * on the same box (which the loopback connection requires anyway).
+ */
+public final class ReplicationFollower implements Closeable {
+    public static final long DEFAULT_MAX_STALENESS_MILLIS = 1_000;
+    private static final long RECONNECT_MILLIS = 100;
+
+    private final InetSocketAddress leader;
+    private final LibraryService replica = new LibraryService();
+    private final long maxStalenessNanos;
+    private final Thread receiver;
+    private volatile Socket socket;
+    private volatile long appliedSeq = -1; // leader records the replica holds, -1 until the first sync
+    private volatile long leaderNanos;     // leader clock when the last applied chunk was cut
+    private volatile long records;         // applied so far, state copies included
+    private volatile int syncs;            // state copies received (1 + reconnects)
+    private volatile boolean closed;
+
+    private ReplicationFollower(InetSocketAddress leader, long maxStalenessMillis) {
+        if(maxStalenessMillis <= ReplicationLeader.HEARTBEAT_MILLIS) {
+            throw new IllegalArgumentException("maxStalenessMillis must be more than the leader's heartbeat (" + ReplicationLeader.HEARTBEAT_MILLIS + " ms)");
+        }
+        this.leader = leader;
+        this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis);
+        this.receiver = new Thread(this::receiveLoop, "replication-follower");
+        this.receiver.setDaemon(true);
+    }
+
+    /** Follows the leader on localhost:port; reads are refused while the replica is more than maxStalenessMillis behind. */
+    public static ReplicationFollower connect(int leaderPort, long maxStalenessMillis) {
+        ReplicationFollower f = new ReplicationFollower(new InetSocketAddress(InetAddress.getLoopbackAddress(), leaderPort), maxStalenessMillis);
+        f.receiver.start();
+        return f;
+    }
+
+    /** Waits for the first copy of the leader's state; false on timeout. */
+    public boolean awaitSynced(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while(appliedSeq < 0) {
+            if(System.nanoTime() >= deadline || closed) return false;
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * The local copy, for reads that need no staleness check. Writes to it never reach the
+     * leader and may be overwritten by the next copy of the leader's state.
+     */
+    public LibraryService replica() {return replica;}
+
+    public long getAppliedSequence() {return appliedSeq;}
+
+    public long getAppliedRecords() {return records;}
+
+    public int getSyncs() {return syncs;}
+
+    /** How far behind the leader the replica may be; Long.MAX_VALUE before the first sync. */
+    public long stalenessNanos() {
+        if(appliedSeq < 0) return Long.MAX_VALUE;
+        return Math.max(0, System.nanoTime() - leaderNanos);
+    }
+
+    public boolean isFresh() {
+        return stalenessNanos() <= maxStalenessNanos;
+    }
+
+    // ------------------------------ READS ------------------------------------------
+
+    public List<Book> searchBooksByTitlePrefix(String prefix, int limit) {
+        return fresh().searchBooksByTitlePrefix(prefix, limit);
+    }
+
+    public List<Book> listBooksSortedByTitle() {
+        return fresh().listBooksSortedByTitle();
+    }
+
+    public Page<Book> listBooksPage(String cursor, int limit) {
+        return fresh().listBooksPage(cursor, limit);
+    }
+
+    public Book findBookByIsbn(String isbn) {
+        return fresh().findBookByIsbn(isbn);
+    }
+
+    public List<Book> searchBooks(String text, int limit) {
+        return fresh().searchBooks(text, limit);
+    }
+
+    public Member findMemberById(long memberId) {
+        return fresh().findMemberById(memberId);
+    }
+
+    public Page<Member> listMembersPage(String cursor, int limit) {
+        return fresh().listMembersPage(cursor, limit);
+    }
+
+    private LibraryService fresh() {
+        long staleness = stalenessNanos();
+        if(staleness > maxStalenessNanos) {
+            throw new IllegalStateException(appliedSeq < 0 ? "Replica has not synced with the leader yet"
+                    : "Replica is " + TimeUnit.NANOSECONDS.toMillis(staleness) + " ms behind the leader");
+        }
+        return replica;
+    }
+
+    // ------------------------------ RECEIVING ------------------------------------------
+
+    private void receiveLoop() {
+        // a copy of the state brings members back with their current email
+        ServiceRestorer apply = new ServiceRestorer(replica) {
+            @Override
+            public void memberRegistered(long memberId, String name, String email) {
+                replica.restoreMember(memberId, name, email);
+                replica.restoreMemberEmail(memberId, email);
+            }
+        };
+        byte[] buf = new byte[64 * 1024];
+        while(!closed) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.connect(leader, 10_000);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+                syncs++;
+                while(true) {
+                    long seq = in.readLong();
+                    long nanos = in.readLong();
+                    int length = in.readInt();
+                    if(length < 0) throw new IOException("Bad chunk length " + length);
+                    if(buf.length < length) buf = new byte[Math.max(length, buf.length * 2)];
+                    in.readFully(buf, 0, length);
+                    RecordReader reader = new RecordReader(new ByteArrayInputStream(buf, 0, length));
+                    records += reader.replayAll(apply);
+                    if(reader.getValidBytes() != length) throw new IOException("Corrupt chunk from the leader");
+                    if(seq != ReplicationLeader.SNAPSHOT) {
+                        leaderNanos = nanos;
+                        appliedSeq = seq;
+                    }
+                }
+            } catch (IOException e) {
+                if(closed) return;
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        Socket s = socket;
+        if(s != null) s.close();
+        receiver.interrupt();
+    }
+}
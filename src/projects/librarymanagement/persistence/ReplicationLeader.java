@@ -0,0 +1,332 @@
+package projects.librarymanagement.persistence;
+
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.domain.Member;
+import projects.librarymanagement.service.LibraryMutationListener;
+import projects.librarymanagement.service.LibraryService;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ships a service's mutations to read replicas (ReplicationFollower) over TCP on localhost.
+ * A follower that connects gets the current state first (exportState), then every record
+ * appended since it connected, in the order the leader applied them: its own mutation
+ * stream, the same frames as the write-ahead log (RecordWriter).
+ *
+ * Wire format, leader to follower, a sequence of chunks:
+ *   [long sequence][long leader System.nanoTime()][int length][length bytes of frames]
+ * sequence is the number of records the leader had appended when the chunk was cut (SNAPSHOT
+ * while the initial state is being sent); a follower that has applied a chunk holds every
+ * change the leader made before that time. An idle follower gets an empty chunk every
+ * HEARTBEAT_MILLIS, so it can tell how stale it is.
+ *
+ * Mutating threads never wait for a follower: records are copied into a per-follower backlog
+ * and a sender thread per follower writes it out. A follower whose backlog passes MAX_BACKLOG
+ * is dropped; it reconnects and starts over from a fresh state.
+ */
+public final class ReplicationLeader implements LibraryMutationListener, Closeable {
+    static final long SNAPSHOT = -1;
+    static final long HEARTBEAT_MILLIS = 10;
+    private static final int SNAPSHOT_CHUNK = 64 * 1024;
+    private static final int MAX_BACKLOG = 64 * 1024 * 1024;
+
+    private final LibraryService service;
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+
+    // guarded by appendLock
+    private final Object appendLock = new Object();
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(256);
+    private final RecordWriter writer = new RecordWriter(encoded);
+    private final List<Follower> followers = new ArrayList<>();
+    private long appendedSeq; // records appended so far
+    private int waitingSenders;
+    private volatile boolean closed;
+
+    private ReplicationLeader(LibraryService service, ServerSocket serverSocket) {
+        this.service = service;
+        this.serverSocket = serverSocket;
+        this.acceptor = new Thread(this::acceptLoop, "replication-leader-accept");
+        this.acceptor.setDaemon(true);
+    }
+
+    /** Starts shipping the service's mutations to followers connecting to localhost:port (0 picks a free one). */
+    public static ReplicationLeader start(LibraryService service, int port) throws IOException {
+        ServerSocket ss = new ServerSocket();
+        ss.setReuseAddress(true);
+        ss.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        ReplicationLeader leader = new ReplicationLeader(service, ss);
+        service.addMutationListener(leader);
+        leader.acceptor.start();
+        return leader;
+    }
+
+    public int getPort() {return serverSocket.getLocalPort();}
+
+    public long getSequence() {
+        synchronized (appendLock) {
+            return appendedSeq;
+        }
+    }
+
+    public int getFollowerCount() {
+        synchronized (appendLock) {
+            return followers.size();
+        }
+    }
+
+    // ------------------------------ MUTATIONS ------------------------------------------
+
+    @Override
+    public void bookAdded(Book book) {
+        append(1, () -> writer.bookAdded(book));
+    }
+
+    @Override
+    public void memberRegistered(long memberId, String name, String email) {
+        append(1, () -> writer.memberRegistered(memberId, name, email));
+    }
+
+    @Override
+    public void loanCreated(Loan loan) {
+        append(1, () -> writer.loanCreated(loan));
+    }
+
+    @Override
+    public void loanReturned(long loanId, LocalDate returnDate) {
+        append(1, () -> writer.loanReturned(loanId, returnDate));
+    }
+
+    @Override
+    public void memberEmailUpdated(long memberId, String email) {
+        append(1, () -> writer.memberEmailUpdated(memberId, email));
+    }
+
+    @Override
+    public void booksAdded(List<Book> books) {
+        append(books.size(), () -> {
+            for(Book b : books) writer.bookAdded(b);
+        });
+    }
+
+    @Override
+    public void membersRegistered(List<Member> members) {
+        append(members.size(), () -> {
+            for(Member m : members) writer.memberRegistered(m.getId(), m.getName(), m.getEmail());
+        });
+    }
+
+    @Override
+    public void loansCreated(List<Loan> loans) {
+        append(1, () -> writer.loansCreated(loans));
+    }
+
+    @Override
+    public void loansReturned(long[] loanIds, LocalDate returnDate) {
+        append(1, () -> writer.loansReturned(loanIds, returnDate));
+    }
+
+    /**
+     * Encodes a change and hands it to the followers. One that fails to encode (the service
+     * has applied it already) leaves nothing in encoded, and the followers, which would miss
+     * it, are dropped: they reconnect and start over from a state that has it.
+     */
+    private void append(int records, Runnable encode) {
+        synchronized (appendLock) {
+            try {
+                encode.run();
+            } catch (RuntimeException e) {
+                encoded.reset();
+                for(Follower f : followers) f.drop();
+                followers.clear();
+                throw e;
+            }
+            appended(records);
+        }
+    }
+
+    // caller holds appendLock; hands the encoded records to every follower
+    private void appended(int records) {
+        appendedSeq += records;
+        byte[] frames = followers.isEmpty() ? null : encoded.toByteArray();
+        for(int i = followers.size() - 1; i >= 0; i--) {
+            Follower f = followers.get(i);
+            f.backlog.write(frames, 0, frames.length);
+            if(f.backlog.size() > MAX_BACKLOG) {
+                followers.remove(i);
+                f.drop();
+            }
+        }
+        encoded.reset();
+        if(waitingSenders > 0) appendLock.notifyAll();
+    }
+
+    // ------------------------------ FOLLOWERS ------------------------------------------
+
+    private void acceptLoop() {
+        while(!closed) {
+            try {
+                Socket s = serverSocket.accept();
+                s.setTcpNoDelay(true);
+                Follower f = new Follower(s);
+                // registered before the state is exported, so no record falls between the two
+                synchronized (appendLock) {
+                    if(closed) {
+                        f.drop();
+                        return;
+                    }
+                    followers.add(f);
+                }
+                f.sender.start();
+            } catch (IOException e) {
+                if(!closed) System.err.println("replication accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private final class Follower {
+        private final Socket socket;
+        private final Thread sender;
+        private ByteArrayOutputStream backlog = new ByteArrayOutputStream(SNAPSHOT_CHUNK); // guarded by appendLock
+        private ByteArrayOutputStream spare = new ByteArrayOutputStream(SNAPSHOT_CHUNK);
+        private boolean dropped; // guarded by appendLock
+
+        Follower(Socket socket) {
+            this.socket = socket;
+            this.sender = new Thread(this::send, "replication-sender-" + socket.getPort());
+            this.sender.setDaemon(true);
+        }
+
+        private void send() {
+            try (socket) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), SNAPSHOT_CHUNK));
+                SnapshotWriter snapshot = new SnapshotWriter(out);
+                service.exportState(snapshot);
+                snapshot.ship(0);
+                while(true) {
+                    ByteArrayOutputStream batch;
+                    long seq;
+                    long nanos;
+                    synchronized (appendLock) {
+                        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_MILLIS);
+                        long left;
+                        while(backlog.size() == 0 && !dropped && (left = deadline - System.nanoTime()) > 0) {
+                            waitingSenders++;
+                            try {
+                                TimeUnit.NANOSECONDS.timedWait(appendLock, left);
+                            } finally {
+                                waitingSenders--;
+                            }
+                        }
+                        if(dropped) return;
+                        batch = backlog;
+                        backlog = spare;
+                        // every record appended before now is in batch
+                        seq = appendedSeq;
+                        nanos = System.nanoTime();
+                    }
+                    chunk(out, seq, nanos, batch);
+                    out.flush();
+                    // don't keep a buffer that grew for a burst
+                    spare = batch.size() > 16 * SNAPSHOT_CHUNK ? new ByteArrayOutputStream(SNAPSHOT_CHUNK) : batch;
+                    spare.reset();
+                }
+            } catch (IOException | UncheckedIOException | InterruptedException e) {
+                // follower went away or was dropped; it reconnects and starts over
+            } finally {
+                synchronized (appendLock) {
+                    followers.remove(this);
+                    dropped = true;
+                }
+            }
+        }
+
+        // caller holds appendLock
+        void drop() {
+            dropped = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+        }
+    }
+
+    private static void chunk(DataOutputStream out, long seq, long nanos, ByteArrayOutputStream frames) throws IOException {
+        out.writeLong(seq);
+        out.writeLong(nanos);
+        out.writeInt(frames.size());
+        frames.writeTo(out);
+    }
+
+    // the exported state, cut into SNAPSHOT chunks at record boundaries
+    private static final class SnapshotWriter extends RecordWriter {
+        private final ByteArrayOutputStream frames;
+        private final DataOutputStream out;
+
+        SnapshotWriter(DataOutputStream out) {
+            this(new ByteArrayOutputStream(SNAPSHOT_CHUNK + 1024), out);
+        }
+
+        private SnapshotWriter(ByteArrayOutputStream frames, DataOutputStream out) {
+            super(frames);
+            this.frames = frames;
+            this.out = out;
+        }
+
+        @Override
+        public void bookAdded(Book book) {
+            super.bookAdded(book);
+            ship(SNAPSHOT_CHUNK);
+        }
+
+        @Override
+        public void memberRegistered(long memberId, String name, String email) {
+            super.memberRegistered(memberId, name, email);
+            ship(SNAPSHOT_CHUNK);
+        }
+
+        @Override
+        public void loanCreated(Loan loan) {
+            super.loanCreated(loan);
+            ship(SNAPSHOT_CHUNK);
+        }
+
+        @Override
+        public void loanReturned(long loanId, LocalDate returnDate) {
+            super.loanReturned(loanId, returnDate);
+            ship(SNAPSHOT_CHUNK);
+        }
+
+        void ship(int minBytes) {
+            if(frames.size() == 0 || frames.size() < minBytes) return;
+            try {
+                chunk(out, SNAPSHOT, System.nanoTime(), frames);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            frames.reset();
+        }
+    }
+
+    // stays registered with the service (listeners can't be removed), appends then only count
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        synchronized (appendLock) {
+            for(Follower f : followers) f.drop();
+            followers.clear();
+            appendLock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package projects.librarymanagement.persistence;
+
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.service.LibraryMutationListener;
+import projects.librarymanagement.service.LibraryService;
+
+import java.time.LocalDate;
+
+/**
+ * Applies replayed records to a service through its restore methods
+ * (so nothing is logged again while recovering).
+ */
+public class ServiceRestorer implements LibraryMutationListener {
+    private final LibraryService service;
+
+    public ServiceRestorer(LibraryService service) {
+        this.service = service;
+    }
+
+    @Override
+    public void bookAdded(Book book) {service.restoreBook(book);}
+
+    @Override
+    public void memberRegistered(long memberId, String name, String email) {service.restoreMember(memberId, name, email);}
+
+    @Override
+    public void loanCreated(Loan loan) {service.restoreLoan(loan);}
+
+    @Override
+    public void loanReturned(long loanId, LocalDate returnDate) {service.restoreReturn(loanId, returnDate);}
+
+    @Override
+    public void memberEmailUpdated(long memberId, String email) {service.restoreMemberEmail(memberId, email);}
+}
@@ -0,0 +1,218 @@
+package projects.librarymanagement.persistence;
+
+import projects.librarymanagement.service.LibraryMutationListener;
+import projects.librarymanagement.service.MutationLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Append-only log of library mutations, split in numbered segment files (wal-000001.log, ...).
+ * Records are framed by RecordWriter into a memory buffer; a sync writes the whole buffer
+ * to the current segment and fsyncs it once (group commit).
+ * The service appends a change before applying it (see MutationLog), so a mutation whose
+ * write or fsync fails is never visible, and the wait for the fsync holds no service lock.
+ *
+ * syncIntervalMillis == 0: every mutation waits until it is on disk. Concurrent callers
+ * share the same fsync: whoever gets the sync lock first writes everybody's records.
+ * syncIntervalMillis > 0: mutations return right away, the owner calls sync() on that period
+ * and the caller that brings the buffer to syncBatchRecords syncs inline, so at most
+ * one interval (or one batch) of records can be lost on a crash.
+ */
+public class WriteAheadLog implements MutationLog, Closeable {
+    private final Path dir;
+    private final int syncBatchRecords;
+    private final long syncIntervalMillis;
+
+    // guarded by appendLock
+    private final Object appendLock = new Object();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16);
+    private final ByteArrayOutputStream appending = new ByteArrayOutputStream(256); // the append being encoded
+    private final RecordWriter writer = new RecordWriter(appending);
+    private long appendedSeq; // records appended so far
+    private long unappliedCurrent; // appends to the current segment not applied yet
+    private long unappliedOld;     // the same for older segments (rotate waits for them)
+    private long rotatedAtSeq;     // appendedSeq when the current segment was started
+    private long segment;
+    private FileChannel channel;
+    private boolean closed;
+
+    // guarded by syncLock (only one thread writes/fsyncs the segment at a time)
+    private final Object syncLock = new Object();
+    private volatile long durableSeq; // records known to be on disk
+    private volatile IOException failure; // first failed write, the log refuses to go on after it
+
+    public WriteAheadLog(Path dir, long firstSegment, int syncBatchRecords, long syncIntervalMillis) throws IOException {
+        if(syncBatchRecords < 1) throw new IllegalArgumentException("syncBatchRecords must be >= 1");
+        if(syncIntervalMillis < 0) throw new IllegalArgumentException("syncIntervalMillis must be >= 0");
+        this.dir = dir;
+        this.syncBatchRecords = syncBatchRecords;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.segment = firstSegment;
+        this.channel = openSegment(firstSegment);
+    }
+
+    static String segmentName(long segment) {
+        return String.format("wal-%06d.log", segment);
+    }
+
+    public long getSyncIntervalMillis() {return syncIntervalMillis;}
+
+    @Override
+    public long append(Consumer<LibraryMutationListener> records) {
+        long seq;
+        synchronized (appendLock) {
+            checkOpen();
+            long before = writer.getFrames();
+            // encoded aside: a change that fails halfway leaves nothing in pending
+            try {
+                records.accept(writer);
+                appending.writeTo(pending);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // not thrown by a memory buffer
+            } finally {
+                appending.reset();
+            }
+            seq = appendedSeq += writer.getFrames() - before;
+            unappliedCurrent++;
+        }
+        return seq;
+    }
+
+    @Override
+    public void awaitDurable(long seq) {
+        if(durableSeq >= seq) return; // a sync that started after the append already wrote it
+        if(syncIntervalMillis > 0 && seq - durableSeq < syncBatchRecords) return;
+        try {
+            syncUpTo(seq);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void applied(long seq) {
+        synchronized (appendLock) {
+            if(seq > rotatedAtSeq) {
+                unappliedCurrent--;
+            } else if(--unappliedOld == 0) {
+                appendLock.notifyAll(); // rotate() waits for it
+            }
+        }
+    }
+
+    // caller holds appendLock
+    private void checkOpen() {
+        if(failure != null) throw new UncheckedIOException("Write-ahead log failed earlier", failure);
+        if(closed) throw new IllegalStateException("Write-ahead log is closed");
+    }
+
+    /** Writes and fsyncs everything appended so far. */
+    public void sync() throws IOException {
+        long seq;
+        synchronized (appendLock) {
+            seq = appendedSeq;
+        }
+        syncUpTo(seq);
+    }
+
+    private void syncUpTo(long seq) throws IOException {
+        synchronized (syncLock) {
+            if(durableSeq >= seq) return; // an earlier leader already wrote it
+            if(failure != null) throw failure;
+            byte[] batch;
+            long batchSeq;
+            FileChannel ch;
+            synchronized (appendLock) {
+                batch = pending.toByteArray();
+                pending.reset();
+                batchSeq = appendedSeq;
+                ch = channel;
+            }
+            // written outside appendLock: new records keep piling up for the next leader
+            try {
+                writeFully(ch, batch);
+                ch.force(false);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+            durableSeq = batchSeq;
+        }
+    }
+
+    /**
+     * Closes the current segment (after syncing it) and starts the next one. Returns once
+     * every change logged in the older segments is applied to the service (or rolled back),
+     * so a snapshot exported from here on holds all of them.
+     * @return the number of the new segment; every record appended before the call is in an older one
+     */
+    public long rotate() throws IOException {
+        long next;
+        synchronized (syncLock) {
+            sync();
+            synchronized (appendLock) {
+                checkOpen();
+                // nothing can be appended meanwhile, so the old segment is complete
+                if(pending.size() > 0) {
+                    writeFully(channel, pending.toByteArray());
+                    pending.reset();
+                    channel.force(false);
+                    durableSeq = appendedSeq;
+                }
+                FileChannel ch = openSegment(segment + 1);
+                channel.close();
+                channel = ch;
+                next = ++segment;
+                unappliedOld += unappliedCurrent;
+                unappliedCurrent = 0;
+                rotatedAtSeq = appendedSeq;
+            }
+        }
+        // outside syncLock: the changes being waited for may still need a sync of their own
+        synchronized (appendLock) {
+            while(unappliedOld > 0) {
+                try {
+                    appendLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for logged changes to be applied");
+                }
+            }
+        }
+        return next;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            if(closed) return;
+            try {
+                if(failure == null) sync();
+            } finally {
+                synchronized (appendLock) {
+                    closed = true;
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    private FileChannel openSegment(long n) throws IOException {
+        return FileChannel.open(dir.resolve(segmentName(n)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static void writeFully(FileChannel ch, byte[] bytes) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while(buf.hasRemaining()) ch.write(buf);
+    }
+}
@@ -0,0 +1,114 @@
+package projects.librarymanagement.server;
+
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.domain.Member;
+import projects.common.LatencyHistogram;
+import projects.librarymanagement.service.LibraryService;
+import projects.librarymanagement.service.ServiceMetrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * JSON for the server's responses (objects are written by hand, one StringBuilder per response).
+ */
+final class Json {
+    private Json() {}
+
+    static void book(StringBuilder out, Book b, int available) {
+        out.append("{\"isbn\":");
+        string(out, b.getIsbn());
+        out.append(",\"title\":");
+        string(out, b.getTitle());
+        out.append(",\"author\":");
+        string(out, b.getAuthor());
+        out.append(",\"totalCopies\":").append(b.getTotalCopies());
+        out.append(",\"available\":").append(available).append('}');
+    }
+
+    static void member(StringBuilder out, Member m, LibraryService.LoanStats stats) {
+        out.append("{\"id\":").append(m.getId());
+        out.append(",\"name\":");
+        string(out, m.getName());
+        out.append(",\"email\":");
+        string(out, m.getEmail());
+        if(stats != null) {
+            out.append(",\"totalLoans\":").append(stats.getTotal());
+            out.append(",\"activeLoans\":").append(stats.getActive());
+        }
+        out.append('}');
+    }
+
+    static void loan(StringBuilder out, Loan l) {
+        out.append("{\"id\":").append(l.getId());
+        out.append(",\"isbn\":");
+        string(out, l.getIsbn());
+        out.append(",\"memberId\":").append(l.getMemberId());
+        out.append(",\"loanDate\":\"").append(l.getLoanDate()).append('"');
+        out.append(",\"dueDate\":\"").append(l.getDueDate()).append('"');
+        out.append(",\"returnDate\":");
+        if(l.getReturnDate() == null) out.append("null");
+        else out.append('"').append(l.getReturnDate()).append('"');
+        out.append('}');
+    }
+
+    // latencies in nanoseconds
+    static void metrics(StringBuilder out, ServiceMetrics.Snapshot m) {
+        out.append("{\"takenAt\":\"").append(m.takenAt()).append("\",\"operations\":{");
+        boolean first = true;
+        for(Map.Entry<ServiceMetrics.Operation, ServiceMetrics.OperationStats> e : m.operations().entrySet()) {
+            if(!first) out.append(',');
+            first = false;
+            LatencyHistogram h = e.getValue().latency();
+            out.append('"').append(e.getKey()).append("\":{\"calls\":").append(e.getValue().calls());
+            out.append(",\"failures\":").append(e.getValue().failures());
+            out.append(",\"p50\":").append(h.percentile(0.50));
+            out.append(",\"p99\":").append(h.percentile(0.99));
+            out.append(",\"p999\":").append(h.percentile(0.999));
+            out.append(",\"max\":").append(h.max()).append('}');
+        }
+        out.append("},\"gauges\":{");
+        first = true;
+        for(Map.Entry<String, Long> e : m.gauges().entrySet()) {
+            if(!first) out.append(',');
+            first = false;
+            string(out, e.getKey());
+            out.append(':').append(e.getValue());
+        }
+        out.append("}}");
+    }
+
+    static <T> void array(StringBuilder out, List<T> items, BiConsumer<StringBuilder, T> element) {
+        out.append('[');
+        for(int i = 0; i < items.size(); i++) {
+            if(i > 0) out.append(',');
+            element.accept(out, items.get(i));
+        }
+        out.append(']');
+    }
+
+    static void string(StringBuilder out, String s) {
+        if(s == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if(c < 0x20) out.append(String.format("\\u%04x", (int) c));
+                    else out.append(c);
+                }
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,265 @@
+package projects.librarymanagement.server;
+
+import projects.common.Page;
+import projects.common.Validators;
+import projects.librarymanagement.persistence.ReplicationFollower;
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.domain.Member;
+import projects.librarymanagement.service.LibraryService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The server's text protocol: one request per line, one response line per request, in order.
+ * A request is a command and its arguments separated by single spaces; the last argument
+ * of SEARCH, TITLE and REGISTER takes the rest of the line, so it may contain spaces.
+ * A response is "OK" followed by a space and a JSON value, or "ERR" and a message.
+ *
+ *   PING                          -> OK "PONG"
+ *   BOOK isbn                     -> OK {book, with available copies}
+ *   SEARCH limit text             -> OK [books], typo-tolerant title/author search
+ *   TITLE limit prefix            -> OK [books], title prefix, in title order
+ *   BORROW isbn memberId          -> OK {loan}
+ *   RETURN loanId                 -> OK true
+ *   BORROWALL memberId isbn...    -> OK [loans], every book of the basket or none
+ *   RETURNALL loanId...           -> OK true, every loan or none
+ *   MEMBER id                     -> OK {member, with loan counts}
+ *   REGISTER email name           -> OK {member}
+ *   EMAIL id email                -> OK true
+ *   LOANS memberId                -> OK [loans]
+ *   METRICS                       -> OK {service latency percentiles (ns), call counts, gauges}
+ *
+ * and the ones a ShardedLibrary router needs from a shard:
+ *   ADDBOOK copies isbn title\tauthor -> OK {book}; title and author are separated by a tab
+ *   STATS memberId                -> OK {"total":n,"active":n}, or OK null if no loans here
+ *   DUE limit [cursor]            -> OK {"items":[loans],"next":cursor or null}, active loans
+ *                                    by due date, a page at a time (limit up to MAX_PAGE)
+ * On a shard, LOANS and STATS also answer for members of other shards (their loans of this
+ * shard's books).
+ *
+ * On a read replica (readReplica) the commands that change the library are refused, and the
+ * others are refused too while the replica is further behind its leader than its staleness bound:
+ *   REPLICA                       -> OK {"sequence":n,"stalenessMicros":n}, always answered
+ *
+ * Stateless; one instance serves every connection.
+ */
+public class LibraryProtocol {
+    public static final int MAX_RESULTS = 100;
+    public static final int MAX_PAGE = 10_000;
+    private static final Set<String> WRITES = Set.of("BORROW", "RETURN", "BORROWALL", "RETURNALL", "REGISTER", "EMAIL", "ADDBOOK");
+
+    private final LibraryService service;
+    private final ReplicationFollower replica; // null: the service is the library itself
+
+    public LibraryProtocol(LibraryService service) {
+        this(service, null);
+    }
+
+    private LibraryProtocol(LibraryService service, ReplicationFollower replica) {
+        this.service = service;
+        this.replica = replica;
+    }
+
+    // serves reads from the follower's copy
+    public static LibraryProtocol readReplica(ReplicationFollower replica) {
+        return new LibraryProtocol(replica.replica(), replica);
+    }
+
+    public String handle(String line) {
+        int space = line.indexOf(' ');
+        String command = space < 0 ? line : line.substring(0, space);
+        String args = space < 0 ? "" : line.substring(space + 1);
+        if(replica != null) {
+            String refused = replicaRefusal(command.toUpperCase());
+            if(refused != null) return refused;
+        }
+        try {
+            return switch (command.toUpperCase()) {
+                case "PING" -> "OK \"PONG\"";
+                case "BOOK" -> book(args);
+                case "SEARCH" -> search(args, true);
+                case "TITLE" -> search(args, false);
+                case "BORROW" -> borrow(args);
+                case "RETURN" -> service.returnLoan(parseLong(args)) ? "OK true" : error("loan not found or already returned");
+                case "BORROWALL" -> borrowAll(args);
+                case "RETURNALL" -> returnAll(args);
+                case "MEMBER" -> member(args);
+                case "REGISTER" -> register(args);
+                case "EMAIL" -> email(args);
+                case "LOANS" -> loans(args);
+                case "METRICS" -> metrics();
+                case "ADDBOOK" -> addBook(args);
+                case "STATS" -> stats(args);
+                case "DUE" -> due(args);
+                case "REPLICA" -> replicaStatus();
+                default -> error("unknown command " + command);
+            };
+        } catch (NumberFormatException e) {
+            return error("not a number: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return error(e.getMessage());
+        } catch (RuntimeException e) {
+            // e.g. a failed or closed log: this request fails, the connection stays open
+            return error(e.getMessage() == null ? e.toString() : e.getMessage());
+        }
+    }
+
+    private String book(String isbn) {
+        isbn = Validators.normalizeIsbn(isbn);
+        Book b = service.findBookByIsbn(isbn);
+        if(b == null) return error("no book with ISBN " + isbn);
+        StringBuilder out = new StringBuilder("OK ");
+        Json.book(out, b, service.availableCopies(isbn));
+        return out.toString();
+    }
+
+    private String search(String args, boolean fuzzy) {
+        String[] parts = split(args, 2);
+        int limit = Math.min(Math.max(Integer.parseInt(parts[0]), 0), MAX_RESULTS);
+        List<Book> books = fuzzy ? service.searchBooks(parts[1], limit) : service.searchBooksByTitlePrefix(parts[1], limit);
+        StringBuilder out = new StringBuilder("OK ");
+        Json.array(out, books, (o, b) -> Json.book(o, b, service.availableCopies(b.getIsbn())));
+        return out.toString();
+    }
+
+    private String borrow(String args) {
+        String[] parts = split(args, 2);
+        Loan loan = service.borrow(Validators.normalizeIsbn(parts[0]), parseLong(parts[1]));
+        if(loan == null) return error("loan failed (unknown ISBN or member, or no copies available)");
+        StringBuilder out = new StringBuilder("OK ");
+        Json.loan(out, loan);
+        return out.toString();
+    }
+
+    private String borrowAll(String args) {
+        String[] parts = args.trim().split(" +");
+        if(parts.length < 2) throw new IllegalArgumentException("expected a member id and at least one ISBN");
+        List<String> isbns = new ArrayList<>(parts.length - 1);
+        for(int i = 1; i < parts.length; i++) isbns.add(Validators.normalizeIsbn(parts[i]));
+        List<Loan> loans = service.borrowAll(parseLong(parts[0]), isbns);
+        if(loans == null) return error("basket failed (unknown ISBN or member, or not enough copies), nothing borrowed");
+        StringBuilder out = new StringBuilder("OK ");
+        Json.array(out, loans, Json::loan);
+        return out.toString();
+    }
+
+    private String returnAll(String args) {
+        String[] parts = args.trim().split(" +");
+        long[] ids = new long[parts.length];
+        for(int i = 0; i < parts.length; i++) ids[i] = parseLong(parts[i]);
+        return service.returnAll(ids) ? "OK true" : error("a loan was not found, already returned or listed twice, nothing returned");
+    }
+
+    private String member(String args) {
+        long id = parseLong(args);
+        Member m = service.findMemberById(id);
+        if(m == null) return error("no member with id " + id);
+        StringBuilder out = new StringBuilder("OK ");
+        Json.member(out, m, service.statsFor(id));
+        return out.toString();
+    }
+
+    private String register(String args) {
+        String[] parts = split(args, 2);
+        if(!Validators.isEmailLike(parts[0])) return error("invalid email " + parts[0]);
+        if(!Validators.isStorableText(parts[0])) return error("email is too long");
+        if(parts[1].isBlank()) return error("name is required");
+        if(!Validators.isStorableText(parts[1])) return error("name is too long");
+        Member m = service.registerMember(parts[1].trim(), parts[0]);
+        StringBuilder out = new StringBuilder("OK ");
+        Json.member(out, m, null);
+        return out.toString();
+    }
+
+    private String email(String args) {
+        String[] parts = split(args, 2);
+        if(!Validators.isEmailLike(parts[1])) return error("invalid email " + parts[1]);
+        if(!Validators.isStorableText(parts[1])) return error("email is too long");
+        return service.updateMemberEmail(parseLong(parts[0]), parts[1]) ? "OK true" : error("no member with id " + parts[0]);
+    }
+
+    private String loans(String args) {
+        long id = parseLong(args);
+        if(!service.acceptsMember(id)) return error("no member with id " + id);
+        StringBuilder out = new StringBuilder("OK ");
+        Json.array(out, service.listLoansByMember(id), Json::loan);
+        return out.toString();
+    }
+
+    private String metrics() {
+        StringBuilder out = new StringBuilder("OK ");
+        Json.metrics(out, service.metrics());
+        return out.toString();
+    }
+
+    private String addBook(String args) {
+        String[] parts = split(args, 3);
+        int tab = parts[2].indexOf('\t');
+        if(tab < 0) throw new IllegalArgumentException("expected a tab between title and author");
+        int copies = Integer.parseInt(parts[0]);
+        if(copies < 1) return error("copies must be positive");
+        if(!Validators.isIsbn(parts[1])) return error("invalid ISBN " + parts[1]);
+        String title = parts[2].substring(0, tab);
+        String author = parts[2].substring(tab + 1);
+        if(!Validators.isStorableText(title) || !Validators.isStorableText(author)) return error("title or author is too long");
+        // normalized, as a ShardedLibrary router does before it picks the book's shard
+        Book b = service.addBook(Validators.normalizeIsbn(parts[1]), title, author, copies);
+        if(b == null) return error("a book with ISBN " + parts[1] + " already exists");
+        StringBuilder out = new StringBuilder("OK ");
+        Json.book(out, b, copies);
+        return out.toString();
+    }
+
+    private String stats(String args) {
+        LibraryService.LoanStats stats = service.statsFor(parseLong(args));
+        if(stats == null) return "OK null";
+        return "OK {\"total\":" + stats.getTotal() + ",\"active\":" + stats.getActive() + "}";
+    }
+
+    private String due(String args) {
+        String[] parts = args.trim().split(" +", 2);
+        int limit = Math.min(Math.max(Integer.parseInt(parts[0]), 1), MAX_PAGE);
+        Page<Loan> page = service.listActiveLoansPage(parts.length > 1 ? parts[1] : null, limit);
+        StringBuilder out = new StringBuilder("OK {\"items\":");
+        Json.array(out, page.getItems(), Json::loan);
+        out.append(",\"next\":");
+        Json.string(out, page.getNextCursor());
+        return out.append('}').toString();
+    }
+
+    // null if a replica may answer the command now
+    private String replicaRefusal(String command) {
+        if(WRITES.contains(command)) return error("read-only replica, send writes to the leader");
+        if(command.equals("PING") || command.equals("METRICS") || command.equals("REPLICA") || replica.isFresh()) return null;
+        long staleness = replica.stalenessNanos();
+        return error(staleness == Long.MAX_VALUE ? "replica has not synced with the leader yet"
+                : "replica is " + TimeUnit.NANOSECONDS.toMillis(staleness) + " ms behind the leader");
+    }
+
+    private String replicaStatus() {
+        if(replica == null) return error("not a replica");
+        long staleness = replica.stalenessNanos();
+        return "OK {\"sequence\":" + replica.getAppliedSequence() + ",\"stalenessMicros\":"
+                + (staleness == Long.MAX_VALUE ? "null" : String.valueOf(TimeUnit.NANOSECONDS.toMicros(staleness))) + "}";
+    }
+
+    // the first n - 1 space-separated arguments, then the rest of the line
+    private static String[] split(String args, int n) {
+        String[] parts = args.split(" ", n);
+        if(parts.length < n) throw new IllegalArgumentException("expected " + n + " arguments");
+        return parts;
+    }
+
+    private static long parseLong(String s) {
+        return Long.parseLong(s.trim());
+    }
+
+    private static String error(String message) {
+        // keep the response on one line
+        return "ERR " + message.replace('\n', ' ').replace('\r', ' ');
+    }
+}
@@ -0,0 +1,189 @@
+package projects.librarymanagement.server;
+
+import projects.common.LineReader;
+import projects.librarymanagement.persistence.LibraryStore;
+import projects.librarymanagement.persistence.ReplicationFollower;
+import projects.librarymanagement.persistence.ReplicationLeader;
+import projects.librarymanagement.service.LibraryService;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * TCP front-end for a LibraryService, speaking the line protocol of LibraryProtocol.
+ * One thread per connection, virtual on JDK 21+ (so 10k+ idle or slow clients cost
+ * little), plain threads on older JDKs. A connection's requests are handled in
+ * order; clients may pipeline (send many requests before reading), the responses
+ * are buffered and flushed once no request is left in the input buffer.
+ *
+ * Run: java projects.librarymanagement.server.LibraryServer [port] [--shard i/n]
+ *        [--replicate replicationPort | --follow leaderReplicationPort]
+ * (state in ./library-data, as for LibraryApp). "QUIT" closes a connection.
+ * With --shard the server is shard i of n for a ShardedLibrary router (ids of that shard,
+ * state in ./library-data/shard-i).
+ * With --replicate it also ships its changes to read replicas (ReplicationLeader); with
+ * --follow it is one: it keeps no state of its own and answers reads only (see LibraryProtocol).
+ */
+public class LibraryServer implements Closeable {
+    public static final int DEFAULT_PORT = 7070;
+    private static final int MAX_LINE = 64 * 1024;
+    private static final int BACKLOG = 16 * 1024;
+
+    private final LibraryProtocol protocol;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = newThreadPerTaskExecutor();
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    private LibraryServer(LibraryProtocol protocol, ServerSocket serverSocket) {
+        this.protocol = protocol;
+        this.serverSocket = serverSocket;
+        this.acceptor = new Thread(this::acceptLoop, "library-server-accept");
+    }
+
+    /** Listens on the loopback interface (port 0 picks a free one). */
+    public static LibraryServer start(LibraryService service, int port) throws IOException {
+        return start(service, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    public static LibraryServer start(LibraryService service, InetSocketAddress address) throws IOException {
+        return start(new LibraryProtocol(service), address);
+    }
+
+    public static LibraryServer start(LibraryProtocol protocol, InetSocketAddress address) throws IOException {
+        ServerSocket ss = new ServerSocket();
+        ss.setReuseAddress(true);
+        ss.bind(address, BACKLOG);
+        LibraryServer server = new LibraryServer(protocol, ss);
+        server.acceptor.start();
+        return server;
+    }
+
+    public int getPort() {return serverSocket.getLocalPort();}
+
+    public int getOpenConnections() {return open.size();}
+
+    /** Blocks until the server is closed. */
+    public void awaitClose() throws InterruptedException {
+        acceptor.join();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for(Socket s : open) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+        }
+        connections.shutdown();
+    }
+
+    private void acceptLoop() {
+        while(!closed) {
+            try {
+                Socket s = serverSocket.accept();
+                open.add(s);
+                connections.execute(() -> serve(s));
+            } catch (IOException e) {
+                if(!closed) System.err.println("accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            LineReader in = new LineReader(socket.getInputStream(), MAX_LINE);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+            String line;
+            while((line = in.readLine()) != null) {
+                if(line.equalsIgnoreCase("QUIT")) break;
+                out.write(protocol.handle(line).getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+                // pipelined requests already read are answered in the same write
+                if(!in.hasBuffered()) out.flush();
+            }
+            out.flush();
+        } catch (IOException e) {
+            // client went away (or sent a line over MAX_LINE); nothing to answer
+        } finally {
+            open.remove(socket);
+        }
+    }
+
+    // one virtual thread per task on JDK 21+, a (reused) platform thread per task before that
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(null, r, "library-connection", 256 * 1024);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        int shard = 0;
+        int shardCount = 1;
+        int replicationPort = -1;
+        int leaderPort = -1;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("--shard") && i + 1 < args.length) {
+                String[] parts = args[++i].split("/");
+                shard = Integer.parseInt(parts[0]);
+                shardCount = Integer.parseInt(parts[1]);
+            } else if(args[i].equals("--replicate") && i + 1 < args.length) {
+                replicationPort = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("--follow") && i + 1 < args.length) {
+                leaderPort = Integer.parseInt(args[++i]);
+            } else {
+                port = Integer.parseInt(args[i]);
+            }
+        }
+        if(leaderPort >= 0) {
+            ReplicationFollower follower = ReplicationFollower.connect(leaderPort, ReplicationFollower.DEFAULT_MAX_STALENESS_MILLIS);
+            LibraryServer server = start(LibraryProtocol.readReplica(follower),
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            System.out.println("Library read replica listening on port " + server.getPort() + ", following localhost:" + leaderPort);
+            server.awaitClose();
+            return;
+        }
+        Path dataDir = shardCount == 1 ? Path.of("library-data") : Path.of("library-data", "shard-" + shard);
+        LibraryService service = new LibraryService(dataDir.resolve("archive"), shard, shardCount);
+        LibraryStore store = LibraryStore.open(dataDir, service);
+        ReplicationLeader leader = replicationPort >= 0 ? ReplicationLeader.start(service, replicationPort) : null;
+        LibraryServer server = start(service, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                if(leader != null) leader.close();
+                store.close();
+                service.close();
+            } catch (IOException e) {
+                System.err.println("Could not close library-data: " + e.getMessage());
+            }
+        }));
+        System.out.println("Library server listening on port " + server.getPort()
+                + (shardCount == 1 ? "" : " as shard " + shard + "/" + shardCount)
+                + (leader == null ? "" : ", replicating on port " + leader.getPort())
+                + " (restored " + store.getRecoveredRecords() + " records)");
+        server.awaitClose();
+    }
+}
@@ -0,0 +1,243 @@
+package projects.librarymanagement.server;
+
+import projects.common.LatencyHistogram;
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.service.LibraryService;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator for LibraryServer: many concurrent clients, each on its own connection and
+ * thread, sending pipelined batches of a mixed workload (book lookups, title and fuzzy
+ * searches, member lookups, borrows and returns of their own loans). Reports throughput and
+ * p50/p99/p999 latency (a request's latency runs from its batch being sent to its response).
+ *
+ *   java projects.librarymanagement.server.LoadGenerator [options]
+ *     --clients N    concurrent connections (default 10000)
+ *     --pipeline N   requests sent before reading the responses (default 8)
+ *     --seconds N    measured time (default 10), after --warmup N seconds (default 3)
+ *     --port N       use the server on localhost:N (started with --serve); default: an in-process server
+ *     --serve N      only run a server with the demo data on port N
+ *     --books N / --members N   demo data size (default 10000 each, must match the server's)
+ *
+ * A client and its server connection take a file descriptor each, so 10k clients against an
+ * in-process server need a limit above 20k; run the server with --serve in a second JVM otherwise.
+ */
+public class LoadGenerator {
+    private static final int COPIES = 5;
+    private static final String[] WORDS = {"Silent", "River", "Winter", "Garden", "Empire", "Shadow", "Island", "Memory", "Glass", "Night"};
+    private static final String[] FIRST_NAMES = {"Anna", "Nikos", "Maria", "John", "Eleni", "Peter", "Sofia", "Kostas", "Laura", "Marco"};
+    private static final String[] LAST_NAMES = {"Papadopoulos", "Tolkien", "Atwood", "Murakami", "Kazantzakis", "Rowling",
+            "Dostoevsky", "Austen", "Orwell", "Calvino", "Morrison", "Borges", "Woolf", "Pamuk", "Ishiguro"};
+
+    private final int clients;
+    private final int pipeline;
+    private final int books;
+    private final int members;
+    private final AtomicInteger failedConnections = new AtomicInteger();
+    private volatile boolean measuring;
+    private volatile boolean running = true;
+
+    private LoadGenerator(int clients, int pipeline, int books, int members) {
+        this.clients = clients;
+        this.pipeline = pipeline;
+        this.books = books;
+        this.members = members;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Integer> opt = new HashMap<>(Map.of("clients", 10_000, "pipeline", 8, "seconds", 10,
+                "warmup", 3, "books", 10_000, "members", 10_000));
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            if(!args[i].startsWith("--")) throw new IllegalArgumentException("unknown argument " + args[i]);
+            opt.put(args[i].substring(2), Integer.parseInt(args[i + 1]));
+        }
+        int books = opt.get("books");
+        int members = opt.get("members");
+        if(opt.containsKey("serve")) {
+            LibraryServer server = LibraryServer.start(demoService(books, members), opt.get("serve"));
+            System.out.println("Demo server on port " + server.getPort() + ": " + books + " books, " + members + " members");
+            server.awaitClose();
+            return;
+        }
+        LibraryServer local = null;
+        int port;
+        if(opt.containsKey("port")) {
+            port = opt.get("port");
+        } else {
+            local = LibraryServer.start(demoService(books, members), 0);
+            port = local.getPort();
+        }
+        LoadGenerator gen = new LoadGenerator(opt.get("clients"), opt.get("pipeline"), books, members);
+        try {
+            gen.run(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), opt.get("warmup"), opt.get("seconds"));
+        } finally {
+            if(local != null) local.close();
+        }
+    }
+
+    // same books and members for every run: ISBN i, member ids 1..members
+    static LibraryService demoService(int books, int members) {
+        LibraryService service = new LibraryService();
+        List<Book> list = new ArrayList<>(books);
+        for(int i = 0; i < books; i++) {
+            String title = WORDS[i % 10] + " " + WORDS[(i / 10) % 10] + " " + i;
+            String author = FIRST_NAMES[i % 10] + " " + LAST_NAMES[(i / 10) % LAST_NAMES.length];
+            list.add(new Book(isbn(i), title, author, COPIES));
+        }
+        service.addBooks(list);
+        List<LibraryService.NewMember> drafts = new ArrayList<>(members);
+        for(int i = 1; i <= members; i++) drafts.add(new LibraryService.NewMember("Member " + i, "member" + i + "@example.com"));
+        service.registerMembers(drafts);
+        return service;
+    }
+
+    // ISBN-13 with a valid check digit
+    static String isbn(int i) {
+        String body = String.format("978%09d", i);
+        int sum = 0;
+        for(int k = 0; k < 12; k++) sum += (body.charAt(k) - '0') * ((k & 1) == 0 ? 1 : 3);
+        return body + (10 - sum % 10) % 10;
+    }
+
+    private void run(InetSocketAddress address, int warmupSeconds, int seconds) throws InterruptedException {
+        ExecutorService threads = LibraryServer.newThreadPerTaskExecutor();
+        CountDownLatch connected = new CountDownLatch(clients);
+        CountDownLatch finished = new CountDownLatch(clients);
+        List<LatencyHistogram> histograms = Collections.synchronizedList(new ArrayList<>());
+        List<long[]> counters = Collections.synchronizedList(new ArrayList<>());
+        long t0 = System.nanoTime();
+        for(int c = 0; c < clients; c++) {
+            int id = c;
+            threads.execute(() -> {
+                LatencyHistogram h = new LatencyHistogram();
+                long[] errors = new long[1];
+                try {
+                    client(id, address, connected, h, errors);
+                } finally {
+                    histograms.add(h);
+                    counters.add(errors);
+                    finished.countDown();
+                }
+            });
+        }
+        connected.await();
+        System.out.printf("%d clients connected in %d ms (%d failed)%n", clients,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0), failedConnections.get());
+        Thread.sleep(warmupSeconds * 1000L);
+        measuring = true;
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        measuring = false;
+        long elapsed = System.nanoTime() - start;
+        running = false;
+        finished.await(60, TimeUnit.SECONDS);
+        threads.shutdownNow();
+
+        LatencyHistogram all = new LatencyHistogram();
+        long errors = 0;
+        synchronized (histograms) {
+            for(LatencyHistogram h : histograms) all.add(h);
+        }
+        synchronized (counters) {
+            for(long[] e : counters) errors += e[0];
+        }
+        double secs = elapsed / 1e9;
+        System.out.printf("clients %d, pipeline %d, %.1f s measured%n", clients, pipeline, secs);
+        System.out.printf("throughput %,.0f req/s (%,d requests, %,d ERR responses)%n", all.count() / secs, all.count(), errors);
+        System.out.printf("latency p50 %s  p99 %s  p999 %s  max %s%n", ms(all.percentile(0.50)),
+                ms(all.percentile(0.99)), ms(all.percentile(0.999)), ms(all.max()));
+    }
+
+    private void client(int id, InetSocketAddress address, CountDownLatch connected, LatencyHistogram h, long[] errors) {
+        Socket socket = connect(address);
+        connected.countDown();
+        if(socket == null) return;
+        SplittableRandom rnd = new SplittableRandom(id);
+        ArrayDeque<Long> myLoans = new ArrayDeque<>();
+        boolean[] isBorrow = new boolean[pipeline];
+        try (socket) {
+            // everyone starts together, so early clients don't slow down the accepts of the others
+            connected.await();
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 8 * 1024);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            while(running) {
+                long sent = System.nanoTime();
+                for(int p = 0; p < pipeline; p++) {
+                    String request = nextRequest(rnd, myLoans);
+                    isBorrow[p] = request.startsWith("BORROW");
+                    out.write(request.getBytes(StandardCharsets.UTF_8));
+                    out.write('\n');
+                }
+                out.flush();
+                boolean measured = measuring;
+                for(int p = 0; p < pipeline; p++) {
+                    String response = in.readLine();
+                    if(response == null) return;
+                    if(measured) h.record(System.nanoTime() - sent);
+                    if(response.startsWith("ERR")) {
+                        if(measured) errors[0]++;
+                    } else if(isBorrow[p]) {
+                        myLoans.add(loanId(response));
+                    }
+                }
+            }
+            out.write("QUIT\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException | InterruptedException e) {
+            // server closed the connection, or the run was cut short
+        }
+    }
+
+    // 40% book, 15% title prefix, 10% fuzzy search, 15% member, 10% borrow, 10% return
+    private String nextRequest(SplittableRandom rnd, ArrayDeque<Long> myLoans) {
+        int dice = rnd.nextInt(100);
+        if(dice < 40) return "BOOK " + isbn(rnd.nextInt(books));
+        if(dice < 55) return "TITLE 10 " + new String[]{"Silent", "River", "Win", "Gar", "Emp"}[rnd.nextInt(5)];
+        if(dice < 65) return "SEARCH 10 " + new String[]{"shadw island", "memory glas", "murakmi", "winter rivr", "kazantsakis", "orwel"}[rnd.nextInt(6)];
+        if(dice < 80) return "MEMBER " + (1 + rnd.nextInt(members));
+        if(dice < 90 || myLoans.isEmpty()) return "BORROW " + isbn(rnd.nextInt(books)) + " " + (1 + rnd.nextInt(members));
+        return "RETURN " + myLoans.poll();
+    }
+
+    // OK {"id":123,...
+    private static long loanId(String response) {
+        int start = response.indexOf(':') + 1;
+        int end = response.indexOf(',', start);
+        return Long.parseLong(response.substring(start, end));
+    }
+
+    // the backlog may overflow while thousands connect at once: retry for a while
+    private Socket connect(InetSocketAddress address) {
+        for(int attempt = 0; attempt < 20; attempt++) {
+            Socket s = new Socket();
+            try {
+                s.setTcpNoDelay(true);
+                s.connect(address, 10_000);
+                return s;
+            } catch (IOException e) {
+                try {
+                    s.close();
+                    Thread.sleep(50L * (attempt + 1));
+                } catch (IOException | InterruptedException ignored) {
+                    break;
+                }
+            }
+        }
+        failedConnections.incrementAndGet();
+        return null;
+    }
+
+    static String ms(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+}
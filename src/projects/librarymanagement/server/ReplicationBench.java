@@ -0,0 +1,208 @@
+package projects.librarymanagement.server;
+
+import projects.common.LatencyHistogram;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.domain.Member;
+import projects.librarymanagement.persistence.ReplicationFollower;
+import projects.librarymanagement.persistence.ReplicationLeader;
+import projects.librarymanagement.service.LibraryService;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replication lag and replica read throughput on one machine: a leader LibraryService with the
+ * LoadGenerator demo data, followers connected to its ReplicationLeader over loopback TCP,
+ * writer threads borrowing and returning on the leader, reader threads on each follower
+ * (title prefix searches, member lookups, title-ordered pages and now and then the whole
+ * title listing), all in this JVM.
+ * Lag is measured end to end: a probe changes a member's email on the leader and times how
+ * long until each follower shows it.
+ *
+ *   java projects.librarymanagement.server.ReplicationBench [options]
+ *     --followers N  replicas (default 2); 0 runs the readers on the leader, for comparison
+ *     --readers N    reader threads per follower (default 2)
+ *     --writers N    writer threads on the leader (default 1)
+ *     --rate N       leader writes per second over all writers, 0 = as fast as they go (default 20000)
+ *     --seconds N    measured time (default 10), after --warmup N seconds (default 3)
+ *     --books N / --members N   demo data size (default 10000 each)
+ */
+public class ReplicationBench {
+    private static final String[] PREFIXES = {"Silent", "River", "Win", "Gar", "Emp", "Shadow I", "Memory G", "Night"};
+    private static final long PROBE_MEMBER = 1;
+
+    private final int books;
+    private final int members;
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    private volatile boolean measuring;
+    private volatile boolean running = true;
+
+    private ReplicationBench(int books, int members) {
+        this.books = books;
+        this.members = members;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Integer> opt = new HashMap<>(Map.of("followers", 2, "readers", 2, "writers", 1, "rate", 20_000,
+                "seconds", 10, "warmup", 3, "books", 10_000, "members", 10_000));
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            if(!args[i].startsWith("--")) throw new IllegalArgumentException("unknown argument " + args[i]);
+            opt.put(args[i].substring(2), Integer.parseInt(args[i + 1]));
+        }
+        new ReplicationBench(opt.get("books"), opt.get("members")).run(opt.get("followers"), opt.get("readers"),
+                opt.get("writers"), opt.get("rate"), opt.get("warmup"), opt.get("seconds"));
+    }
+
+    private void run(int followerCount, int readersPerFollower, int writerCount, int rate, int warmupSeconds, int seconds) throws Exception {
+        LibraryService leaderService = LoadGenerator.demoService(books, members);
+        List<ReplicationFollower> followers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        try (ReplicationLeader leader = ReplicationLeader.start(leaderService, 0)) {
+            long t0 = System.nanoTime();
+            for(int i = 0; i < followerCount; i++) {
+                ReplicationFollower f = ReplicationFollower.connect(leader.getPort(), ReplicationFollower.DEFAULT_MAX_STALENESS_MILLIS);
+                followers.add(f);
+                if(!f.awaitSynced(60, TimeUnit.SECONDS)) throw new IllegalStateException("Follower " + i + " did not sync");
+            }
+            System.out.printf("%d followers synced in %d ms (%,d books, %,d members)%n", followerCount,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0), books, members);
+
+            for(int w = 0; w < writerCount; w++) {
+                int id = w;
+                long perWriter = rate == 0 ? 0 : Math.max(1, rate / writerCount);
+                threads.add(start("writer-" + w, () -> write(leaderService, id, perWriter)));
+            }
+            int readerThreads = Math.max(followerCount, 1) * readersPerFollower;
+            for(int r = 0; r < readerThreads; r++) {
+                int id = r;
+                ReplicationFollower f = followers.isEmpty() ? null : followers.get(r % followers.size());
+                threads.add(start("reader-" + r, () -> read(f, leaderService, id)));
+            }
+            List<LatencyHistogram> lags = new ArrayList<>();
+            for(int i = 0; i < followers.size(); i++) lags.add(new LatencyHistogram());
+            Thread probe = start("lag-probe", () -> probe(leaderService, followers, lags));
+            threads.add(probe);
+
+            Thread.sleep(warmupSeconds * 1000L);
+            writes.reset();
+            reads.reset();
+            refused.reset();
+            measuring = true;
+            long start = System.nanoTime();
+            long seqStart = leader.getSequence();
+            Thread.sleep(seconds * 1000L);
+            double secs = (System.nanoTime() - start) / 1e9;
+            long writeCount = writes.sum();
+            long readCount = reads.sum();
+            long refusedCount = refused.sum();
+            long records = leader.getSequence() - seqStart;
+            measuring = false;
+            running = false;
+            for(Thread t : threads) t.join(10_000);
+
+            System.out.printf("leader: %,.0f writes/s, %,.0f records/s shipped to each follower%n", writeCount / secs, records / secs);
+            System.out.printf("reads on %s: %,.0f reads/s over %d threads (%,d reads, %,d refused as too stale)%n",
+                    followerCount == 0 ? "the leader" : followerCount + " followers", readCount / secs, readerThreads, readCount, refusedCount);
+            for(int i = 0; i < followers.size(); i++) {
+                LatencyHistogram h = lags.get(i);
+                System.out.printf("follower %d lag (leader write -> visible): p50 %s  p99 %s  max %s  (%d probes, %,d records applied)%n",
+                        i, LoadGenerator.ms(h.percentile(0.50)), LoadGenerator.ms(h.percentile(0.99)), LoadGenerator.ms(h.max()),
+                        h.count(), followers.get(i).getAppliedRecords());
+            }
+        } finally {
+            running = false;
+            for(ReplicationFollower f : followers) f.close();
+        }
+    }
+
+    private static Thread start(String name, Runnable task) {
+        Thread t = new Thread(task, "replication-bench-" + name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    // borrows and returns (its own loans) at perSecond, 0 = flat out
+    private void write(LibraryService leader, int id, long perSecond) {
+        SplittableRandom rnd = new SplittableRandom(id);
+        ArrayDeque<Long> myLoans = new ArrayDeque<>();
+        long interval = perSecond == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / perSecond;
+        long next = System.nanoTime();
+        while(running) {
+            if(myLoans.size() < 100 && (myLoans.isEmpty() || rnd.nextBoolean())) {
+                // member 1 is the probe's
+                Loan loan = leader.borrow(LoadGenerator.isbn(rnd.nextInt(books)), 2 + rnd.nextInt(members - 1));
+                if(loan != null) myLoans.add(loan.getId());
+            } else {
+                leader.returnLoan(myLoans.poll());
+            }
+            if(measuring) writes.increment();
+            if(interval > 0) {
+                next += interval;
+                long wait = next - System.nanoTime();
+                if(wait > 0) LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    // 45% title prefix, 45% member, 9% a page of titles, 1% the whole title listing
+    private void read(ReplicationFollower follower, LibraryService leader, int id) {
+        SplittableRandom rnd = new SplittableRandom(1000 + id);
+        while(running) {
+            int dice = rnd.nextInt(100);
+            try {
+                if(dice < 45) {
+                    String prefix = PREFIXES[rnd.nextInt(PREFIXES.length)];
+                    if(follower == null) leader.searchBooksByTitlePrefix(prefix, 10);
+                    else follower.searchBooksByTitlePrefix(prefix, 10);
+                } else if(dice < 90) {
+                    long member = 1 + rnd.nextInt(members);
+                    if(follower == null) leader.findMemberById(member);
+                    else follower.findMemberById(member);
+                } else if(dice < 99) {
+                    if(follower == null) leader.listBooksPage(null, 20);
+                    else follower.listBooksPage(null, 20);
+                } else {
+                    if(follower == null) leader.listBooksSortedByTitle();
+                    else follower.listBooksSortedByTitle();
+                }
+                if(measuring) reads.increment();
+            } catch (IllegalStateException e) {
+                if(measuring) refused.increment();
+            }
+        }
+    }
+
+    // every 10 ms: a new email for the probe member on the leader, timed until each follower has it
+    private void probe(LibraryService leader, List<ReplicationFollower> followers, List<LatencyHistogram> lags) {
+        long n = 0;
+        while(running) {
+            String email = "probe" + (n++) + "@example.com";
+            long written = System.nanoTime();
+            leader.updateMemberEmail(PROBE_MEMBER, email);
+            boolean[] seen = new boolean[followers.size()];
+            int left = seen.length;
+            while(left > 0 && running && System.nanoTime() - written < TimeUnit.SECONDS.toNanos(5)) {
+                for(int i = 0; i < seen.length; i++) {
+                    if(seen[i]) continue;
+                    Member m = followers.get(i).replica().findMemberById(PROBE_MEMBER);
+                    if(m != null && email.equals(m.getEmail())) {
+                        seen[i] = true;
+                        left--;
+                        if(measuring) lags.get(i).record(System.nanoTime() - written);
+                    }
+                }
+                if(left > 0) LockSupport.parkNanos(50_000);
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package projects.librarymanagement.service;
+
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+
+import java.time.LocalDate;
+
+/**
+ * One change of a LibraryService, as read from its ChangeStream. The object is a slot of the
+ * ring and gets reused: read it inside the handler and copy what you need, don't keep it.
+ * Fields that don't apply to the type are null / 0.
+ */
+public final class ChangeEvent {
+
+    public enum Type {
+        BOOK_ADDED,        // book
+        MEMBER_REGISTERED, // memberId, name, email
+        LOAN_CREATED,      // loan, loanId, memberId, isbn, date (the due date)
+        LOAN_RETURNED,     // loanId, date (the return date)
+        EMAIL_UPDATED      // memberId, email
+    }
+
+    private Type type;
+    private Book book;
+    private Loan loan;
+    private long loanId;
+    private long memberId;
+    private String isbn;
+    private String name;
+    private String email;
+    private LocalDate date;
+
+    ChangeEvent() {}
+
+    public Type getType() {return type;}
+    public Book getBook() {return book;}
+    public Loan getLoan() {return loan;}
+    public long getLoanId() {return loanId;}
+    public long getMemberId() {return memberId;}
+    public String getIsbn() {return isbn;}
+    public String getName() {return name;}
+    public String getEmail() {return email;}
+    public LocalDate getDate() {return date;}
+
+    // ------------------------------ FILLING (ChangeStream) ------------------------------------------
+    // Every field is set, so nothing of the slot's previous event is left over.
+
+    void bookAdded(Book b) {
+        set(Type.BOOK_ADDED, b, null, 0, 0, b.getIsbn(), null, null, null);
+    }
+
+    void memberRegistered(long memberId, String name, String email) {
+        set(Type.MEMBER_REGISTERED, null, null, 0, memberId, null, name, email, null);
+    }
+
+    void loanCreated(Loan l) {
+        set(Type.LOAN_CREATED, null, l, l.getId(), l.getMemberId(), l.getIsbn(), null, null, l.getDueDate());
+    }
+
+    void loanReturned(long loanId, LocalDate returnDate) {
+        set(Type.LOAN_RETURNED, null, null, loanId, 0, null, null, null, returnDate);
+    }
+
+    void emailUpdated(long memberId, String email) {
+        set(Type.EMAIL_UPDATED, null, null, 0, memberId, null, null, email, null);
+    }
+
+    private void set(Type type, Book book, Loan loan, long loanId, long memberId, String isbn,
+                     String name, String email, LocalDate date) {
+        this.type = type;
+        this.book = book;
+        this.loan = loan;
+        this.loanId = loanId;
+        this.memberId = memberId;
+        this.isbn = isbn;
+        this.name = name;
+        this.email = email;
+        this.date = date;
+    }
+
+    @Override
+    public String toString() {
+        return switch (type) {
+            case BOOK_ADDED -> "BOOK_ADDED " + isbn;
+            case MEMBER_REGISTERED -> "MEMBER_REGISTERED " + memberId + " " + name + " <" + email + ">";
+            case LOAN_CREATED -> "LOAN_CREATED " + loanId + " member " + memberId + " " + isbn + " due " + date;
+            case LOAN_RETURNED -> "LOAN_RETURNED " + loanId + " on " + date;
+            case EMAIL_UPDATED -> "EMAIL_UPDATED " + memberId + " <" + email + ">";
+        };
+    }
+}
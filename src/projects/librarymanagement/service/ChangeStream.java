@@ -0,0 +1,105 @@
+package projects.librarymanagement.service;
+
+import projects.common.EventRing;
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Change data capture for a LibraryService: every change, as typed ChangeEvents in an
+ * EventRing. Get it with LibraryService.changes(); each consumer subscribes with its own
+ * cursor and polls batches:
+ *
+ *   EventRing.Subscription<ChangeEvent> sub = service.changes().subscribe();
+ *   sub.poll((e, seq, endOfBatch) -> send(e), 1024, 1, TimeUnit.SECONDS);
+ *
+ * Events come in the order the mutation listeners are called, so a loan's LOAN_CREATED
+ * always comes before its LOAN_RETURNED. Baskets and bulk imports come as one event per
+ * loan / book / member. Publishing allocates nothing. A consumer that falls a full ring
+ * behind holds up the service's writers until it catches up, so close a subscription
+ * that is no longer polled.
+ */
+public final class ChangeStream implements LibraryMutationListener {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final EventRing<ChangeEvent> ring;
+
+    public ChangeStream(int capacity) {
+        ring = new EventRing<>(capacity, ChangeEvent::new);
+    }
+
+    /** A new consumer that gets every change made after this call. */
+    public EventRing.Subscription<ChangeEvent> subscribe() {
+        return ring.subscribe();
+    }
+
+    // sequence of the latest change (-1 before the first)
+    public long lastSequence() {return ring.claimedSequence();}
+
+    @Override
+    public void bookAdded(Book book) {
+        long s = ring.next(1);
+        ring.get(s).bookAdded(book);
+        ring.publish(s);
+    }
+
+    @Override
+    public void memberRegistered(long memberId, String name, String email) {
+        long s = ring.next(1);
+        ring.get(s).memberRegistered(memberId, name, email);
+        ring.publish(s);
+    }
+
+    @Override
+    public void loanCreated(Loan loan) {
+        long s = ring.next(1);
+        ring.get(s).loanCreated(loan);
+        ring.publish(s);
+    }
+
+    @Override
+    public void loanReturned(long loanId, LocalDate returnDate) {
+        long s = ring.next(1);
+        ring.get(s).loanReturned(loanId, returnDate);
+        ring.publish(s);
+    }
+
+    @Override
+    public void memberEmailUpdated(long memberId, String email) {
+        long s = ring.next(1);
+        ring.get(s).emailUpdated(memberId, email);
+        ring.publish(s);
+    }
+
+    // a basket claims its slots at once, so its events sit next to each other
+
+    @Override
+    public void loansCreated(List<Loan> loans) {
+        int n = loans.size();
+        if(n == 0) return;
+        if(n > ring.capacity()) {
+            LibraryMutationListener.super.loansCreated(loans);
+            return;
+        }
+        long last = ring.next(n);
+        long first = last - n + 1;
+        for(int i = 0; i < n; i++) ring.get(first + i).loanCreated(loans.get(i));
+        ring.publish(first, last);
+    }
+
+    @Override
+    public void loansReturned(long[] loanIds, LocalDate returnDate) {
+        int n = loanIds.length;
+        if(n == 0) return;
+        if(n > ring.capacity()) {
+            LibraryMutationListener.super.loansReturned(loanIds, returnDate);
+            return;
+        }
+        long last = ring.next(n);
+        long first = last - n + 1;
+        for(int i = 0; i < n; i++) ring.get(first + i).loanReturned(loanIds[i], returnDate);
+        ring.publish(first, last);
+    }
+}
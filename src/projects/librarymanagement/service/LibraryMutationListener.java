@@ -0,0 +1,44 @@
+package projects.librarymanagement.service;
+
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.domain.Member;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Receives every state change of a LibraryService, after it has been applied.
+ * Calls for the same loan (or member) never overtake each other: a loan's
+ * loanCreated always comes before its loanReturned.
+ * Bulk-registered members are announced in slices, each while its members are locked
+ * and just made visible, so no other call about them can come first.
+ * Batch borrows/returns come as one call each.
+ * Used by replication and the change stream; the write-ahead log gets each change before
+ * it is applied instead (see MutationLog), in the same record form.
+ */
+public interface LibraryMutationListener {
+    void bookAdded(Book book);
+    void memberRegistered(long memberId, String name, String email);
+    void loanCreated(Loan loan);
+    void loanReturned(long loanId, LocalDate returnDate);
+    void memberEmailUpdated(long memberId, String email);
+
+    // bulk imports, one call per batch (per slice for members); by default replayed record by record
+    default void booksAdded(List<Book> books) {
+        for(Book b : books) bookAdded(b);
+    }
+
+    default void membersRegistered(List<Member> members) {
+        for(Member m : members) memberRegistered(m.getId(), m.getName(), m.getEmail());
+    }
+
+    // self-checkout baskets (borrowAll / returnAll), one call per batch
+    default void loansCreated(List<Loan> loans) {
+        for(Loan l : loans) loanCreated(l);
+    }
+
+    default void loansReturned(long[] loanIds, LocalDate returnDate) {
+        for(long id : loanIds) loanReturned(id, returnDate);
+    }
+}
@@ -1,106 +1,834 @@
 package projects.librarymanagement.service;
 
+import projects.common.ConcurrentLongKeyMap;
+import projects.common.LongList;
+import projects.common.Page;
+import projects.common.PrefixIndex;
+import projects.common.TrigramIndex;
+import projects.common.Validators;
 import projects.librarymanagement.domain.Book;
 import projects.librarymanagement.domain.Loan;
 import projects.librarymanagement.domain.Member;
+import projects.librarymanagement.service.ServiceMetrics.Operation;
 
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
+/**
+ * Library business logic. Safe to share between threads (e.g. several desks
+ * borrowing and returning at once): maps are concurrent (long-keyed ones unboxed), ids come from atomic
+ * counters and each ISBN has an atomic active-loan counter that is only bumped
+ * with a compare-and-set below the book's total copies, so a copy can never be
+ * lent twice. No global lock is taken on borrow/return.
+ * Returned loans leave the heap: they are moved to an off-heap LoanArchive and
+ * rebuilt from it on demand (member history, snapshots).
+ * When no copy is left, members can queue a hold; a returned copy goes straight
+ * to the first one in line (see placeHold).
+ * Borrow/return and the search and list methods record their latency (see metrics()).
+ * The reports (active loans by due date, members by name, loan counters) read a LibraryView:
+ * an immutable point-in-time version swapped in by every write, so a long report takes no
+ * lock, never sees a write half done and never holds up a borrow or a return (see view()).
+ * Writers don't race each other for it: one at a time applies every queued change (see updateView).
+ * Every change is also published as an event in a ring buffer that consumers poll (see changes()).
+ * With a write-ahead log set (see setLog), a change is applied only once the log has it.
+ */
+public class LibraryService implements AutoCloseable {
+    public static final int MAX_BASKET = 100; // books per borrowAll / returnAll
+    private static final int MAX_COMBINED = 256; // view changes applied per combiner pass
 
-public class LibraryService {
-    private final Map<String, Book> booksByIsbn = new HashMap<>();
-    private final Map<Long, Member> membersById = new HashMap<>();
-    private final Map<Long, Loan> loansById = new HashMap<>();
+    private final Map<String, Book> booksByIsbn = new ConcurrentHashMap<>();
+    private final ConcurrentLongKeyMap<Member> membersById = new ConcurrentLongKeyMap<>();
+    private final ConcurrentLongKeyMap<Loan> loansById = new ConcurrentLongKeyMap<>(); // active loans only
+    private final LoanArchive archive; // returned loans
 
     // counts active loans per ISBN ( so we can support multiple copies)
-    private final Map<String, Integer> activeLoansCountByIsbn = new HashMap<>();
+    private final Map<String, AtomicInteger> activeLoansCountByIsbn = new ConcurrentHashMap<>();
 
-    private long nextMemberId = 1L;
-    private long nextLoanId = 1L;
+    // loan ids per member (so a member's history doesn't scan every loan)
+    private final ConcurrentLongKeyMap<LongList> loanIdsByMember = new ConcurrentLongKeyMap<>();
+
+    // active loans by due date, members by name and per member loan counters, as of the last write
+    private volatile LibraryView view = LibraryView.EMPTY;
+    // changes waiting for the writer holding viewCombiner to apply them
+    private final ConcurrentLinkedQueue<ViewChange> viewChanges = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock viewCombiner = new ReentrantLock();
+    private final ViewChange[] combined = new ViewChange[MAX_COMBINED]; // guarded by viewCombiner
+
+    // books ordered by case-folded title, for listing and type-ahead search
+    private final PrefixIndex<Book> booksByTitle = new PrefixIndex<>();
+
+    // FIFO hold queues, created on the first hold for an ISBN
+    private final Map<String, HoldQueue> holdsByIsbn = new ConcurrentHashMap<>();
+    // title + author trigrams, for typo-tolerant search
+    private final TrigramIndex<String, Book> bookTrigrams = new TrigramIndex<>();
+
+    // ids of this shard: shard + 1, then every shardCount-th (1, 2, 3, ... unsharded)
+    private final int shard;
+    private final int shardCount;
+    private final AtomicLong nextMemberId;
+    private final AtomicLong nextLoanId;
+
+    private final List<LibraryMutationListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile MutationLog log; // set once, see setLog
+    // claimed while their change is being logged, so no ISBN or return is logged twice
+    private final Set<String> addingIsbns = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLongKeyMap<Loan> returningLoans = new ConcurrentLongKeyMap<>();
+    private ChangeStream changes; // created by the first changes() call
+    private final ServiceMetrics metrics = new ServiceMetrics();
+
+    // returned loans go to off-heap memory (no files)
+    public LibraryService() {
+        this(null, 0, 1);
+    }
+
+    // returned loans go to archiveDir (scratch space, cleared on start)
+    public LibraryService(Path archiveDir) {
+        this(archiveDir, 0, 1);
+    }
+
+    /**
+     * One of shardCount shards (see ShardedLibrary): member and loan ids are handed out so that
+     * shardOf(id, shardCount) == shard. A member of another shard is taken as checked by the
+     * router, so this shard lends its books to members it does not hold.
+     * @param archiveDir as above; null to keep them in off-heap memory
+     */
+    public LibraryService(Path archiveDir, int shard, int shardCount) {
+        if(shardCount < 1 || shard < 0 || shard >= shardCount) throw new IllegalArgumentException("Bad shard " + shard + " of " + shardCount);
+        this.archive = archiveDir == null ? new LoanArchive() : new LoanArchive(archiveDir);
+        this.shard = shard;
+        this.shardCount = shardCount;
+        this.nextMemberId = new AtomicLong(shard + 1);
+        this.nextLoanId = new AtomicLong(shard + 1);
+    }
+
+    // the shard a member or loan id was handed out by
+    public static int shardOf(long id, int shardCount) {
+        return (int) Math.floorMod(id - 1, (long) shardCount);
+    }
+
+    /** True if the member is registered here, or (on a shard) belongs to another shard. */
+    public boolean acceptsMember(long memberId) {
+        return membersById.containsKey(memberId) || (memberId > 0 && shardOf(memberId, shardCount) != shard);
+    }
+
+    public void addMutationListener(LibraryMutationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Makes every later change write-ahead: its records go to the log first, and the change
+     * is applied (and reaches the listeners) only once the log has them (see MutationLog).
+     * A change the log fails to take is not applied and its caller gets the exception.
+     * Set once, before the service is shared.
+     */
+    public void setLog(MutationLog log) {
+        synchronized (listeners) {
+            if(this.log != null) throw new IllegalStateException("The service already has a log");
+            this.log = log;
+        }
+    }
+
+    /**
+     * The stream of change events (borrows, returns, new books and members, email changes)
+     * for downstream consumers, each with its own cursor (see ChangeStream). Started by the
+     * first call; it holds the changes made from then on.
+     */
+    public synchronized ChangeStream changes() {
+        if(changes == null) {
+            changes = new ChangeStream(ChangeStream.DEFAULT_CAPACITY);
+            addMutationListener(changes);
+        }
+        return changes;
+    }
 
     public Book addBook(String isbn, String title, String author, int totalCopies) {
-        if(booksByIsbn.containsKey(isbn)) return null;
+        checkText(isbn, "ISBN");
+        checkText(title, "title");
+        checkText(author, "author");
         Book b = new Book(isbn, title, author, totalCopies);
-        booksByIsbn.put(isbn, b);
-        activeLoansCountByIsbn.put(isbn, 0);
+        if(!addingIsbns.add(isbn)) return null; // another desk is adding it
+        try {
+            if(booksByIsbn.containsKey(isbn)) return null;
+            long ticket = logChange(out -> out.bookAdded(b), NOTHING);
+            try {
+                insertBook(b);
+                for(LibraryMutationListener l : listeners) l.bookAdded(b);
+            } finally {
+                logApplied(ticket);
+            }
+            return b;
+        } finally {
+            addingIsbns.remove(isbn);
+        }
+    }
+
+    private Book insertBook(Book b) {
+        String isbn = b.getIsbn();
+        if(booksByIsbn.containsKey(isbn)) return null;
+        // counter first, so a borrow that sees the book always finds it
+        activeLoansCountByIsbn.putIfAbsent(isbn, new AtomicInteger());
+        if(booksByIsbn.putIfAbsent(isbn, b) != null) return null; // lost the race to another desk
+        booksByTitle.put(b.getTitle(), isbn, b);
+        bookTrigrams.put(isbn, b.getTitle() + " " + b.getAuthor(), b);
         return b;
     }
 
     public Member registerMember(String name, String email) {
-        long id = nextMemberId++;
+        checkText(name, "name");
+        checkText(email, "email");
+        long id = nextMemberId.getAndAdd(shardCount);
         Member m = new Member(id, name, email);
-        membersById.put(id, m);
+        long ticket = logChange(out -> out.memberRegistered(id, name, email), NOTHING);
+        try {
+            // locked so a quick email update can't reach the listeners before the registration
+            synchronized (m) {
+                insertMember(m);
+                for(LibraryMutationListener l : listeners) l.memberRegistered(id, name, email);
+            }
+        } finally {
+            logApplied(ticket);
+        }
         return m;
     }
 
+    private void insertMember(Member m) {
+        long id = m.getId();
+        // restored loans may have created these already
+        loanIdsByMember.computeIfAbsent(id, k -> new LongList());
+        updateView(v -> v.withMember(m));
+        membersById.put(id, m);
+    }
+
+    /**
+     * Adds many books at once (bulk import). Books whose ISBN is already in the
+     * catalog are skipped. Listeners get the batch in one call.
+     * @return the books that were added
+     */
+    public List<Book> addBooks(List<Book> books) {
+        for(Book b : books) {
+            checkText(b.getIsbn(), "ISBN");
+            checkText(b.getTitle(), "title");
+            checkText(b.getAuthor(), "author");
+        }
+        List<Book> added = new ArrayList<>(books.size());
+        List<String> claimed = new ArrayList<>(books.size());
+        try {
+            for(Book b : books) {
+                if(!addingIsbns.add(b.getIsbn())) continue; // listed twice, or another desk is adding it
+                claimed.add(b.getIsbn());
+                if(!booksByIsbn.containsKey(b.getIsbn())) added.add(b);
+            }
+            if(added.isEmpty()) return added;
+            long ticket = logChange(out -> out.booksAdded(added), NOTHING);
+            try {
+                for(Book b : added) insertBook(b);
+                for(LibraryMutationListener l : listeners) l.booksAdded(added);
+            } finally {
+                logApplied(ticket);
+            }
+            return added;
+        } finally {
+            for(String isbn : claimed) addingIsbns.remove(isbn);
+        }
+    }
+
+    public record NewMember(String name, String email) {}
+
+    /**
+     * Registers many members at once (bulk import), with consecutive ids (of this shard).
+     * The batch is logged in one go, then inserted in slices of MAX_BASKET members. A slice's
+     * members are locked while they are inserted and passed to the listeners (one call per
+     * slice), as in registerMember, so an email update of one of them waits until the
+     * listeners have its registration.
+     */
+    public List<Member> registerMembers(List<NewMember> drafts) {
+        if(drafts.isEmpty()) return Collections.emptyList();
+        for(NewMember d : drafts) {
+            checkText(d.name(), "name");
+            checkText(d.email(), "email");
+        }
+        long first = nextMemberId.getAndAdd((long) drafts.size() * shardCount);
+        List<Member> members = new ArrayList<>(drafts.size());
+        for(NewMember d : drafts) members.add(new Member(first + (long) members.size() * shardCount, d.name(), d.email()));
+        long ticket = logChange(out -> out.membersRegistered(members), NOTHING);
+        try {
+            for(int from = 0; from < members.size(); from += MAX_BASKET) {
+                List<Member> slice = members.subList(from, Math.min(from + MAX_BASKET, members.size()));
+                lockAll(slice.toArray(), 0, () -> {
+                    for(Member m : slice) insertMember(m);
+                    for(LibraryMutationListener l : listeners) l.membersRegistered(slice);
+                });
+            }
+        } finally {
+            logApplied(ticket);
+        }
+        return members;
+    }
+
+    // ------------------------------ LISTINGS --------------------------------------------
+    // The List versions copy everything; for large listings use a page (keyset cursor,
+    // O(log n + limit) per page) or a stream (lazy, straight off the index, constant memory).
+
     public List<Book> listBooksSortedByTitle() {
-        return  booksByIsbn.values().stream()
-                .sorted(Comparator.comparing(Book::getTitle, String.CASE_INSENSITIVE_ORDER))
-                .collect(Collectors.toList());
+        return new ArrayList<>(booksByTitle.values());
+    }
+
+    public Stream<Book> streamBooksSortedByTitle() {
+        return booksByTitle.stream("");
+    }
+
+    // null cursor for the first page, then the previous page's next cursor
+    public Page<Book> listBooksPage(String cursor, int limit) {
+        return booksByTitle.page("", cursor, limit);
     }
 
     public List<Book> searchBooksByTitlePrefix(String prefix) {
-        String p = prefix.toLowerCase();
-        return booksByIsbn.values().stream()
-                .filter(b -> b.getTitle().toLowerCase().startsWith(p))
-                .sorted(Comparator.comparing(Book::getTitle, String.CASE_INSENSITIVE_ORDER))
-                .collect(Collectors.toList());
+        return searchBooksByTitlePrefix(prefix, Integer.MAX_VALUE);
+    }
+
+    // top "limit" matches, already in title order (type-ahead)
+    public List<Book> searchBooksByTitlePrefix(String prefix, int limit) {
+        long start = ServiceMetrics.start();
+        List<Book> res = booksByTitle.startingWith(prefix, limit);
+        metrics.record(Operation.SEARCH_TITLE_PREFIX, start);
+        return res;
+    }
+
+    // words of the title or the author, misspellings included; best matches first
+    public List<Book> searchBooks(String text, int limit) {
+        long start = ServiceMetrics.start();
+        List<Book> res = bookTrigrams.search(text, limit);
+        metrics.record(Operation.SEARCH_FUZZY, start);
+        return res;
+    }
+
+    public Book findBookByIsbn(String isbn) {
+        return booksByIsbn.get(isbn);
     }
 
     public int availableCopies(String isbn) {
         Book b = booksByIsbn.get(isbn);
         if(b == null) return 0;
-        int active = activeLoansCountByIsbn.getOrDefault(isbn, 0);
+        int active = activeLoansCountByIsbn.get(isbn).get();
         return b.getTotalCopies() - active;
     }
 
     public Loan borrow(String isbn, long memberId) {
+        long start = ServiceMetrics.start();
+        Loan loan = borrowCopy(isbn, memberId);
+        metrics.record(Operation.BORROW, start, loan != null);
+        return loan;
+    }
+
+    private Loan borrowCopy(String isbn, long memberId) {
         Book b = booksByIsbn.get(isbn);
-        Member m = membersById.get(memberId);
-        if(b == null || m == null) return null;
-        if(availableCopies(isbn) <= 0) return null;
-        long id = nextLoanId++;
+        if(b == null || !acceptsMember(memberId)) return null;
+        if(!takeCopy(isbn, b.getTotalCopies())) return null;
+        return openLoan(isbn, memberId, () -> passCopyOn(isbn));
+    }
+
+    // the copy is already taken; giveBack runs if the log can't take the loan
+    private Loan openLoan(String isbn, long memberId, Runnable giveBack) {
+        long id = nextLoanId.getAndAdd(shardCount);
         LocalDate now = LocalDate.now();
         LocalDate dueDate = now.plusDays(14); // simple rule 2 weeks
 
         Loan loan = new Loan(id, isbn, memberId, now, dueDate);
-        loansById.put(id, loan);
-        activeLoansCountByIsbn.put(isbn, activeLoansCountByIsbn.getOrDefault(isbn, 0) + 1);
+        long ticket = logChange(out -> out.loanCreated(loan), giveBack);
+        try {
+            // locked so the listeners always see the loan created before it is returned
+            synchronized (loan) {
+                insertLoan(loan);
+                for(LibraryMutationListener l : listeners) l.loanCreated(loan);
+            }
+        } finally {
+            logApplied(ticket);
+        }
         return loan;
     }
 
+    // the copy is already counted for active loans
+    private void insertLoan(Loan loan) {
+        long memberId = loan.getMemberId();
+        loanIdsByMember.computeIfAbsent(memberId, k -> new LongList()).add(loan.getId());
+        updateView(v -> v.withLoan(loan));
+        loansById.put(loan.getId(), loan); // last: from here on returnLoan can find it
+    }
+
+    // insertLoan for a basket: the member's history and counters are touched once, one new view
+    private void insertBasket(long memberId, Loan[] loans) {
+        loanIdsByMember.computeIfAbsent(memberId, k -> new LongList()).addRange(loans[0].getId(), loans.length, shardCount);
+        updateView(v -> v.withLoans(memberId, loans));
+        for(Loan loan : loans) loansById.put(loan.getId(), loan);
+    }
+
     public boolean returnLoan(long loanId) {
+        long start = ServiceMetrics.start();
+        boolean returned = returnCopy(loanId);
+        metrics.record(Operation.RETURN, start, returned);
+        return returned;
+    }
+
+    private boolean returnCopy(long loanId) {
         Loan loan = loansById.get(loanId);
-        if(loan == null || !loan.isActive()) return false;
-        loan.markReturned(LocalDate.now());
-        String isbn = loan.getIsbn();
-        int active = activeLoansCountByIsbn.getOrDefault(isbn, 0);
-        activeLoansCountByIsbn.put(isbn, Math.max(0, active - 1));
+        // claimed until it is archived, so of two desks returning the same loan only one gets on
+        if(loan == null || returningLoans.putIfAbsent(loanId, loan) != null) return false;
+        LocalDate today = LocalDate.now();
+        try {
+            if(!loan.isActive()) return false; // a desk that just finished returned it
+            long ticket = logChange(out -> out.loanReturned(loanId, today), NOTHING);
+            try {
+                synchronized (loan) {
+                    loan.markReturned(today);
+                    for(LibraryMutationListener l : listeners) l.loanReturned(loanId, today);
+                }
+                archiveLoan(loan);
+            } finally {
+                logApplied(ticket);
+            }
+        } finally {
+            returningLoans.remove(loanId);
+        }
+        passCopyOn(loan.getIsbn());
         return true;
     }
 
+    // a returned loan leaves the active ones
+    private void archiveLoan(Loan loan) {
+        updateView(v -> v.withReturned(loan));
+        // archived first, so a reader that misses the loan in loansById finds it there
+        archive.append(loan);
+        loansById.remove(loan.getId());
+    }
+
+    /**
+     * Waits for a copy of the book: the future completes with the member's loan as soon
+     * as one is free. Holds are served first come, first served; a copy that is free right
+     * now is lent at once (already completed future). Cancelling the future gives up the
+     * place in the queue; it fails (returns false) once a copy has been claimed for the hold,
+     * the loan then arrives as usual. Holds live in memory only, a restart drops the waiting ones.
+     * @return null if the book or the member does not exist
+     */
+    public CompletableFuture<Loan> placeHold(String isbn, long memberId) {
+        long start = ServiceMetrics.start();
+        CompletableFuture<Loan> hold = queueHold(isbn, memberId);
+        metrics.record(Operation.PLACE_HOLD, start, hold != null);
+        return hold;
+    }
+
+    private CompletableFuture<Loan> queueHold(String isbn, long memberId) {
+        Book b = booksByIsbn.get(isbn);
+        if(b == null || !acceptsMember(memberId)) return null;
+        HoldQueue queue = holdsByIsbn.computeIfAbsent(isbn, k -> new HoldQueue());
+        HoldFuture hold = new HoldFuture();
+        synchronized (queue) {
+            // a copy that is free while others wait would go to them, so only take it on an empty queue
+            boolean lendNow = queue.waiting.isEmpty() && takeCopy(isbn, b.getTotalCopies());
+            if(!lendNow) {
+                queue.waiting.add(new Hold(memberId, hold));
+                return hold;
+            }
+        }
+        hold.complete(openLoan(isbn, memberId, () -> passCopyOn(isbn)));
+        return hold;
+    }
+
+    // holds still waiting for the book
+    public int holdQueueLength(String isbn) {
+        HoldQueue queue = holdsByIsbn.get(isbn);
+        if(queue == null) return 0;
+        synchronized (queue) {
+            queue.waiting.removeIf(h -> !h.future.isWaiting());
+            return queue.waiting.size();
+        }
+    }
+
+    /*
+     * The copy of a returned loan, or of one the log couldn't take: to the first live hold,
+     * else back on the shelf. A hold whose loan the log can't take fails, and the copy moves
+     * on to the next one, so it never lands on the shelf while holds are waiting.
+     */
+    private void passCopyOn(String isbn) {
+        HoldQueue queue = holdsByIsbn.get(isbn);
+        if(queue == null) {
+            activeLoansCountByIsbn.get(isbn).decrementAndGet();
+            return;
+        }
+        while(true) {
+            Hold next;
+            synchronized (queue) {
+                // the first hold still waiting, claimed so its holder can no longer cancel it;
+                // holds given up are skipped without a loan
+                do {
+                    next = queue.waiting.poll();
+                } while(next != null && !next.future.claim());
+                // decided under the lock, so a hold placed meanwhile either sees the copy or is served
+                if(next == null) {
+                    activeLoansCountByIsbn.get(isbn).decrementAndGet();
+                    return;
+                }
+            }
+            // the copy moves to the new loan as is, the counter doesn't change
+            Loan loan;
+            try {
+                loan = openLoan(isbn, next.memberId, NOTHING);
+            } catch (RuntimeException e) {
+                next.future.fail(e); // the log failed; the copy is still taken, for the next hold
+                continue;
+            }
+            next.future.deliver(loan); // callbacks run here, outside the lock
+            return;
+        }
+    }
+
+    private record Hold(long memberId, HoldFuture future) {}
+
+    // holds in line; cancelled ones are dropped when they reach the head (guarded by its monitor)
+    private static final class HoldQueue {
+        final ArrayDeque<Hold> waiting = new ArrayDeque<>();
+    }
+
+    /*
+     * A hold's future. Serving a hold and giving it up both claim it first (compare-and-set),
+     * so exactly one of them happens: a hold cancelled while its copy is on the way never gets
+     * a loan (which would be logged, then returned at once), and one being served can't be
+     * cancelled. complete and completeExceptionally by others claim it too.
+     */
+    private static final class HoldFuture extends CompletableFuture<Loan> {
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        boolean isWaiting() {
+            return !claimed.get();
+        }
+
+        // after a claim
+        void deliver(Loan loan) {
+            super.complete(loan);
+        }
+
+        void fail(Throwable e) {
+            super.completeExceptionally(e);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return claim() && super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean complete(Loan value) {
+            return claim() && super.complete(value);
+        }
+
+        @Override
+        public boolean completeExceptionally(Throwable ex) {
+            return claim() && super.completeExceptionally(ex);
+        }
+    }
+
+    // reserves one copy, never going above the total (compare-and-set loop on the ISBN counter)
+    private boolean takeCopy(String isbn, int totalCopies) {
+        return takeCopies(isbn, totalCopies, 1);
+    }
+
+    // reserves n copies at once, or none
+    private boolean takeCopies(String isbn, int totalCopies, int n) {
+        AtomicInteger active = activeLoansCountByIsbn.get(isbn);
+        while(true) {
+            int current = active.get();
+            if(current + n > totalCopies) return false;
+            if(active.compareAndSet(current, current + n)) return true;
+        }
+    }
+
+    /**
+     * Borrows a whole basket (self-checkout) for one member: every book or none.
+     * The member and each distinct ISBN are looked up once, the copies of an ISBN are
+     * reserved with one compare-and-set, the date is read once, and listeners get the
+     * basket in one call (one log record). A basket may hold the same ISBN more than once.
+     * @return the loans, in basket order, or null if the member or a book does not exist
+     *         or not enough copies are available (nothing is borrowed then)
+     */
+    public List<Loan> borrowAll(long memberId, List<String> isbns) {
+        if(isbns.size() > MAX_BASKET) throw new IllegalArgumentException("At most " + MAX_BASKET + " books per basket");
+        long start = ServiceMetrics.start();
+        List<Loan> loans = borrowBasket(memberId, isbns);
+        metrics.record(Operation.BORROW_ALL, start, loans != null);
+        return loans;
+    }
+
+    private List<Loan> borrowBasket(long memberId, List<String> isbns) {
+        if(isbns.isEmpty()) return Collections.emptyList();
+        if(!acceptsMember(memberId)) return null;
+        Map<String, Integer> wanted = new LinkedHashMap<>();
+        for(String isbn : isbns) wanted.merge(isbn, 1, Integer::sum);
+        Map<String, Integer> taken = new HashMap<>();
+        // gives back what was reserved (to waiting holds first, like a return)
+        Runnable giveBack = () -> taken.forEach((isbn, n) -> {
+            for(int i = 0; i < n; i++) passCopyOn(isbn);
+        });
+        for(Map.Entry<String, Integer> e : wanted.entrySet()) {
+            Book b = booksByIsbn.get(e.getKey());
+            if(b == null || !takeCopies(e.getKey(), b.getTotalCopies(), e.getValue())) {
+                giveBack.run();
+                return null;
+            }
+            taken.put(e.getKey(), e.getValue());
+        }
+
+        long firstId = nextLoanId.getAndAdd((long) isbns.size() * shardCount);
+        LocalDate now = LocalDate.now();
+        LocalDate dueDate = now.plusDays(14); // simple rule 2 weeks
+        Loan[] loans = new Loan[isbns.size()];
+        for(int i = 0; i < loans.length; i++) loans[i] = new Loan(firstId + (long) i * shardCount, isbns.get(i), memberId, now, dueDate);
+        List<Loan> basket = Arrays.asList(loans);
+        long ticket = logChange(out -> out.loansCreated(basket), giveBack);
+        try {
+            // every loan locked, so the listeners see none of them returned before the basket
+            lockAll(loans, 0, () -> {
+                insertBasket(memberId, loans);
+                for(LibraryMutationListener l : listeners) l.loansCreated(basket);
+            });
+        } finally {
+            logApplied(ticket);
+        }
+        return basket;
+    }
+
+    /**
+     * Returns a whole basket of loans: every one or none. Listeners get one call
+     * (one log record) with a single return date.
+     * @return false if a loan does not exist, is already returned or is listed twice
+     *         (nothing is returned then)
+     */
+    public boolean returnAll(long[] loanIds) {
+        if(loanIds.length > MAX_BASKET) throw new IllegalArgumentException("At most " + MAX_BASKET + " loans per basket");
+        long start = ServiceMetrics.start();
+        boolean returned = returnBasket(loanIds);
+        metrics.record(Operation.RETURN_ALL, start, returned);
+        return returned;
+    }
+
+    private boolean returnBasket(long[] loanIds) {
+        if(loanIds.length == 0) return true;
+        long[] ids = loanIds.clone();
+        Arrays.sort(ids); // one lock order for every caller
+        Loan[] loans = new Loan[ids.length];
+        for(int i = 0; i < ids.length; i++) {
+            if(i > 0 && ids[i] == ids[i - 1]) return false;
+            loans[i] = loansById.get(ids[i]);
+            if(loans[i] == null) return false;
+        }
+        LocalDate today = LocalDate.now();
+        int claimed = 0;
+        try {
+            // claimed in id order like single returns, so a loan another desk is returning fails the basket
+            for(; claimed < loans.length; claimed++) {
+                if(returningLoans.putIfAbsent(ids[claimed], loans[claimed]) != null) return false;
+            }
+            for(Loan loan : loans) {
+                if(!loan.isActive()) return false;
+            }
+            long ticket = logChange(out -> out.loansReturned(ids, today), NOTHING);
+            try {
+                lockAll(loans, 0, () -> {
+                    for(Loan loan : loans) loan.markReturned(today);
+                    for(LibraryMutationListener l : listeners) l.loansReturned(ids, today);
+                });
+                for(Loan loan : loans) archiveLoan(loan);
+            } finally {
+                logApplied(ticket);
+            }
+        } finally {
+            for(int i = 0; i < claimed; i++) returningLoans.remove(ids[i]);
+        }
+        for(Loan loan : loans) passCopyOn(loan.getIsbn());
+        return true;
+    }
+
+    // runs action holding the monitor of every object from i on (loans or members, at most MAX_BASKET)
+    private static void lockAll(Object[] locks, int i, Runnable action) {
+        if(i == locks.length) {
+            action.run();
+            return;
+        }
+        synchronized (locks[i]) {
+            lockAll(locks, i + 1, action);
+        }
+    }
+
+    /**
+     * The current point-in-time view for reports: take it once and read it as long as needed,
+     * without locks. Writes go on meanwhile and show up in later views only. Several reads
+     * from one view agree with each other (e.g. the loan list and the counters).
+     */
+    public LibraryView view() {
+        return view;
+    }
+
+    /*
+     * Applies a change to the view; returns once a view with it is published. Writers don't
+     * compare-and-set the view against each other (under contention most of them rebuilt
+     * their change on a newer view, over and over): each queues its change, and whoever gets
+     * viewCombiner applies every queued change in queue order and publishes the result once.
+     * The others only wait for theirs to be marked applied. Uncontended, nothing is queued.
+     */
+    private void updateView(UnaryOperator<LibraryView> change) {
+        if(viewChanges.isEmpty() && viewCombiner.tryLock()) {
+            try {
+                combineViewChanges(); // any queued meanwhile go first
+                view = change.apply(view);
+            } finally {
+                viewCombiner.unlock();
+            }
+            return;
+        }
+        ViewChange c = new ViewChange(change);
+        viewChanges.add(c);
+        while(!c.applied) {
+            if(viewCombiner.tryLock()) {
+                try {
+                    combineViewChanges();
+                } finally {
+                    viewCombiner.unlock();
+                }
+            } else {
+                Thread.yield();
+            }
+        }
+        if(c.failure != null) throw c.failure;
+    }
+
+    // caller holds viewCombiner; one batch, at most MAX_COMBINED changes so the combiner gets back to its own work
+    private void combineViewChanges() {
+        ViewChange[] batch = combined;
+        int n = 0;
+        LibraryView v = view;
+        for(ViewChange c; n < MAX_COMBINED && (c = viewChanges.poll()) != null; ) {
+            try {
+                v = c.change.apply(v);
+            } catch (RuntimeException e) {
+                c.failure = e; // the view stays as it was for this change
+            }
+            batch[n++] = c;
+        }
+        view = v;
+        for(int i = 0; i < n; i++) {
+            batch[i].applied = true;
+            batch[i] = null;
+        }
+    }
+
+    private static final class ViewChange {
+        final UnaryOperator<LibraryView> change;
+        RuntimeException failure; // written before applied, read after
+        volatile boolean applied;
+
+        ViewChange(UnaryOperator<LibraryView> change) {
+            this.change = change;
+        }
+    }
+
     public List<Loan> listActiveLoansSortedByDueDate() {
-        return loansById.values().stream()
-                .filter(Loan::isActive)
-                .sorted(Comparator.comparing(Loan::getDueDate))
-                .collect(Collectors.toList());
+        long start = ServiceMetrics.start();
+        List<Loan> res = view.listActiveLoansSortedByDueDate();
+        metrics.record(Operation.LIST_ACTIVE_LOANS, start);
+        return res;
+    }
+
+    public Stream<Loan> streamActiveLoansSortedByDueDate() {
+        return view.streamActiveLoansSortedByDueDate();
+    }
+
+    /**
+     * Active loans by due date, a page at a time: null cursor for the first page, then the
+     * previous page's next cursor ("epochDay/loanId" of its last loan's due date and id).
+     * Each page reads the view current at the call.
+     */
+    public Page<Loan> listActiveLoansPage(String cursor, int limit) {
+        return view.listActiveLoansPage(cursor, limit);
+    }
+
+    // the first n active loans to fall due
+    public List<Loan> listFirstDue(int n) {
+        long start = ServiceMetrics.start();
+        List<Loan> res = view.listFirstDue(n);
+        metrics.record(Operation.LIST_FIRST_DUE, start);
+        return res;
+    }
+
+    // active loans whose due date is strictly before the given date
+    public List<Loan> listOverdue(LocalDate asOf) {
+        long start = ServiceMetrics.start();
+        List<Loan> res = view.listDueFrom(null, asOf);
+        metrics.record(Operation.LIST_OVERDUE, start);
+        return res;
+    }
+
+    // active loans due between from and to (both inclusive)
+    public List<Loan> listDueBetween(LocalDate from, LocalDate to) {
+        if(to.isBefore(from)) return Collections.emptyList();
+        long start = ServiceMetrics.start();
+        List<Loan> res = view.listDueFrom(from, to.plusDays(1));
+        metrics.record(Operation.LIST_DUE_BETWEEN, start);
+        return res;
     }
 
     public List<Loan> listLoansByMember(long memberId) {
-        if(!membersById.containsKey(memberId)) return Collections.emptyList();
-        return loansById.values().stream()
-                .filter( l -> l.getMemberId() == memberId)
-                .sorted(Comparator.comparing(Loan::getId))
-                .collect(Collectors.toList());
+        long start = ServiceMetrics.start();
+        List<Loan> res = loansOf(memberId);
+        metrics.record(Operation.LIST_MEMBER_LOANS, start, res != null);
+        return res == null ? Collections.emptyList() : res;
+    }
+
+    // null for an unknown member
+    private List<Loan> loansOf(long memberId) {
+        LongList ids = loanIdsByMember.get(memberId);
+        if(ids == null) return null;
+        long[] copy = ids.toArray();
+        // concurrent borrows by the same member may append out of order
+        Arrays.sort(copy);
+        List<Loan> res = new ArrayList<>(copy.length);
+        for(long id : copy) {
+            Loan l = loansById.get(id);
+            if(l == null) l = archive.get(id);
+            if(l != null) res.add(l); // null only while a borrow is still publishing it
+        }
+        return res;
     }
 
     public boolean updateMemberEmail(long memberId, String email) {
         Member m = membersById.get(memberId);
         if(m == null) return false;
         if(email == null || email.isBlank()) return false;
-        m.setEmail(email);
+        checkText(email, "email");
+        // the log wait is inside the member's lock: one member's updates must be applied in log
+        // order; only other updates of the same member wait for it
+        synchronized (m) {
+            long ticket = logChange(out -> out.memberEmailUpdated(memberId, email), NOTHING);
+            try {
+                m.setEmail(email);
+                for(LibraryMutationListener l : listeners) l.memberEmailUpdated(memberId, email);
+            } finally {
+                logApplied(ticket);
+            }
+        }
         return true;
     }
 
@@ -109,29 +837,168 @@ public class LibraryService {
     }
 
     public List<Member> listMembersSortedByName() {
-        return membersById.values().stream()
-                .sorted(Comparator.comparing(Member::getName, String.CASE_INSENSITIVE_ORDER))
-                .collect(Collectors.toList());
+        return view.listMembersSortedByName();
+    }
+
+    public Stream<Member> streamMembersSortedByName() {
+        return view.streamMembersSortedByName();
     }
 
-    public class LoanStats {
-        public int total;
-        public int active;
+    // null cursor for the first page, then the previous page's next cursor
+    public Page<Member> listMembersPage(String cursor, int limit) {
+        return view.listMembersPage(cursor, limit);
+    }
+
+    // a member's loan counters at one point in time (read from a LibraryView)
+    public static class LoanStats {
+        private final int total;
+        private final int active;
 
-        public void incTotal() {total++;}
-        public void incActive() {active++;}
+        public LoanStats(int total, int active) {
+            this.total = total;
+            this.active = active;
+        }
 
         public int getTotal() {return total;}
         public int getActive() {return active;}
     }
 
+    /**
+     * Loan counters of one member, a few array reads.
+     * @return the member's stats, or null if the member does not exist
+     */
+    public LoanStats statsFor(long memberId) {
+        return view.statsFor(memberId);
+    }
+
+    /**
+     * The loan counters of every member, as of the call: nothing is recomputed and the map
+     * never changes afterwards, even while loans keep being borrowed and returned.
+     */
     public Map<Long, LoanStats> computeLoanStatsByMember() {
-        Map<Long, LoanStats> stats = new HashMap<>();
-        for(Loan loan : loansById.values()) {
-            long memberId = loan.getMemberId();
-            LoanStats s = stats.computeIfAbsent(memberId, k -> new LoanStats());
-            if(loan.isActive()) s.active++;
+        return view.loanStatsByMember();
+    }
+
+    /**
+     * Latency histograms and call counts of the hot operations since start, plus gauges:
+     * catalog and member counts, active and archived loans, index and hold queue sizes.
+     * Cheap enough to poll every few seconds (gauges cost a pass over the hold queues).
+     */
+    public ServiceMetrics.Snapshot metrics() {
+        Map<String, Long> gauges = new LinkedHashMap<>();
+        gauges.put("books", (long) booksByIsbn.size());
+        gauges.put("members", (long) membersById.size());
+        gauges.put("activeLoans", (long) loansById.size());
+        gauges.put("archivedLoans", (long) archive.size());
+        gauges.put("titleIndexEntries", (long) booksByTitle.size());
+        gauges.put("trigramIndexEntries", (long) bookTrigrams.size());
+        long waiting = 0;
+        for(HoldQueue q : holdsByIsbn.values()) {
+            synchronized (q) {
+                waiting += q.waiting.size();
+            }
         }
-        return stats;
+        gauges.put("holdQueues", (long) holdsByIsbn.size());
+        gauges.put("waitingHolds", waiting);
+        return metrics.snapshot(gauges);
+    }
+
+    // ------------------------------ RECOVERY ------------------------------------------
+    // Used to rebuild a service from a snapshot + log. Listeners are not called and
+    // every method is idempotent, so a record that is already part of the state is skipped.
+    // Records may also arrive a bit out of order (a loan before its book or member).
+
+    public void restoreBook(Book book) {
+        insertBook(book);
+    }
+
+    public void restoreMember(long id, String name, String email) {
+        if(membersById.containsKey(id)) return;
+        insertMember(new Member(id, name, email));
+        nextMemberId.accumulateAndGet(id + shardCount, Math::max);
+    }
+
+    public void restoreMemberEmail(long memberId, String email) {
+        Member m = membersById.get(memberId);
+        if(m != null) m.setEmail(email);
+    }
+
+    public void restoreLoan(Loan loan) {
+        if(loansById.containsKey(loan.getId()) || archive.contains(loan.getId())) return;
+        if(loan.isActive()) {
+            activeLoansCountByIsbn.computeIfAbsent(loan.getIsbn(), k -> new AtomicInteger()).incrementAndGet();
+        }
+        insertLoan(loan);
+        nextLoanId.accumulateAndGet(loan.getId() + shardCount, Math::max);
+    }
+
+    public void restoreReturn(long loanId, LocalDate returnDate) {
+        Loan loan = loansById.get(loanId);
+        if(loan == null || !loan.markReturned(returnDate)) return;
+        archiveLoan(loan);
+        passCopyOn(loan.getIsbn());
+    }
+
+    /** Releases the loan archive (deleting its files); the service can't be used afterwards. */
+    @Override
+    public void close() {
+        archive.close();
+    }
+
+    // ------------------------------ LOG ------------------------------------------
+
+    private static final Runnable NOTHING = () -> {};
+
+    /**
+     * Appends a change's records to the log and waits until they are durable, holding no
+     * lock of its own. If either fails, undo runs and the exception goes to the caller:
+     * the change must not be applied then.
+     * @return the ticket to pass to logApplied once the change is applied, 0 without a log
+     */
+    private long logChange(Consumer<LibraryMutationListener> records, Runnable undo) {
+        MutationLog l = log;
+        if(l == null) return 0;
+        long ticket = 0;
+        try {
+            ticket = l.append(records);
+            l.awaitDurable(ticket);
+            return ticket;
+        } catch (RuntimeException e) {
+            undo.run();
+            if(ticket != 0) l.applied(ticket);
+            throw e;
+        }
+    }
+
+    private void logApplied(long ticket) {
+        if(ticket != 0) log.applied(ticket);
+    }
+
+    // checked before a change is logged: a record field holds at most 64 KB
+    private static void checkText(String text, String field) {
+        if(text != null && text.length() > Validators.MAX_TEXT_LENGTH) {
+            throw new IllegalArgumentException(field + " is longer than " + Validators.MAX_TEXT_LENGTH + " characters");
+        }
+    }
+
+    /**
+     * Replays the current state as records: every book, every member (with the
+     * current email), every loan, plus a loanReturned for the returned ones.
+     * Runs alongside writers; feeding the output to the restore methods and then
+     * the log written after the call started gives back the same state.
+     */
+    public void exportState(LibraryMutationListener out) {
+        for(Book b : booksByIsbn.values()) out.bookAdded(b);
+        membersById.forEachValue(m -> out.memberRegistered(m.getId(), m.getName(), m.getEmail()));
+        loansById.forEachValue(loan -> {
+            LocalDate returned = loan.getReturnDate();
+            out.loanCreated(loan);
+            if(returned != null) out.loanReturned(loan.getId(), returned);
+        });
+        // after loansById: a loan being archived meanwhile is seen in at least one of the two
+        archive.forEach(loan -> {
+            out.loanCreated(loan);
+            out.loanReturned(loan.getId(), loan.getReturnDate());
+        });
     }
 }
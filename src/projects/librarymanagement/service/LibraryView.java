@@ -0,0 +1,233 @@
+package projects.librarymanagement.service;
+
+import projects.common.Page;
+import projects.common.PersistentLongArray;
+import projects.common.PersistentSortedMap;
+import projects.common.PrefixIndex;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.domain.Member;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * One consistent, point-in-time version of what the reports read: the active loans by due
+ * date, the members by name and every member's loan counters.
+ * LibraryService keeps the newest view in a volatile field. Each borrow, return or
+ * registration builds the next view from it (persistent maps: O(log n) new nodes, the rest
+ * shared); changes that queue up meanwhile are applied in one go and published once.
+ * A reader takes the current view once and scans it without locks for as long as it likes;
+ * later writes neither wait for it nor show up in it, and it never shows half of a write
+ * (e.g. a loan without its counters).
+ * Loans and members are the live objects: a loan returned after the view was taken is still
+ * listed as active here, with its return date set; an email change shows up at once.
+ */
+public final class LibraryView {
+    // active loans by due date, loan id breaks ties
+    private static final Comparator<Loan> BY_DUE_DATE = (a, b) -> {
+        int c = a.getDueDate().compareTo(b.getDueDate());
+        return c != 0 ? c : Long.compare(a.getId(), b.getId());
+    };
+
+    static final LibraryView EMPTY = new LibraryView(0, PersistentSortedMap.empty(BY_DUE_DATE),
+            PersistentSortedMap.empty(), PersistentLongArray.empty(), 0);
+
+    private final long version;
+    private final PersistentSortedMap<Loan, Loan> activeLoans;
+    private final PersistentSortedMap<String, Member> members; // by PrefixIndex key (folded name, id)
+    // per member id: total loans + 1 in the high half, active loans in the low half (0 = no member)
+    private final PersistentLongArray stats;
+    private final int statsCount;
+
+    private LibraryView(long version, PersistentSortedMap<Loan, Loan> activeLoans, PersistentSortedMap<String, Member> members,
+                        PersistentLongArray stats, int statsCount) {
+        this.version = version;
+        this.activeLoans = activeLoans;
+        this.members = members;
+        this.stats = stats;
+        this.statsCount = statsCount;
+    }
+
+    // number of changes before this view, for telling two views apart
+    public long getVersion() {return version;}
+
+    // ------------------------------ LOANS ------------------------------------------
+
+    public int activeLoanCount() {return activeLoans.size();}
+
+    public List<Loan> listActiveLoansSortedByDueDate() {
+        return new ArrayList<>(activeLoans.values());
+    }
+
+    public Stream<Loan> streamActiveLoansSortedByDueDate() {
+        return activeLoans.values().stream();
+    }
+
+    /**
+     * Active loans by due date, a page at a time: null cursor for the first page, then the
+     * previous page's next cursor ("epochDay/loanId" of its last loan's due date and id).
+     */
+    public Page<Loan> listActiveLoansPage(String cursor, int limit) {
+        Loan after = null;
+        if(cursor != null) {
+            int slash = cursor.indexOf('/');
+            try {
+                LocalDate due = LocalDate.ofEpochDay(Long.parseLong(cursor.substring(0, Math.max(slash, 0))));
+                after = new Loan(Long.parseLong(cursor.substring(slash + 1)), null, 0L, null, due);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Bad cursor: " + cursor);
+            }
+        }
+        List<Loan> items = new ArrayList<>(Math.min(limit, 1024));
+        Iterator<Loan> it = activeLoans.valuesFrom(after, false);
+        while(it.hasNext()) {
+            Loan l = it.next();
+            if(items.size() >= limit) {
+                Loan last = items.get(items.size() - 1);
+                return new Page<>(items, last.getDueDate().toEpochDay() + "/" + last.getId());
+            }
+            items.add(l);
+        }
+        return new Page<>(items, null);
+    }
+
+    // the first n active loans to fall due
+    public List<Loan> listFirstDue(int n) {
+        List<Loan> res = new ArrayList<>(Math.min(n, activeLoans.size()));
+        Iterator<Loan> it = activeLoans.valuesFrom(null, true);
+        while(res.size() < n && it.hasNext()) res.add(it.next());
+        return res;
+    }
+
+    // active loans due from `from` (inclusive) to before `until` (exclusive), in due date order
+    List<Loan> listDueFrom(LocalDate from, LocalDate until) {
+        List<Loan> res = new ArrayList<>();
+        Iterator<Loan> it = activeLoans.valuesFrom(from == null ? null : dueDateBound(from), true);
+        while(it.hasNext()) {
+            Loan l = it.next();
+            if(!l.getDueDate().isBefore(until)) break;
+            res.add(l);
+        }
+        return res;
+    }
+
+    // probe loan that sorts before every real loan due on that date
+    private static Loan dueDateBound(LocalDate date) {
+        return new Loan(Long.MIN_VALUE, null, 0L, null, date);
+    }
+
+    // ------------------------------ MEMBERS ------------------------------------------
+
+    public int memberCount() {return members.size();}
+
+    public List<Member> listMembersSortedByName() {
+        return new ArrayList<>(members.values());
+    }
+
+    public Stream<Member> streamMembersSortedByName() {
+        return members.values().stream();
+    }
+
+    // null cursor for the first page, then the previous page's next cursor
+    public Page<Member> listMembersPage(String cursor, int limit) {
+        List<Member> items = new ArrayList<>(Math.min(limit, 1024));
+        String last = null;
+        Iterator<Map.Entry<String, Member>> it = members.entriesFrom(cursor, false);
+        while(it.hasNext()) {
+            Map.Entry<String, Member> e = it.next();
+            if(items.size() >= limit) return new Page<>(items, last);
+            items.add(e.getValue());
+            last = e.getKey();
+        }
+        return new Page<>(items, null);
+    }
+
+    /** @return the member's loan counters, or null if the member does not exist */
+    public LibraryService.LoanStats statsFor(long memberId) {
+        return decode(stats.get(memberId));
+    }
+
+    /** Loan counters of every member, in member id order. */
+    public Map<Long, LibraryService.LoanStats> loanStatsByMember() {
+        return new AbstractMap<>() {
+            @Override
+            public LibraryService.LoanStats get(Object key) {
+                return key instanceof Long id ? statsFor(id) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public int size() {return statsCount;}
+
+            @Override
+            public Set<Entry<Long, LibraryService.LoanStats>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<Long, LibraryService.LoanStats>> iterator() {
+                        PersistentLongArray.Cursor c = stats.cursor();
+                        return new Iterator<>() {
+                            boolean ahead = c.next();
+
+                            @Override
+                            public boolean hasNext() {return ahead;}
+
+                            @Override
+                            public Entry<Long, LibraryService.LoanStats> next() {
+                                if(!ahead) throw new NoSuchElementException();
+                                Entry<Long, LibraryService.LoanStats> e = new SimpleImmutableEntry<>(c.index(), decode(c.value()));
+                                ahead = c.next();
+                                return e;
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {return statsCount;}
+                };
+            }
+        };
+    }
+
+    private static LibraryService.LoanStats decode(long packed) {
+        return packed == 0 ? null : new LibraryService.LoanStats((int) (packed >>> 32) - 1, (int) packed);
+    }
+
+    // ------------------------------ NEXT VERSIONS ------------------------------------------
+    // Pure functions of this view. The service's combiner runs each change exactly once, on the
+    // newest view, one at a time; the result is published with the rest of its batch.
+
+    LibraryView withMember(Member m) {
+        long id = m.getId();
+        PersistentSortedMap<String, Member> byName = members.put(PrefixIndex.key(m.getName(), Long.toString(id)), m);
+        // restored loans may have created the counters already
+        if(stats.get(id) != 0) return new LibraryView(version + 1, activeLoans, byName, stats, statsCount);
+        return new LibraryView(version + 1, activeLoans, byName, stats.set(id, 1L << 32), statsCount + 1);
+    }
+
+    LibraryView withLoan(Loan loan) {
+        boolean active = loan.isActive();
+        return withStats(active ? activeLoans.put(loan, loan) : activeLoans, loan.getMemberId(), 1, active ? 1 : 0);
+    }
+
+    // a basket of one member's new loans
+    LibraryView withLoans(long memberId, Loan[] loans) {
+        PersistentSortedMap<Loan, Loan> active = activeLoans;
+        for(Loan loan : loans) active = active.put(loan, loan);
+        return withStats(active, memberId, loans.length, loans.length);
+    }
+
+    LibraryView withReturned(Loan loan) {
+        return withStats(activeLoans.remove(loan), loan.getMemberId(), 0, -1);
+    }
+
+    private LibraryView withStats(PersistentSortedMap<Loan, Loan> active, long memberId, int total, int activeDelta) {
+        long old = stats.get(memberId);
+        long packed = (old == 0 ? 1L << 32 : old) + ((long) total << 32) + activeDelta;
+        return new LibraryView(version + 1, active, members, stats.set(memberId, packed), old == 0 ? statsCount + 1 : statsCount);
+    }
+}
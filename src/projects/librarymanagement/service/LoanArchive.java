@@ -0,0 +1,206 @@
+package projects.librarymanagement.service;
+
+import projects.librarymanagement.domain.Loan;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Returned loans, stored off-heap in columnar segments: memory-mapped segment files
+ * (loans-000001.seg, ...) in a directory, or direct buffers when no directory is given.
+ * Each segment holds segmentRows rows laid out column after column:
+ * loan id (long) | member id (long) | ISBN code (int) | loan, due, return date (int epoch days).
+ * ISBNs are dictionary-encoded (one String per distinct ISBN); the only per-loan heap cost
+ * is the loan id -> row slot (an int).
+ *
+ * The files are scratch space: the write-ahead log stays the source of truth, so whatever
+ * is found in the directory on start is discarded, and close() deletes them. Direct buffers
+ * go with the archive object, nothing is left behind.
+ * Appends are synchronized; lookups take no lock (a row is published by the volatile row count).
+ */
+public class LoanArchive {
+    private static final int FILE_SEGMENT_BITS = 20;   // 32 MB per segment file
+    private static final int MEMORY_SEGMENT_BITS = 15; // 1 MB per direct buffer, small archives stay small
+    private static final int ROW_BYTES = 8 + 8 + 4 + 4 + 4 + 4;
+
+    private final int segmentBits;
+    private final int segmentRows;
+    // column offsets inside a segment
+    private final int memberIdColumn;
+    private final int isbnColumn;
+    private final int loanDayColumn;
+    private final int dueDayColumn;
+    private final int returnDayColumn;
+
+    private static final int SLOT_BITS = 16;
+    private static final int SLOT_CHUNK = 1 << SLOT_BITS;
+
+    private final Path dir; // null: direct buffers
+    private volatile ByteBuffer[] segments = new ByteBuffer[0];
+    private volatile int rows; // rows below this are complete
+    private boolean closed;
+
+    // row + 1 per loan id (0 = not archived), in chunks so growing never copies everything
+    private volatile int[][] rowSlots = new int[0][];
+
+    private final Map<String, Integer> isbnCodes = new HashMap<>();
+    private volatile String[] isbnByCode = new String[16];
+    private int isbnCount;
+
+    // archive in direct buffers, no files
+    public LoanArchive() {
+        this(null, MEMORY_SEGMENT_BITS);
+    }
+
+    // archive in segment files under dir
+    public LoanArchive(Path dir) {
+        this(dir, FILE_SEGMENT_BITS);
+        deleteSegmentFiles();
+    }
+
+    private LoanArchive(Path dir, int segmentBits) {
+        this.dir = dir;
+        this.segmentBits = segmentBits;
+        this.segmentRows = 1 << segmentBits;
+        this.memberIdColumn = 8 * segmentRows;
+        this.isbnColumn = memberIdColumn + 8 * segmentRows;
+        this.loanDayColumn = isbnColumn + 4 * segmentRows;
+        this.dueDayColumn = loanDayColumn + 4 * segmentRows;
+        this.returnDayColumn = dueDayColumn + 4 * segmentRows;
+    }
+
+    public int size() {return rows;}
+
+    /** Stores a returned loan. */
+    public synchronized void append(Loan loan) {
+        if(closed) throw new IllegalStateException("Loan archive is closed");
+        int row = rows;
+        ByteBuffer seg = segmentFor(row);
+        int i = row & (segmentRows - 1);
+        seg.putLong(8 * i, loan.getId());
+        seg.putLong(memberIdColumn + 8 * i, loan.getMemberId());
+        seg.putInt(isbnColumn + 4 * i, codeOf(loan.getIsbn()));
+        seg.putInt(loanDayColumn + 4 * i, (int) loan.getLoanDate().toEpochDay());
+        seg.putInt(dueDayColumn + 4 * i, (int) loan.getDueDate().toEpochDay());
+        seg.putInt(returnDayColumn + 4 * i, (int) loan.getReturnDate().toEpochDay());
+        setSlot(loan.getId(), row + 1);
+        rows = row + 1; // publishes the row
+    }
+
+    public boolean contains(long loanId) {
+        return rowOf(loanId) >= 0;
+    }
+
+    /** @return a new Loan rebuilt from the archive, or null if the loan is not archived */
+    public Loan get(long loanId) {
+        int row = rowOf(loanId);
+        return row < 0 ? null : read(row);
+    }
+
+    /** Rebuilds every archived loan, in the order they were archived. */
+    public void forEach(Consumer<Loan> action) {
+        int n = rows;
+        for(int row = 0; row < n; row++) action.accept(read(row));
+    }
+
+    private int rowOf(long loanId) {
+        int[][] slots = rowSlots;
+        if(loanId < 0) return -1;
+        long chunk = loanId >>> SLOT_BITS;
+        if(chunk >= slots.length || slots[(int) chunk] == null) return -1;
+        int row = slots[(int) chunk][(int) (loanId & (SLOT_CHUNK - 1))] - 1;
+        return row < rows ? row : -1; // the volatile read makes the row's columns visible
+    }
+
+    private Loan read(int row) {
+        ByteBuffer seg = segments[row >>> segmentBits];
+        int i = row & (segmentRows - 1);
+        return new Loan(seg.getLong(8 * i),
+                isbnByCode[seg.getInt(isbnColumn + 4 * i)],
+                seg.getLong(memberIdColumn + 8 * i),
+                LocalDate.ofEpochDay(seg.getInt(loanDayColumn + 4 * i)),
+                LocalDate.ofEpochDay(seg.getInt(dueDayColumn + 4 * i)),
+                LocalDate.ofEpochDay(seg.getInt(returnDayColumn + 4 * i)));
+    }
+
+    /**
+     * Drops the segments and deletes the segment files; the archive can't be used afterwards.
+     * (A file's mapping is only released once the buffer is collected, deleting it is fine before.)
+     */
+    public synchronized void close() {
+        if(closed) return;
+        closed = true;
+        rows = 0;
+        segments = new ByteBuffer[0];
+        rowSlots = new int[0][];
+        deleteSegmentFiles();
+    }
+
+    // caller holds the lock
+    private ByteBuffer segmentFor(int row) {
+        int n = row >>> segmentBits;
+        if(n < segments.length) return segments[n];
+        ByteBuffer seg = dir == null ? ByteBuffer.allocateDirect(ROW_BYTES * segmentRows) : mapSegment(n + 1);
+        ByteBuffer[] grown = Arrays.copyOf(segments, n + 1);
+        grown[n] = seg;
+        segments = grown;
+        return seg;
+    }
+
+    private MappedByteBuffer mapSegment(int number) {
+        Path file = dir.resolve(String.format("loans-%06d.seg", number));
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // the mapping stays valid after the channel is closed
+            return ch.map(FileChannel.MapMode.READ_WRITE, 0, (long) ROW_BYTES * segmentRows);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void deleteSegmentFiles() {
+        if(dir == null) return;
+        try {
+            Files.createDirectories(dir);
+            try (DirectoryStream<Path> old = Files.newDirectoryStream(dir, "loans-*.seg")) {
+                for(Path p : old) Files.delete(p);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // caller holds the lock
+    private void setSlot(long loanId, int value) {
+        int chunk = (int) (loanId >>> SLOT_BITS);
+        int[][] slots = rowSlots;
+        if(chunk >= slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(chunk + 1, slots.length * 2));
+        }
+        if(slots[chunk] == null) slots[chunk] = new int[SLOT_CHUNK];
+        slots[chunk][(int) (loanId & (SLOT_CHUNK - 1))] = value;
+        rowSlots = slots;
+    }
+
+    // caller holds the lock
+    private int codeOf(String isbn) {
+        Integer code = isbnCodes.get(isbn);
+        if(code != null) return code;
+        if(isbnCount == isbnByCode.length) isbnByCode = Arrays.copyOf(isbnByCode, isbnCount * 2);
+        isbnByCode[isbnCount] = isbn;
+        isbnCodes.put(isbn, isbnCount);
+        return isbnCount++;
+    }
+}
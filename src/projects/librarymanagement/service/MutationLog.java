@@ -0,0 +1,29 @@
+package projects.librarymanagement.service;
+
+import java.util.function.Consumer;
+
+/**
+ * A write-ahead log for a LibraryService (see LibraryService.setLog). For every change the
+ * service calls append with the change's records, waits in awaitDurable without holding
+ * any lock that other changes or readers need, only then applies the change and tells the
+ * listeners, and finally calls applied, also when the change was rolled back.
+ * Implemented by the persistence layer's WriteAheadLog.
+ */
+public interface MutationLog {
+
+    /**
+     * Appends the records the consumer writes (listener calls, one record each; baskets
+     * are one record) as one unit.
+     * @return a ticket, greater than 0 and increasing with every append
+     */
+    long append(Consumer<LibraryMutationListener> records);
+
+    /**
+     * Waits until the appended records are as durable as the log promises.
+     * @throws java.io.UncheckedIOException if they never will be (the change must not be applied)
+     */
+    void awaitDurable(long ticket);
+
+    // the change is applied (or rolled back) in memory; a snapshot of the state may be taken from here on
+    void applied(long ticket);
+}
@@ -0,0 +1,29 @@
+package projects.librarymanagement.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for one LibraryService operation (see ServiceMetrics). Committed when the
+ * call ends, so the latency is a field rather than the event's own duration.
+ */
+@Name("projects.library.Operation")
+@Label("Library Operation")
+@Category({"Library", "Service"})
+@Description("One call of a LibraryService hot operation")
+@StackTrace(false)
+final class OperationEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+
+    @Label("Succeeded")
+    boolean succeeded;
+}
@@ -0,0 +1,97 @@
+package projects.librarymanagement.service;
+
+import projects.common.LatencyHistogram;
+import projects.common.LatencyRecorder;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and call counts of the service's hot operations, recorded inline by LibraryService
+ * and read pull-style through LibraryService.metrics(). Counters only grow, so a scraper
+ * diffs two snapshots for rates.
+ * Every call is counted; one in SAMPLE_EVERY (picked at random) is timed, since a clock read
+ * costs about as much as a lookup (~40 ns). The histograms are a sample, their percentiles
+ * stay unbiased, and the bookkeeping comes to ~25 ns per call: under 1% of a borrow or a
+ * return, a few percent of the fastest list calls.
+ * While a JFR recording has the "projects.library.Operation" event enabled, every call is
+ * timed and becomes an event, e.g.
+ *   java -XX:StartFlightRecording=filename=library.jfr ...
+ *   jfr print --events projects.library.Operation library.jfr
+ */
+public final class ServiceMetrics {
+
+    public enum Operation {
+        BORROW, RETURN, BORROW_ALL, RETURN_ALL, PLACE_HOLD,
+        SEARCH_TITLE_PREFIX, SEARCH_FUZZY,
+        LIST_ACTIVE_LOANS, LIST_FIRST_DUE, LIST_OVERDUE, LIST_DUE_BETWEEN, LIST_MEMBER_LOANS
+    }
+
+    /**
+     * Totals of one operation since start. A failure is a call that returned null/false
+     * (unknown book or member, no copy left, ...); its latency is recorded as well.
+     * latency holds the timed calls only (about calls / SAMPLE_EVERY of them).
+     */
+    public record OperationStats(long calls, long failures, LatencyHistogram latency) {}
+
+    /** Operations in declaration order, gauges in LibraryService.metrics() order. */
+    public record Snapshot(Instant takenAt, Map<Operation, OperationStats> operations, Map<String, Long> gauges) {}
+
+    public static final int SAMPLE_EVERY = 16; // a power of two
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private final LatencyRecorder[] latency = new LatencyRecorder[OPERATIONS.length];
+    private final LongAdder[] calls = new LongAdder[OPERATIONS.length];
+    private final LongAdder[] failures = new LongAdder[OPERATIONS.length];
+
+    ServiceMetrics() {
+        for(int i = 0; i < OPERATIONS.length; i++) {
+            latency[i] = new LatencyRecorder();
+            calls[i] = new LongAdder();
+            failures[i] = new LongAdder();
+        }
+    }
+
+    // the start time if this call is timed, else NOT_TIMED
+    static long start() {
+        // the event object is scalar-replaced by the JIT, isEnabled is a flag read
+        if((ThreadLocalRandom.current().nextInt() & (SAMPLE_EVERY - 1)) == 0 || new OperationEvent().isEnabled()) {
+            return System.nanoTime();
+        }
+        return NOT_TIMED;
+    }
+
+    void record(Operation op, long start) {
+        record(op, start, true);
+    }
+
+    void record(Operation op, long start, boolean succeeded) {
+        calls[op.ordinal()].increment();
+        if(!succeeded) failures[op.ordinal()].increment();
+        if(start == NOT_TIMED) return;
+        long nanos = System.nanoTime() - start;
+        latency[op.ordinal()].record(nanos);
+        OperationEvent event = new OperationEvent();
+        if(event.isEnabled()) {
+            event.operation = op.name();
+            event.latency = nanos;
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    Snapshot snapshot(Map<String, Long> gauges) {
+        Map<Operation, OperationStats> ops = new EnumMap<>(Operation.class);
+        for(Operation op : OPERATIONS) {
+            LatencyHistogram h = latency[op.ordinal()].snapshot();
+            ops.put(op, new OperationStats(calls[op.ordinal()].sum(), failures[op.ordinal()].sum(), h));
+        }
+        return new Snapshot(Instant.now(), Collections.unmodifiableMap(ops), Collections.unmodifiableMap(gauges));
+    }
+}
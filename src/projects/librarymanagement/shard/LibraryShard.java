@@ -0,0 +1,40 @@
+package projects.librarymanagement.shard;
+
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.domain.Member;
+import projects.librarymanagement.service.LibraryService;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * One shard as the ShardedLibrary router sees it: a LibraryService that holds some of the
+ * books (with their loans) and some of the members, in this JVM (LocalShard) or behind a
+ * LibraryServer on localhost (RemoteShard). The methods mean what they mean on
+ * LibraryService; lists come in the same order.
+ */
+public interface LibraryShard extends Closeable {
+    Book addBook(String isbn, String title, String author, int totalCopies);
+    Book findBookByIsbn(String isbn);
+    int availableCopies(String isbn);
+    Loan borrow(String isbn, long memberId);
+    boolean returnLoan(long loanId);
+
+    Member registerMember(String name, String email);
+    Member findMemberById(long memberId);
+    boolean updateMemberEmail(long memberId, String email);
+
+    // the counters of the member's loans of this shard's books, null if there are none
+    LibraryService.LoanStats statsFor(long memberId);
+    // the member's loans of this shard's books, by loan id
+    List<Loan> listLoansByMember(long memberId);
+
+    List<Book> searchBooks(String text, int limit);
+    List<Book> searchBooksByTitlePrefix(String prefix, int limit);
+
+    // active loans by due date (then loan id), read lazily
+    Iterator<Loan> activeLoansByDueDate();
+    List<Loan> listFirstDue(int n);
+}
@@ -0,0 +1,96 @@
+package projects.librarymanagement.shard;
+
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.domain.Member;
+import projects.librarymanagement.service.LibraryService;
+
+import java.util.Iterator;
+import java.util.List;
+
+/** A shard in this JVM: calls go straight to its LibraryService. */
+public final class LocalShard implements LibraryShard {
+    private final LibraryService service;
+
+    // service must be built as this shard (LibraryService(archiveDir, shard, shardCount))
+    public LocalShard(LibraryService service) {
+        this.service = service;
+    }
+
+    public LibraryService getService() {return service;}
+
+    @Override
+    public Book addBook(String isbn, String title, String author, int totalCopies) {
+        return service.addBook(isbn, title, author, totalCopies);
+    }
+
+    @Override
+    public Book findBookByIsbn(String isbn) {
+        return service.findBookByIsbn(isbn);
+    }
+
+    @Override
+    public int availableCopies(String isbn) {
+        return service.availableCopies(isbn);
+    }
+
+    @Override
+    public Loan borrow(String isbn, long memberId) {
+        return service.borrow(isbn, memberId);
+    }
+
+    @Override
+    public boolean returnLoan(long loanId) {
+        return service.returnLoan(loanId);
+    }
+
+    @Override
+    public Member registerMember(String name, String email) {
+        return service.registerMember(name, email);
+    }
+
+    @Override
+    public Member findMemberById(long memberId) {
+        return service.findMemberById(memberId);
+    }
+
+    @Override
+    public boolean updateMemberEmail(long memberId, String email) {
+        return service.updateMemberEmail(memberId, email);
+    }
+
+    @Override
+    public LibraryService.LoanStats statsFor(long memberId) {
+        return service.statsFor(memberId);
+    }
+
+    @Override
+    public List<Loan> listLoansByMember(long memberId) {
+        return service.listLoansByMember(memberId);
+    }
+
+    @Override
+    public List<Book> searchBooks(String text, int limit) {
+        return service.searchBooks(text, limit);
+    }
+
+    @Override
+    public List<Book> searchBooksByTitlePrefix(String prefix, int limit) {
+        return service.searchBooksByTitlePrefix(prefix, limit);
+    }
+
+    @Override
+    public Iterator<Loan> activeLoansByDueDate() {
+        return service.streamActiveLoansSortedByDueDate().iterator();
+    }
+
+    @Override
+    public List<Loan> listFirstDue(int n) {
+        return service.listFirstDue(n);
+    }
+
+    @Override
+    public void close() {
+        // the service belongs to whoever built it
+    }
+}
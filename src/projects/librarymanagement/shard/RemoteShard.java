@@ -0,0 +1,271 @@
+package projects.librarymanagement.shard;
+
+import projects.common.JsonReader;
+import projects.common.LineReader;
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.domain.Member;
+import projects.librarymanagement.server.LibraryProtocol;
+import projects.librarymanagement.service.LibraryService;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+/**
+ * A shard in another JVM: a LibraryServer started with --shard i/n, spoken to with the line
+ * protocol (see LibraryProtocol). Each call borrows a connection from a pool (a new one when
+ * all are busy), so concurrent callers don't queue behind each other. The server checks the
+ * arguments as it does for any client (e.g. an invalid email is refused).
+ * A lost connection surfaces as an UncheckedIOException.
+ */
+public final class RemoteShard implements LibraryShard {
+    private static final int MAX_LINE = 16 * 1024 * 1024; // a full DUE page
+    private static final int PAGE = 1_000;
+    private static final Object FAILED = new Object(); // an ERR response
+
+    private final InetSocketAddress address;
+    private final Queue<Connection> idle = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    private RemoteShard(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    // the shard server on localhost:port
+    public static RemoteShard connect(int port) {
+        return new RemoteShard(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    @Override
+    public Book addBook(String isbn, String title, String author, int totalCopies) {
+        return book(call("ADDBOOK " + totalCopies + " " + word(isbn) + " " + field(title, "title") + "\t" + field(author, "author")));
+    }
+
+    @Override
+    public Book findBookByIsbn(String isbn) {
+        return book(call("BOOK " + word(isbn)));
+    }
+
+    @Override
+    public int availableCopies(String isbn) {
+        Object r = call("BOOK " + word(isbn));
+        return r == FAILED ? 0 : (int) number(((Map<?, ?>) r).get("available"));
+    }
+
+    @Override
+    public Loan borrow(String isbn, long memberId) {
+        return loan(call("BORROW " + word(isbn) + " " + memberId));
+    }
+
+    @Override
+    public boolean returnLoan(long loanId) {
+        return call("RETURN " + loanId) != FAILED;
+    }
+
+    @Override
+    public Member registerMember(String name, String email) {
+        String line = "REGISTER " + word(email) + " " + text(name, "name");
+        Object r = call(line);
+        if(r == FAILED) throw new IllegalArgumentException("Shard " + address + " refused " + line);
+        return member(r);
+    }
+
+    @Override
+    public Member findMemberById(long memberId) {
+        return member(call("MEMBER " + memberId));
+    }
+
+    @Override
+    public boolean updateMemberEmail(long memberId, String email) {
+        return call("EMAIL " + memberId + " " + word(email)) != FAILED;
+    }
+
+    @Override
+    public LibraryService.LoanStats statsFor(long memberId) {
+        Object r = call("STATS " + memberId);
+        if(r == FAILED || r == null) return null;
+        Map<?, ?> m = (Map<?, ?>) r;
+        return new LibraryService.LoanStats((int) number(m.get("total")), (int) number(m.get("active")));
+    }
+
+    @Override
+    public List<Loan> listLoansByMember(long memberId) {
+        return list(call("LOANS " + memberId), RemoteShard::loan);
+    }
+
+    @Override
+    public List<Book> searchBooks(String text, int limit) {
+        return list(call("SEARCH " + limit + " " + text(text, "search text")), RemoteShard::book);
+    }
+
+    @Override
+    public List<Book> searchBooksByTitlePrefix(String prefix, int limit) {
+        return list(call("TITLE " + limit + " " + text(prefix, "title prefix")), RemoteShard::book);
+    }
+
+    // fetched a page at a time as the iteration goes on, so later pages reflect later writes
+    @Override
+    public Iterator<Loan> activeLoansByDueDate() {
+        return new Iterator<>() {
+            Iterator<Loan> page = Collections.emptyIterator();
+            String cursor;
+            boolean last;
+
+            @Override
+            public boolean hasNext() {
+                while(!page.hasNext() && !last) {
+                    Map<?, ?> r = due(PAGE + (cursor == null ? "" : " " + cursor));
+                    page = list(r.get("items"), RemoteShard::loan).iterator();
+                    cursor = (String) r.get("next");
+                    last = cursor == null;
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public Loan next() {
+                if(!hasNext()) throw new NoSuchElementException();
+                return page.next();
+            }
+        };
+    }
+
+    @Override
+    public List<Loan> listFirstDue(int n) {
+        if(n > LibraryProtocol.MAX_PAGE) {
+            List<Loan> res = new ArrayList<>();
+            for(Iterator<Loan> it = activeLoansByDueDate(); res.size() < n && it.hasNext(); ) res.add(it.next());
+            return res;
+        }
+        if(n <= 0) return new ArrayList<>();
+        return list(due(Integer.toString(n)).get("items"), RemoteShard::loan);
+    }
+
+    // a DUE page; a refused one (ERR, e.g. a stale replica) throws, no loans would pass for an idle shard
+    private Map<?, ?> due(String args) {
+        Object r = call("DUE " + args);
+        if(r == FAILED) throw new IllegalStateException("Shard " + address + " refused DUE " + args);
+        return (Map<?, ?>) r;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection c;
+        while((c = idle.poll()) != null) c.close();
+    }
+
+    // ------------------------------ WIRE ------------------------------------------
+
+    // the JSON value of an OK response, FAILED for an ERR
+    private Object call(String request) {
+        if(request.indexOf('\n') >= 0 || request.indexOf('\r') >= 0) throw new IllegalArgumentException("Line break in a request");
+        if(closed) throw new IllegalStateException("Shard " + address + " is closed");
+        Connection c = idle.poll();
+        String response;
+        try {
+            if(c == null) c = new Connection(address);
+            response = c.send(request);
+        } catch (IOException e) {
+            if(c != null) c.close();
+            throw new UncheckedIOException(e);
+        }
+        idle.add(c);
+        if(response.startsWith("OK ")) return JsonReader.parse(response.substring(3));
+        if(response.startsWith("ERR")) return FAILED;
+        throw new IllegalStateException("Bad response from shard " + address + ": " + response);
+    }
+
+    private static final class Connection {
+        private final Socket socket;
+        private final LineReader in;
+        private final OutputStream out;
+
+        Connection(InetSocketAddress address) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address, 10_000);
+            in = new LineReader(socket.getInputStream(), MAX_LINE);
+            out = new BufferedOutputStream(socket.getOutputStream(), 8 * 1024);
+        }
+
+        String send(String request) throws IOException {
+            out.write(request.getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+            out.flush();
+            String response = in.readLine();
+            if(response == null) throw new EOFException("Shard closed the connection");
+            return response;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // gone anyway
+            }
+        }
+    }
+
+    // an argument that must not run into the next one
+    private static String word(String s) {
+        if(s.isEmpty() || s.indexOf(' ') >= 0) throw new IllegalArgumentException("Bad argument '" + s + "'");
+        return text(s, "argument");
+    }
+
+    // free text at the end of a request: a line break would end the request and start another command
+    private static String text(String s, String what) {
+        if(s.indexOf('\n') >= 0 || s.indexOf('\r') >= 0) throw new IllegalArgumentException("Line break in " + what);
+        return s;
+    }
+
+    // a field of a tab-separated list (title, author)
+    private static String field(String s, String what) {
+        if(s.indexOf('\t') >= 0) throw new IllegalArgumentException("Tab in " + what);
+        return text(s, what);
+    }
+
+    // ------------------------------ JSON -> DOMAIN ------------------------------------------
+
+    private static Book book(Object json) {
+        if(json == FAILED || json == null) return null;
+        Map<?, ?> m = (Map<?, ?>) json;
+        return new Book((String) m.get("isbn"), (String) m.get("title"), (String) m.get("author"), (int) number(m.get("totalCopies")));
+    }
+
+    private static Loan loan(Object json) {
+        if(json == FAILED || json == null) return null;
+        Map<?, ?> m = (Map<?, ?>) json;
+        return new Loan(number(m.get("id")), (String) m.get("isbn"), number(m.get("memberId")),
+                date(m.get("loanDate")), date(m.get("dueDate")), date(m.get("returnDate")));
+    }
+
+    private static Member member(Object json) {
+        if(json == FAILED || json == null) return null;
+        Map<?, ?> m = (Map<?, ?>) json;
+        return new Member(number(m.get("id")), (String) m.get("name"), (String) m.get("email"));
+    }
+
+    private static <T> List<T> list(Object json, Function<Object, T> element) {
+        if(json == FAILED || json == null) return new ArrayList<>();
+        List<?> items = (List<?>) json;
+        List<T> res = new ArrayList<>(items.size());
+        for(Object o : items) res.add(element.apply(o));
+        return res;
+    }
+
+    private static long number(Object o) {
+        return ((Number) o).longValue();
+    }
+
+    private static LocalDate date(Object o) {
+        return o == null ? null : LocalDate.parse((String) o);
+    }
+}
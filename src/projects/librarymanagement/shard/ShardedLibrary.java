@@ -0,0 +1,240 @@
+package projects.librarymanagement.shard;
+
+import projects.common.MergingIterator;
+import projects.common.PrefixIndex;
+import projects.common.Validators;
+import projects.common.TrigramIndex;
+import projects.librarymanagement.domain.Book;
+import projects.librarymanagement.domain.Loan;
+import projects.librarymanagement.domain.Member;
+import projects.librarymanagement.service.LibraryService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A library split over n LibraryService shards, each with its own maps, indexes, view and
+ * archive, in this JVM (inProcess) or in n shard servers on localhost (connect).
+ * Books, with their copy counters and loans, are partitioned by a hash of the ISBN; members
+ * by id: shard i hands out the member and loan ids with LibraryService.shardOf(id, n) == i,
+ * so an id names its shard.
+ * Point operations go to one shard. A borrow first checks the member on the member's shard,
+ * then lends on the book's shard (which takes members of other shards on the router's word).
+ * Listings and searches ask every shard (at once when they are remote) and k-way merge the
+ * sorted answers; a member's counters and loans are summed / merged over the shards too.
+ * Baskets (borrowAll / returnAll) and holds are not offered here: a basket may span shards,
+ * which would take a transaction across them.
+ */
+public final class ShardedLibrary implements Closeable {
+    // active loans by due date, loan id breaks ties (each shard's order)
+    private static final Comparator<Loan> BY_DUE_DATE = Comparator.comparing(Loan::getDueDate).thenComparingLong(Loan::getId);
+
+    private final LibraryShard[] shards;
+    private final ExecutorService fanOut; // null: shards are asked one after the other
+    private final AtomicInteger registrations = new AtomicInteger();
+
+    /**
+     * @param shards shard i must hand out the ids of shard i of shards.size()
+     * @param parallel ask the shards of a listing at once (worth it when a call is a round trip)
+     */
+    public ShardedLibrary(List<? extends LibraryShard> shards, boolean parallel) {
+        if(shards.isEmpty()) throw new IllegalArgumentException("No shards");
+        this.shards = shards.toArray(new LibraryShard[0]);
+        this.fanOut = parallel && shards.size() > 1 ? Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "library-shard-fan-out");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    /** n shards in this JVM, in memory (returned loans in temporary directories). */
+    public static ShardedLibrary inProcess(int n) {
+        List<LibraryShard> shards = new ArrayList<>(n);
+        for(int i = 0; i < n; i++) shards.add(new LocalShard(new LibraryService(null, i, n)));
+        return new ShardedLibrary(shards, false);
+    }
+
+    /** The shard servers on localhost, ports[i] started with --shard i/ports.length. */
+    public static ShardedLibrary connect(int... ports) {
+        List<LibraryShard> shards = new ArrayList<>(ports.length);
+        for(int port : ports) shards.add(RemoteShard.connect(port));
+        return new ShardedLibrary(shards, true);
+    }
+
+    public int shardCount() {return shards.length;}
+
+    public LibraryShard shard(int i) {return shards[i];}
+
+    public int shardOfIsbn(String isbn) {
+        int h = isbn.hashCode() * 0x9E3779B9; // ISBNs differ in their last digits, spread them
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    private LibraryShard byIsbn(String isbn) {
+        return shards[shardOfIsbn(isbn)];
+    }
+
+    private LibraryShard byId(long memberOrLoanId) {
+        return shards[LibraryService.shardOf(memberOrLoanId, shards.length)];
+    }
+
+    // ------------------------------ BOOKS AND LOANS ------------------------------------------
+
+    // ISBNs are normalized before they pick a shard, so "978-..." and "978..." land on the same one
+
+    public Book addBook(String isbn, String title, String author, int totalCopies) {
+        String key = Validators.normalizeIsbn(isbn);
+        return byIsbn(key).addBook(key, title, author, totalCopies);
+    }
+
+    public Book findBookByIsbn(String isbn) {
+        String key = Validators.normalizeIsbn(isbn);
+        return byIsbn(key).findBookByIsbn(key);
+    }
+
+    public int availableCopies(String isbn) {
+        String key = Validators.normalizeIsbn(isbn);
+        return byIsbn(key).availableCopies(key);
+    }
+
+    /** @return the loan, or null if the book or the member does not exist or no copy is left */
+    public Loan borrow(String isbn, long memberId) {
+        isbn = Validators.normalizeIsbn(isbn);
+        int bookShard = shardOfIsbn(isbn);
+        if(memberId <= 0) return null;
+        // the book's shard only checks its own members
+        if(LibraryService.shardOf(memberId, shards.length) != bookShard && byId(memberId).findMemberById(memberId) == null) return null;
+        return shards[bookShard].borrow(isbn, memberId);
+    }
+
+    public boolean returnLoan(long loanId) {
+        return loanId > 0 && byId(loanId).returnLoan(loanId);
+    }
+
+    // ------------------------------ MEMBERS ------------------------------------------
+
+    // new members go to the shards in turn
+    public Member registerMember(String name, String email) {
+        return shards[Math.floorMod(registrations.getAndIncrement(), shards.length)].registerMember(name, email);
+    }
+
+    public Member findMemberById(long memberId) {
+        return memberId <= 0 ? null : byId(memberId).findMemberById(memberId);
+    }
+
+    public boolean updateMemberEmail(long memberId, String email) {
+        return memberId > 0 && byId(memberId).updateMemberEmail(memberId, email);
+    }
+
+    /** The member's counters summed over the shards; null if the member does not exist. */
+    public LibraryService.LoanStats statsFor(long memberId) {
+        if(memberId <= 0) return null;
+        List<LibraryService.LoanStats> perShard = gather(shard -> shard.statsFor(memberId));
+        // the member's own shard has counters from registration on, the others once it borrows there
+        if(perShard.get(LibraryService.shardOf(memberId, shards.length)) == null) return null;
+        int total = 0;
+        int active = 0;
+        for(LibraryService.LoanStats s : perShard) {
+            if(s == null) continue;
+            total += s.getTotal();
+            active += s.getActive();
+        }
+        return new LibraryService.LoanStats(total, active);
+    }
+
+    // every loan of the member (active and returned), by loan id
+    public List<Loan> listLoansByMember(long memberId) {
+        if(findMemberById(memberId) == null) return Collections.emptyList();
+        return MergingIterator.merge(gather(shard -> shard.listLoansByMember(memberId)), Comparator.comparingLong(Loan::getId), Integer.MAX_VALUE);
+    }
+
+    // ------------------------------ SCATTER-GATHER ------------------------------------------
+
+    // top "limit" matches over all shards, in title order
+    public List<Book> searchBooksByTitlePrefix(String prefix, int limit) {
+        // a shard files a book under PrefixIndex.key(title, isbn)
+        Comparator<Book> byTitle = Comparator.comparing(b -> PrefixIndex.key(b.getTitle(), b.getIsbn()));
+        return MergingIterator.merge(gather(shard -> shard.searchBooksByTitlePrefix(prefix, limit)), byTitle, limit);
+    }
+
+    // best matches over all shards; a book's rank does not depend on its shard, so the
+    // shards' top "limit" lists merge into the overall top "limit"
+    public List<Book> searchBooks(String text, int limit) {
+        List<List<Scored>> ranked = gather(shard -> {
+            List<Scored> res = new ArrayList<>();
+            for(Book b : shard.searchBooks(text, limit)) res.add(new Scored(b, TrigramIndex.score(text, b.getTitle() + " " + b.getAuthor())));
+            return res;
+        });
+        List<Book> res = new ArrayList<>();
+        for(Scored s : MergingIterator.merge(ranked, Scored.BEST_FIRST, limit)) res.add(s.book);
+        return res;
+    }
+
+    private record Scored(Book book, double score) {
+        static final Comparator<Scored> BEST_FIRST = Comparator.comparingDouble(Scored::score).reversed();
+    }
+
+    public List<Loan> listActiveLoansSortedByDueDate() {
+        List<Loan> res = new ArrayList<>();
+        activeLoansByDueDate().forEachRemaining(res::add);
+        return res;
+    }
+
+    // lazy: each shard is read as the merge gets to it
+    public Stream<Loan> streamActiveLoansSortedByDueDate() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(activeLoansByDueDate(),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private Iterator<Loan> activeLoansByDueDate() {
+        return new MergingIterator<>(gather(LibraryShard::activeLoansByDueDate), BY_DUE_DATE);
+    }
+
+    // the first n active loans to fall due, over all shards
+    public List<Loan> listFirstDue(int n) {
+        return MergingIterator.merge(gather(shard -> shard.listFirstDue(n)), BY_DUE_DATE, n);
+    }
+
+    // f on every shard, results in shard order
+    private <T> List<T> gather(Function<LibraryShard, T> f) {
+        List<T> res = new ArrayList<>(shards.length);
+        if(fanOut == null) {
+            for(LibraryShard s : shards) res.add(f.apply(s));
+            return res;
+        }
+        List<Future<T>> calls = new ArrayList<>(shards.length);
+        for(LibraryShard s : shards) calls.add(fanOut.submit(() -> f.apply(s)));
+        try {
+            for(Future<T> c : calls) res.add(c.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the shards", e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException r) throw r;
+            throw new IllegalStateException(e.getCause());
+        }
+        return res;
+    }
+
+    @Override
+    public void close() {
+        if(fanOut != null) fanOut.shutdown();
+        for(LibraryShard s : shards) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
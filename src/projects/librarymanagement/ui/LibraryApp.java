@@ -1,59 +1,108 @@
 package projects.librarymanagement.ui;
 
+import projects.common.Page;
+import projects.common.TextConsole;
+import projects.common.Validators;
 import projects.librarymanagement.domain.Book;
 import projects.librarymanagement.domain.Loan;
 import projects.librarymanagement.domain.Member;
+import projects.librarymanagement.importer.CatalogImporter;
+import projects.librarymanagement.importer.ImportReport;
+import projects.librarymanagement.persistence.LibraryStore;
 import projects.librarymanagement.service.LibraryService;
+import projects.librarymanagement.service.LibraryView;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Simple Library CLI app.
  * Features:
  * - Add books (ISBN unique) + total copies
  * - Register members (auto ID)
- * - Borrow book (creates a Loan, checks availability)
+ * - Borrow book (creates a Loan, checks availability), or hold it and get it when a copy is returned
  * - Return book (by loan id)
  * - Search books by title prefix
+ * - List books, members and active loans a page at a time
  * - List active loans + member loan history
  * - Update a member's email
  * - View members details +  number of total loans + number of active loans
  * - List of all members with each ones number of total loans + number of active loans
+ * - Bulk import of books or members from a CSV / JSON lines file
+ * - Typo-tolerant search over book titles and authors
+ * - Everything is kept in ./library-data (write-ahead log + snapshots) and restored on start
+ * - --batch replays a script of answers from standard input (no menu or prompts, output fully buffered)
  * @author Giannis
  * @version 1.0.0
  */
 
 public class LibraryApp {
+    private static final int SEARCH_LIMIT = 50; // results shown per fuzzy search
+    private static final int PAGE_SIZE = 50; // rows per page when listing
     public static void main(String[] args) {
-        Scanner reader = new Scanner(System.in);
-        LibraryService service = new LibraryService();
+        TextConsole reader = TextConsole.system(TextConsole.batchRequested(args));
+        LibraryService service = new LibraryService(Path.of("library-data", "archive"));
+        LibraryStore store = openStore(service);
+        // also runs on System.exit when the input ends
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> closeStore(store, service)));
         while(true){
-            printMenu();
+            if(!reader.isBatch()) printMenu();
             int choice = readInt(reader, "Please choose an option: ");
             switch (choice){
                 case 1 -> addBook(reader, service);
                 case 2 -> registerMember(reader, service);
-                case 3 -> listBooks(service);
+                case 3 -> listBooks(reader, service);
                 case 4 -> searchBooksByTitle(reader, service);
                 case 5 -> borrowBook(reader, service);
                 case 6 -> returnBook(reader, service);
-                case 7 -> listActiveLoans(service);
+                case 7 -> listActiveLoans(reader, service);
                 case 8 -> listLoansByMember(reader, service);
                 case 9 -> updateMemberEmail(reader, service);
                 case 10 -> viewMemberDetails(reader, service);
-                case 11 -> listMembers(service);
+                case 11 -> listMembers(reader, service);
+                case 12 -> bulkImport(reader, service);
+                case 13 -> searchBooksFuzzy(reader, service);
                 case 0 -> {
                     System.out.println("Goodbye!");
-                    reader.close();
+                    reader.flush();
                     return;
                 }
                 default -> System.out.println("Invalid option!");
             }
         }
     }
+    //-------------------------------- PERSISTENCE -----------------------------------------
+
+    private static LibraryStore openStore(LibraryService service) {
+        try {
+            LibraryStore store = LibraryStore.open(Path.of("library-data"), service);
+            if(store.getRecoveredRecords() > 0) {
+                System.out.println("Restored " + store.getRecoveredRecords() + " records in "
+                        + store.getRecoveryMillis() + " ms.");
+            }
+            return store;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open library-data", e);
+        }
+    }
+
+    private static void closeStore(LibraryStore store, LibraryService service) {
+        try {
+            store.close();
+        } catch (IOException e) {
+            System.err.println("Could not close library-data: " + e.getMessage());
+        }
+        service.close();
+    }
+
     //-------------------------------- UI FLOWS -------------------------------------------
 
-    private static void addBook(Scanner sc, LibraryService service) {
+    private static void addBook(TextConsole sc, LibraryService service) {
         System.out.println("*** Adding new book ***");
         String isbn = readIsbn(sc, "ISBN (unique): ");
         String title = readNonBlank(sc, "Title: ");
@@ -65,7 +114,7 @@ public class LibraryApp {
         else System.out.println("Book added: " + b.pretty(service.availableCopies(isbn)));
     }
 
-    private static void registerMember( Scanner sc, LibraryService service) {
+    private static void registerMember( TextConsole sc, LibraryService service) {
         System.out.println("*** Registering member ***");
         String name = readNonBlank(sc, "Name: ");
         String email = readEmail(sc, "Email (optional): "); // optional
@@ -73,23 +122,31 @@ public class LibraryApp {
         System.out.println("Member registered. ID: " + m.getId());
     }
 
-    private static void listBooks(LibraryService service) {
+    private static void listBooks(TextConsole sc, LibraryService service) {
         System.out.println("*** Listing books ***");
-        List<Book> books = service.listBooksSortedByTitle();
-        if(books.isEmpty()){
-            System.out.println("No books found!");
+        printPages(sc, cursor -> service.listBooksPage(cursor, PAGE_SIZE),
+                b -> sc.println(b.appendPretty(sc.line(), service.availableCopies(b.getIsbn()))), "No books found!");
+    }
+
+    private static void searchBooksByTitle(TextConsole sc, LibraryService service) {
+        System.out.println("*** Searching books by title prefix ***");
+        String prefix = readNonBlank(sc, "Title starts with: ");
+        List<Book> res = service.searchBooksByTitlePrefix(prefix);
+        if(res.isEmpty()){
+            System.out.println("No matches found!");
             return;
         }
-        for(Book b : books){
+        System.out.println("Found " + res.size() + ":");
+        for(Book b : res){
             int avail = service.availableCopies(b.getIsbn());
-            System.out.println(b.pretty(avail));
+            sc.println(b.appendPretty(sc.line(), avail));
         }
     }
 
-    private static void searchBooksByTitle(Scanner sc, LibraryService service) {
-        System.out.println("*** Searching books by title prefix ***");
-        String prefix = readNonBlank(sc, "Title starts with: ");
-        List<Book> res = service.searchBooksByTitlePrefix(prefix);
+    private static void searchBooksFuzzy(TextConsole sc, LibraryService service) {
+        System.out.println("*** Searching books by title or author ***");
+        String text = readNonBlank(sc, "Words of the title or author: ");
+        List<Book> res = service.searchBooks(text, SEARCH_LIMIT);
         if(res.isEmpty()){
             System.out.println("No matches found!");
             return;
@@ -97,15 +154,19 @@ public class LibraryApp {
         System.out.println("Found " + res.size() + ":");
         for(Book b : res){
             int avail = service.availableCopies(b.getIsbn());
-            System.out.println(b.pretty(avail));
+            sc.println(b.appendPretty(sc.line(), avail));
         }
     }
 
-    private static void borrowBook(Scanner sc , LibraryService service) {
+    private static void borrowBook(TextConsole sc , LibraryService service) {
         System.out.println("*** Borrowing book ***");
         String isbn = readIsbn(sc, "ISBN: ");
         long memberId = readLong(sc, "Member ID: ");
         Loan loan = service.borrow(isbn, memberId);
+        if(loan == null && service.availableCopies(isbn) == 0 && service.findMemberById(memberId) != null){
+            placeHold(sc, service, isbn, memberId);
+            return;
+        }
         if(loan == null){
             System.out.println("Loan failed! Check: ISBN exists, member exists " +
                     "and copies available");
@@ -115,24 +176,39 @@ public class LibraryApp {
         System.out.println(loan.pretty());
     }
 
-    private static void returnBook(Scanner sc , LibraryService service) {
+    private static void placeHold(TextConsole sc, LibraryService service, String isbn, long memberId) {
+        int waiting = service.holdQueueLength(isbn);
+        String answer = readNonBlank(sc, "No copies available (" + waiting + " waiting). Place a hold? (y/n): ");
+        if(!answer.equalsIgnoreCase("y")) return;
+        CompletableFuture<Loan> hold = service.placeHold(isbn, memberId);
+        if(hold == null){
+            System.out.println("Hold failed! Check: ISBN exists, member exists");
+            return;
+        }
+        if(hold.isDone()){
+            System.out.println("A copy was just returned, borrowed successfully!");
+            System.out.println(hold.join().pretty());
+            return;
+        }
+        // printed by whoever returns the copy
+        hold.thenAccept(l -> System.out.println("Hold ready for member " + memberId + ": " + l.pretty()));
+        System.out.println("Hold placed, position " + (waiting + 1) + " in the queue.");
+    }
+
+    private static void returnBook(TextConsole sc , LibraryService service) {
         System.out.println("*** Returning book ***");
         long loanId = readLong(sc, "Loan ID: ");
         boolean ok = service.returnLoan(loanId);
         System.out.println((ok) ? "Returned successfully!" : "Return failed! ( loan not found or already returned)");
     }
 
-    private static void listActiveLoans(LibraryService service) {
+    private static void listActiveLoans(TextConsole sc, LibraryService service) {
         System.out.println("*** Listing active loans ***");
-        List<Loan> active = service.listActiveLoansSortedByDueDate();
-        if(active.isEmpty()){
-            System.out.println("No active loans found!");
-            return;
-        }
-        for(Loan l : active) System.out.println(l.pretty());
+        printPages(sc, cursor -> service.listActiveLoansPage(cursor, PAGE_SIZE),
+                l -> sc.println(l.appendPretty(sc.line())), "No active loans found!");
     }
 
-    private static void listLoansByMember(Scanner sc, LibraryService service) {
+    private static void listLoansByMember(TextConsole sc, LibraryService service) {
         System.out.println("*** Loan history by Member ***");
         long memberId = readLong(sc, "Member ID: ");
         List<Loan> loans = service.listLoansByMember(memberId);
@@ -141,10 +217,10 @@ public class LibraryApp {
             return;
         }
         System.out.println("Found " + loans.size() + ":");
-        for(Loan l : loans) System.out.println(l.pretty());
+        for(Loan l : loans) sc.println(l.appendPretty(sc.line()));
     }
 
-    private static void updateMemberEmail(Scanner sc, LibraryService service) {
+    private static void updateMemberEmail(TextConsole sc, LibraryService service) {
         System.out.println("*** Updating member email ***");
         long memberId = readLong(sc, "Member ID: ");
         // email is required ( validated by readEmail)
@@ -153,7 +229,7 @@ public class LibraryApp {
         System.out.println((ok) ? "Email updated successfully!" : "Update failed ( member not found / invalid email)");
     }
 
-    private static void viewMemberDetails(Scanner sc, LibraryService service) {
+    private static void viewMemberDetails(TextConsole sc, LibraryService service) {
         System.out.println("*** Viewing member details ***");
         long memberId = readLong(sc, "Member ID: ");
         Member m = service.findMemberById(memberId);
@@ -164,28 +240,58 @@ public class LibraryApp {
         System.out.println("ID: " + m.getId());
         System.out.println("Name: " + m.getName());
         System.out.println("Email: " + (m.getEmail().isBlank() ? "(none)" : m.getEmail()));
-        Map<Long, LibraryService.LoanStats> stats = service.computeLoanStatsByMember();
-        LibraryService.LoanStats stat = stats.get(memberId);
+        LibraryService.LoanStats stat = service.statsFor(memberId);
         int totalLoans = (stat == null) ? 0 : stat.getTotal();
-        long activeLoans = (stat == null) ? 0 : stat.getActive();
+        int activeLoans = (stat == null) ? 0 : stat.getActive();
         System.out.println("Loans: " + totalLoans + " | active loans: " + activeLoans);
     }
 
-    private static void listMembers(LibraryService service) {
+    private static void listMembers(TextConsole sc, LibraryService service) {
         System.out.println("*** Listing members ***");
-        List<Member> members = service.listMembersSortedByName();
-        if(members.isEmpty()){
-            System.out.println("No members found!");
-            return;
-        }
-        Map<Long, LibraryService.LoanStats> stats = service.computeLoanStatsByMember();
-        for(Member m : members){
-            LibraryService.LoanStats s = stats.get(m.getId());
+        // every page and its counters as of now, even if loans change while the user pages
+        LibraryView view = service.view();
+        printPages(sc, cursor -> view.listMembersPage(cursor, PAGE_SIZE), m -> {
+            LibraryService.LoanStats s = view.statsFor(m.getId());
             int totalLoans = (s == null) ? 0 : s.getTotal();
             int activeLoans = (s == null) ? 0 : s.getActive();
             String email = m.getEmail().isBlank() ? "(none)" : m.getEmail();
-            System.out.println("ID: " + m.getId() + " | Name: " + m.getName() + " | Email: " + email
-            + " | Total loans: " + totalLoans + " | Active loans: " + activeLoans);
+            sc.println(sc.line().append("ID: ").append(m.getId()).append(" | Name: ").append(m.getName())
+                    .append(" | Email: ").append(email).append(" | Total loans: ").append(totalLoans)
+                    .append(" | Active loans: ").append(activeLoans));
+        }, "No members found!");
+    }
+
+    // one page at a time (first page for a null cursor), until the last page or the user stops
+    private static <T> void printPages(TextConsole sc, Function<String, Page<T>> pages, Consumer<T> print, String none) {
+        Page<T> page = pages.apply(null);
+        if(page.getItems().isEmpty()){
+            System.out.println(none);
+            return;
+        }
+        while(true){
+            page.getItems().forEach(print);
+            if(!page.hasMore()) return;
+            sc.prompt("More? (Enter = next page, q = stop): ");
+            if(readLineOrExit(sc).equalsIgnoreCase("q")) return;
+            page = pages.apply(page.getNextCursor());
+        }
+    }
+
+    private static void bulkImport(TextConsole sc, LibraryService service) {
+        System.out.println("*** Bulk import ***");
+        String kind = readNonBlank(sc, "Import books or members? (b/m): ").toLowerCase();
+        if(!kind.equals("b") && !kind.equals("m")) {
+            System.out.println("Invalid choice!");
+            return;
+        }
+        Path file = Path.of(readNonBlank(sc, "File (.csv or .jsonl): "));
+        CatalogImporter importer = new CatalogImporter(service);
+        try {
+            ImportReport report = kind.equals("b") ? importer.importBooks(file) : importer.importMembers(file);
+            System.out.println("Import done: " + report.pretty());
+            for(String problem : report.getProblems()) System.out.println("  " + problem);
+        } catch (IOException e) {
+            System.out.println("Could not import " + file + ": " + e.getMessage());
         }
     }
 
@@ -202,21 +308,24 @@ public class LibraryApp {
         System.out.println("9. Update member email");
         System.out.println("10. View member details");
         System.out.println("11. List members");
+        System.out.println("12. Bulk import (CSV / JSON lines)");
+        System.out.println("13. Search books by title or author (typos ok)");
         System.out.println("0. Exit");
     }
 
     // --------------------- INPUT HELPERS ------------------------------------------------
-    private static String readLineOrExit(Scanner sc) {
-        if (!sc.hasNextLine()) {
+    private static String readLineOrExit(TextConsole sc) {
+        String line = sc.readLine();
+        if (line == null) {
             System.out.println("\nInput ended. Goodbye!");
             System.exit(0);
         }
-        return sc.nextLine().trim();
+        return line.trim();
     }
 
-    private static int readInt(Scanner sc, String prompt){
+    private static int readInt(TextConsole sc, String prompt){
         while(true){
-            System.out.print(prompt);
+            sc.prompt(prompt);
             String s = readLineOrExit(sc);
             try{
                 return Integer.parseInt(s);
@@ -226,9 +335,9 @@ public class LibraryApp {
         }
     }
 
-    private static long readLong(Scanner sc, String prompt){
+    private static long readLong(TextConsole sc, String prompt){
         while(true){
-            System.out.print(prompt);
+            sc.prompt(prompt);
             String s = readLineOrExit(sc);
             try {
                 return Long.parseLong(s);
@@ -238,7 +347,7 @@ public class LibraryApp {
 
     }
 
-    private static int readNonNegativeInt(Scanner sc, String prompt){
+    private static int readNonNegativeInt(TextConsole sc, String prompt){
         while(true){
             int n = readInt(sc, prompt);
             if(n >= 0) return n;
@@ -246,47 +355,42 @@ public class LibraryApp {
         }
     }
 
-    private static String readNonBlank(Scanner sc, String prompt) {
+    private static String readNonBlank(TextConsole sc, String prompt) {
         while (true) {
-            System.out.print(prompt);
+            sc.prompt(prompt);
             String s = readLineOrExit(sc);
-            if (!s.isEmpty()) return s;
-            System.out.println("Please enter a non-blank string.");
+            if (!s.isEmpty() && Validators.isStorableText(s)) return s;
+            System.out.println(s.isEmpty() ? "Please enter a non-blank string."
+                    : "At most " + Validators.MAX_TEXT_LENGTH + " characters, please.");
         }
     }
 
-    private static String readEmail(Scanner sc, String prompt){
+    private static String readEmail(TextConsole sc, String prompt){
         while(true){
-            System.out.print(prompt);
+            sc.prompt(prompt);
             String e = readLineOrExit(sc);
             if (e.isBlank()) {
                 System.out.println("Email is required.");
                 continue;
             }
-            if(isEmailLike(e)) return e.trim();
+            if(Validators.isEmailLike(e) && Validators.isStorableText(e)) return e.trim();
             System.out.println("Email looks invalid. Please try again.");
         }
     }
 
-    // Email checker regex not RFC-perfect
-    private static boolean isEmailLike(String email) {
-        return (email != null) && (email.matches("(?i)^[A-Z0-9._%+-]+@(?:[A-Z0-9-]+\\.)+[A-Z]{2,}$"));
-    }
-
-    // Not "perfect ISBN", just decent: 10-17 chars digits/X/hyphen
-    private static String readIsbn(Scanner sc, String prompt){
+    private static String readIsbn(TextConsole sc, String prompt){
         while(true) {
-            System.out.print(prompt);
+            sc.prompt(prompt);
             String isbn = readLineOrExit(sc);
             if (isbn.isEmpty()) {
                 System.out.println("Please enter a valid ISBN.");
                 continue;
             }
-            if (!isbn.matches("(?i)^[0-9X-]{10,17}$")) {
-                System.out.println("Please enter a valid ISBN. Example: 978-0134685991");
+            if (!Validators.isIsbn(isbn)) {
+                System.out.println("Please enter a valid ISBN-10/13 (check digit included). Example: 978-0134685991");
                 continue;
             }
-            return isbn.toUpperCase();
+            return Validators.normalizeIsbn(isbn);
         }
     }
 }